@@ -74,6 +74,15 @@ public interface AccessManager
 	 */
 	public String getAnnouncement(InetAddress address);
 
+	/**
+	 * Returns a number that changes whenever the answer to any check could have changed, such as when the rules are 
+	 * reloaded or a temporary rule is added, cleared or runs out.  Access looked up under the same generation is 
+	 * still current.
+	 * 
+	 * @return	The current generation of the rules
+	 */
+	public long getGeneration();
+
 	/**
 	 * Temporairly adds a user to the nanned list using a pattern algorythm defined by the AccessManager implementation.
 	 * While active, <code>isAddressAllowed</code> should return false, and <code>getAccess</code> should return 
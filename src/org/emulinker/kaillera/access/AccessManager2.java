@@ -2,44 +2,100 @@ package org.emulinker.kaillera.access;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.*;
 import org.emulinker.util.WildcardStringPattern;
 import org.picocontainer.Startable;
 
+/**
+ * Reads access rules from access.cfg, along with temporary bans, silences and elevated access added by admins while
+ * the server is running.<br>
+ * <br>
+ * Every access check used to lock the manager and walk each list of rules comparing patterns to the address as text.
+ * Instead, the rules are compiled into a Rules snapshot: address rules go into AddressRuleSets, which find the first
+ * matching rule with a walk down a prefix trie, and the temporary rules get sets of their own laid over the top.  A
+ * snapshot never changes once it's built.  Reloading access.cfg, resolving DNS entries and adding or clearing
+ * temporary rules build a new one, holding the manager's lock so they don't undo each other, and swap it in; checks
+ * just read whichever snapshot is current and never lock.  dns: entries are resolved in the background by a
+ * DnsResolver, and compiled with whatever addresses they've resolved to so far; the rules are compiled again as
+ * answers come in.<br>
+ * <br>
+ * Each snapshot has a generation number, one more than the last, and checks made against it are remembered per
+ * address until a newer snapshot replaces it or one of its temporary rules expires, so the same client looked up over
+ * and over costs one map lookup.  The server compares generations to tell whether any user's access could have
+ * changed since it last looked.<br>
+ * <br>
+ * access.cfg is reloaded when it changes, by a thread watching the directory it's in.  Lines that haven't changed keep
+ * the rules they were parsed into last time, along with whatever their dns: entries have resolved to, so editing one
+ * line of a long ban list only parses that line.
+ */
 public class AccessManager2 implements AccessManager, Startable, Runnable
 {
-	static
-	{
-		java.security.Security.setProperty("networkaddress.cache.ttl" , "60");
-		java.security.Security.setProperty("networkaddress.cache.negative.ttl" , "60");
-	}
-	
 	private static Log				log						= LogFactory.getLog(AccessManager2.class);
 
+	// how often to look at access.cfg's modified time if its directory can't be watched
+	private static final long		RELOAD_CHECK_INTERVAL	= 1000;
+	// how long to let a save finish before reading the file
+	private static final long		RELOAD_SETTLE_TIME		= 200;
+	// the most addresses to remember decisions for; past this the cache starts over
+	private static final int		MAX_DECISIONS			= 4096;
+	// dns: lookups that can run at once, and how long their answers are good for
+	private static final int		MAX_DNS_LOOKUPS			= 4;
+	private static final long		DNS_TTL					= 30000;
+	private static final long		DNS_NEGATIVE_TTL		= 30000;
+
 	private ThreadPoolExecutor		threadPool;
 	private boolean					isRunning				= false;
-	private boolean					stopFlag				= false;
+	private volatile boolean		stopFlag				= false;
+
+	private DnsResolver				resolver;
+	// only used holding the lock
+	private boolean					dnsRefreshPending		= false;
 
 	private File					accessFile;
-	private long					lastLoadModifiedTime	= -1;
-
-	private List<UserAccess>		userList				= new CopyOnWriteArrayList<UserAccess>();
-	private List<GameAccess>		gameList				= new CopyOnWriteArrayList<GameAccess>();
-	private List<EmulatorAccess>	emulatorList			= new CopyOnWriteArrayList<EmulatorAccess>();
-	private List<AddressAccess>		addressList				= new CopyOnWriteArrayList<AddressAccess>();
-	private List<TempBan>			tempBanList				= new CopyOnWriteArrayList<TempBan>();
-	private List<TempAdmin>			tempAdminList			= new CopyOnWriteArrayList<TempAdmin>();
-	private List<TempModerator>		tempModeratorList		= new CopyOnWriteArrayList<TempModerator>();
-	private List<TempElevated>	    tempElevatedList		= new CopyOnWriteArrayList<TempElevated>();
-	private List<Silence>			silenceList				= new CopyOnWriteArrayList<Silence>();
+	// only changed by reload
+	private volatile long			lastLoadModifiedTime	= -1;
+	private Map<String, Object>		lineRules				= new HashMap<String, Object>();
+	private volatile int			reloadCount				= 0;
+	private volatile long			reloadMillis			= 0;
+	private volatile int			numLines				= 0;
+	private volatile int			numReused				= 0;
+
+	// the rules as loaded and added; only used holding the lock, to build the snapshot checks read
+	private List<UserAccess>		userList				= new ArrayList<UserAccess>();
+	private List<GameAccess>		gameList				= new ArrayList<GameAccess>();
+	private List<EmulatorAccess>	emulatorList			= new ArrayList<EmulatorAccess>();
+	private List<AddressAccess>		addressList				= new ArrayList<AddressAccess>();
+	private List<TempAccess>		tempBanList				= new ArrayList<TempAccess>();
+	private List<TempAccess>		tempAdminList			= new ArrayList<TempAccess>();
+	private List<TempAccess>		tempModeratorList		= new ArrayList<TempAccess>();
+	private List<TempAccess>	    tempElevatedList		= new ArrayList<TempAccess>();
+	private List<TempAccess>		silenceList				= new ArrayList<TempAccess>();
+
+	private volatile Rules			rules					= new Rules();
+	// only changed holding the lock
+	private long					generation				= 0;
+
+	private ConcurrentHashMap<InetAddress, Decision>	decisions	= new ConcurrentHashMap<InetAddress, Decision>();
+	private AtomicLong				decisionHits			= new AtomicLong();
+	private AtomicLong				decisionMisses			= new AtomicLong();
 
 	public AccessManager2(ThreadPoolExecutor threadPool) throws NoSuchElementException, FileNotFoundException
 	{
 		this.threadPool = threadPool;
 
+		resolver = new DnsResolver(threadPool, DnsResolver.SYSTEM_LOOKUP, new DnsResolver.Listener()
+		{
+			public void addressesChanged(String hostName)
+			{
+				dnsChanged();
+			}
+		}, MAX_DNS_LOOKUPS, DNS_TTL, DNS_NEGATIVE_TTL);
+
 		URL url = AccessManager2.class.getResource("/access.cfg");
 		if (url == null)
 			throw new FileNotFoundException("Resource not found: /access.conf");
@@ -59,9 +115,10 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 		if (!accessFile.canRead())
 			throw new FileNotFoundException("Can not read: /access.conf");
 
-		loadAccess();
+		reload();
 
 		threadPool.execute(this);
+		threadPool.execute(new AccessFileWatcher());
 	}
 
 	public synchronized void start()
@@ -95,8 +152,12 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 		addressList.clear();
 		tempBanList.clear();
 		tempElevatedList.clear();
+		tempModeratorList.clear();
 		tempAdminList.clear();
 		silenceList.clear();
+		rules = new Rules();
+		decisions.clear();
+		resolver.clear();
 	}
 
 	public void run()
@@ -122,45 +183,14 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 
 				synchronized (this)
 				{
-					for (TempBan tempBan : tempBanList)
-					{
-						if (tempBan.isExpired())
-							tempBanList.remove(tempBan);
-					}
+					// expired rules are already ignored by checks, this just stops them piling up
+					boolean changed = (removeExpired(tempBanList) | removeExpired(tempAdminList) | removeExpired(tempModeratorList) | removeExpired(tempElevatedList) | removeExpired(silenceList));
 
-					for (TempAdmin tempAdmin : tempAdminList)
-					{
-						if (tempAdmin.isExpired())
-							tempAdminList.remove(tempAdmin);
-					}
-					
-					for (TempModerator tempModerator  : tempModeratorList)
-					{
-						if (tempModerator .isExpired())
-							tempModeratorList.remove(tempModerator);
-					}
-					
-					for (TempElevated tempElevated  : tempElevatedList)
-					{
-						if (tempElevated .isExpired())
-							tempElevatedList.remove(tempElevated);
-					}
-					
-					for (Silence silence : silenceList)
-					{
-						if (silence.isExpired())
-							silenceList.remove(silence);
-					}
-					
-					for(UserAccess userAccess : userList)
-					{
-						userAccess.refreshDNS();
-					}
+					// starts lookups for any answers that are out of date, which will recompile when they come in
+					changed |= refreshDNS();
 
-					for(AddressAccess addressAccess : addressList)
-					{
-						addressAccess.refreshDNS();
-					}
+					if (changed)
+						compile();
 				}
 			}
 		}
@@ -176,25 +206,72 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 		}
 	}
 
-	private synchronized void checkReload()
+	/**
+	 * Takes up the addresses dns: entries have resolved to, compiling them into a new snapshot if they've changed.
+	 * Answers tend to come in several at once, so this waits for the thread pool and does them all in one go.
+	 */
+	private synchronized void dnsChanged()
 	{
-		if (accessFile != null && accessFile.lastModified() > lastLoadModifiedTime)
-			loadAccess();
+		if (dnsRefreshPending)
+			return;
+		dnsRefreshPending = true;
+
+		threadPool.execute(new Runnable()
+		{
+			public void run()
+			{
+				synchronized (AccessManager2.this)
+				{
+					dnsRefreshPending = false;
+					if (refreshDNS())
+						compile();
+				}
+			}
+		});
 	}
 
-	private synchronized void loadAccess()
+	/**
+	 * Only called holding the lock.
+	 *
+	 * @return	true if any rule's addresses have changed
+	 */
+	private boolean refreshDNS()
 	{
-		if (accessFile == null)
-			return;
+		boolean changed = false;
 
+		for(UserAccess userAccess : userList)
+		{
+			changed |= userAccess.refreshDNS();
+		}
+
+		for(AddressAccess addressAccess : addressList)
+		{
+			changed |= addressAccess.refreshDNS();
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Reads access.cfg and swaps in rules for what it says now.  A line that's the same as one last time keeps the rule
+	 * it was parsed into; only new and changed lines are parsed.  The file is read and parsed without the lock, which is
+	 * only held to swap the lists and compile them.  If the file can't be read the current rules are kept.  Only called
+	 * from the constructor and the watcher thread.
+	 */
+	private void reload()
+	{
 		log.info("Reloading permissions...");
 
+		long startTime = System.currentTimeMillis();
 		lastLoadModifiedTime = accessFile.lastModified();
 
-		userList.clear();
-		gameList.clear();
-		emulatorList.clear();
-		addressList.clear();
+		List<UserAccess> users = new ArrayList<UserAccess>();
+		List<GameAccess> games = new ArrayList<GameAccess>();
+		List<EmulatorAccess> emulators = new ArrayList<EmulatorAccess>();
+		List<AddressAccess> addresses = new ArrayList<AddressAccess>();
+		Map<String, Object> parsed = new HashMap<String, Object>();
+		int lines = 0;
+		int reused = 0;
 
 		try
 		{
@@ -207,239 +284,562 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 				if (line.length() == 0 || line.startsWith("#") || line.startsWith("//"))
 					continue;
 
-				StringTokenizer st = new StringTokenizer(line, ",");
-				if (st.countTokens() < 3)
-				{
-					log.error("Failed to load access line, too few tokens: " + line);
-					continue;
-				}
-
-				String type = st.nextToken();
-
-				try
+				Object rule = lineRules.get(line);
+				if (rule != null)
 				{
-					if (type.equalsIgnoreCase("user"))
-						userList.add(new UserAccess(st));
-					else if (type.equalsIgnoreCase("game"))
-						gameList.add(new GameAccess(st));
-					else if (type.equalsIgnoreCase("emulator"))
-						emulatorList.add(new EmulatorAccess(st));
-					else if (type.equalsIgnoreCase("ipaddress"))
-						addressList.add(new AddressAccess(st));
-					else
-						throw new Exception("Unrecognized access type: " + type);
+					reused++;
 				}
-				catch (Exception e)
+				else
 				{
-					log.error("Failed to load access line: " + e.getMessage() + ": " + line);
+					rule = parse(line);
+					if (rule == null)
+						continue;
 				}
+
+				parsed.put(line, rule);
+				lines++;
+
+				if (rule instanceof UserAccess)
+					users.add((UserAccess) rule);
+				else if (rule instanceof GameAccess)
+					games.add((GameAccess) rule);
+				else if (rule instanceof EmulatorAccess)
+					emulators.add((EmulatorAccess) rule);
+				else
+					addresses.add((AddressAccess) rule);
 			}
 
 			reader.close();
 		}
 		catch (IOException e)
 		{
-			log.error("Failed to load access file: " + e.getMessage(), e);
+			log.error("Failed to load access file, keeping the current rules: " + e.getMessage(), e);
+			return;
+		}
+
+		synchronized (this)
+		{
+			lineRules = parsed;
+			userList = users;
+			gameList = games;
+			emulatorList = emulators;
+			addressList = addresses;
+			// answers that came in while parsing went to the old lists
+			refreshDNS();
+			compile();
+		}
+
+		reloadMillis = (System.currentTimeMillis() - startTime);
+		reloadCount++;
+		numLines = lines;
+		numReused = reused;
+		log.info("Loaded permissions: " + rules + " (" + reused + " of " + lines + " lines unchanged, " + reloadMillis + "ms)");
+	}
+
+	/**
+	 * @return	The rule an access.cfg line describes, or null if it isn't a valid one
+	 */
+	private Object parse(String line)
+	{
+		StringTokenizer st = new StringTokenizer(line, ",");
+		if (st.countTokens() < 3)
+		{
+			log.error("Failed to load access line, too few tokens: " + line);
+			return null;
+		}
+
+		String type = st.nextToken();
+
+		try
+		{
+			if (type.equalsIgnoreCase("user"))
+				return new UserAccess(st);
+			else if (type.equalsIgnoreCase("game"))
+				return new GameAccess(st);
+			else if (type.equalsIgnoreCase("emulator"))
+				return new EmulatorAccess(st);
+			else if (type.equalsIgnoreCase("ipaddress"))
+				return new AddressAccess(st);
+			else
+				throw new Exception("Unrecognized access type: " + type);
+		}
+		catch (Exception e)
+		{
+			log.error("Failed to load access line: " + e.getMessage() + ": " + line);
+			return null;
 		}
 	}
 
-	public void addTempBan(String addressPattern, int minutes)
+	/**
+	 * Builds a new snapshot from every list.  Only called holding the lock.
+	 */
+	private void compile()
+	{
+		AddressRuleSet.Builder<UserAccess> users = new AddressRuleSet.Builder<UserAccess>();
+		for (UserAccess userAccess : userList)
+		{
+			users.next(userAccess, 0);
+			for (String pattern : userAccess.getPatterns())
+				users.addPattern(pattern);
+			for (InetAddress address : userAccess.getResolvedAddresses())
+				users.addAddress(address);
+		}
+
+		AddressRuleSet.Builder<AddressAccess> addresses = new AddressRuleSet.Builder<AddressAccess>();
+		for (AddressAccess addressAccess : addressList)
+		{
+			addresses.next(addressAccess, 0);
+			for (String pattern : addressAccess.getPatterns())
+				addresses.addPattern(pattern);
+			for (InetAddress address : addressAccess.getResolvedAddresses())
+				addresses.addAddress(address);
+		}
+
+		publish(users.build(), addresses.build(), new ArrayList<GameAccess>(gameList), new ArrayList<EmulatorAccess>(emulatorList));
+	}
+
+	/**
+	 * Builds a new snapshot with the current temporary rules, keeping the rest of the current one.  Only called
+	 * holding the lock.
+	 */
+	private void compileTemp()
+	{
+		Rules old = rules;
+		publish(old.users, old.addresses, old.games, old.emulators);
+	}
+
+	/**
+	 * Swaps in a new snapshot of the given rules and the current temporary rules, as the next generation.  Only
+	 * called holding the lock.
+	 */
+	private void publish(AddressRuleSet<UserAccess> users, AddressRuleSet<AddressAccess> addresses, List<GameAccess> games, List<EmulatorAccess> emulators)
+	{
+		// decisions hold until the first temporary rule still in effect runs out
+		long now = System.currentTimeMillis();
+		long expires = Long.MAX_VALUE;
+		for (List<TempAccess> list : Arrays.asList(tempBanList, tempAdminList, tempModeratorList, tempElevatedList, silenceList))
+		{
+			for (TempAccess tempAccess : list)
+			{
+				if (tempAccess.getExpireTime() >= now)
+					expires = Math.min(expires, tempAccess.getExpireTime());
+			}
+		}
+
+		rules = new Rules(++generation, expires, users, addresses, games, emulators, compileTemp(tempBanList), compileTemp(tempAdminList), compileTemp(tempModeratorList), compileTemp(tempElevatedList), compileTemp(silenceList));
+		// anything left is from an older generation and would never be used again
+		decisions.clear();
+	}
+
+	/**
+	 * Drops temporary rules that have run out, if any have since the current snapshot was built, which starts a new
+	 * generation.
+	 */
+	private synchronized void expireTemp()
+	{
+		if (System.currentTimeMillis() <= rules.expires)
+			return;
+
+		removeExpired(tempBanList);
+		removeExpired(tempAdminList);
+		removeExpired(tempModeratorList);
+		removeExpired(tempElevatedList);
+		removeExpired(silenceList);
+		compileTemp();
+	}
+
+	private static AddressRuleSet<TempAccess> compileTemp(List<TempAccess> list)
+	{
+		AddressRuleSet.Builder<TempAccess> builder = new AddressRuleSet.Builder<TempAccess>();
+		for (TempAccess tempAccess : list)
+		{
+			builder.next(tempAccess, tempAccess.getExpireTime());
+			for (String pattern : tempAccess.getPatterns())
+				builder.addPattern(pattern);
+		}
+		return builder.build();
+	}
+
+	private static boolean removeExpired(List<TempAccess> list)
+	{
+		boolean removed = false;
+		Iterator<TempAccess> iter = list.iterator();
+		while (iter.hasNext())
+		{
+			if (iter.next().isExpired())
+			{
+				iter.remove();
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	public synchronized void addTempBan(String addressPattern, int minutes)
 	{
 		tempBanList.add(new TempBan(addressPattern, minutes));
+		compileTemp();
 	}
 
-	public void addTempAdmin(String addressPattern, int minutes)
+	public synchronized void addTempAdmin(String addressPattern, int minutes)
 	{
 		tempAdminList.add(new TempAdmin(addressPattern, minutes));
+		compileTemp();
 	}
-	
-	public void addTempModerator(String addressPattern, int minutes)
+
+	public synchronized void addTempModerator(String addressPattern, int minutes)
 	{
 		tempModeratorList.add(new TempModerator(addressPattern, minutes));
+		compileTemp();
 	}
-	
-	public void addTempElevated(String addressPattern, int minutes)
+
+	public synchronized void addTempElevated(String addressPattern, int minutes)
 	{
 		tempElevatedList.add(new TempElevated(addressPattern, minutes));
-	}	
+		compileTemp();
+	}
 
-	public void addSilenced(String addressPattern, int minutes)
+	public synchronized void addSilenced(String addressPattern, int minutes)
 	{
 		silenceList.add(new Silence(addressPattern, minutes));
+		compileTemp();
 	}
 
-	public synchronized String getAnnouncement(InetAddress address)
+	public String getAnnouncement(InetAddress address)
 	{
-		checkReload();
-		String userAddress = address.getHostAddress();
-		for (UserAccess userAccess : userList)
-		{
-			if (userAccess.matches(userAddress))
-				return userAccess.getMessage();
-		}
+		return getDecision(address).announcement;
+	}
 
-		return null;
+	public int getAccess(InetAddress address)
+	{
+		return getDecision(address).access;
 	}
 
-	public synchronized int getAccess(InetAddress address)
+	public long getGeneration()
 	{
-		checkReload();
+		if (System.currentTimeMillis() > rules.expires)
+			expireTemp();
+		return rules.generation;
+	}
 
-		String userAddress = address.getHostAddress();
+	/**
+	 * @return	Every check for address, as of the current snapshot
+	 */
+	private Decision getDecision(InetAddress address)
+	{
+		Rules r = rules;
+		long now = System.currentTimeMillis();
 
-		for (TempAdmin tempAdmin : tempAdminList)
+		Decision decision = decisions.get(address);
+		if (decision != null && decision.generation == r.generation && now <= r.expires)
 		{
-			if (tempAdmin.matches(userAddress) && !tempAdmin.isExpired())
-				return ACCESS_ADMIN;
+			decisionHits.incrementAndGet();
+			return decision;
 		}
-		
-		for (TempModerator tempModerator : tempModeratorList)
+
+		decisionMisses.incrementAndGet();
+		decision = new Decision(r, address, now);
+		// one made after a temporary rule has run out is only good until the snapshot is rebuilt without it
+		if (now <= r.expires)
 		{
-			if (tempModerator.matches(userAddress) && !tempModerator.isExpired())
-				return ACCESS_MODERATOR;
+			if (decisions.size() >= MAX_DECISIONS)
+				decisions.clear();
+			decisions.put(address, decision);
 		}
-		
-		for (TempElevated tempElevated : tempElevatedList)
+		return decision;
+	}
+
+	public synchronized boolean clearTemp(InetAddress address, boolean clearAll)
+	{
+		boolean found = false;
+
+		// expired silences go too, expired bans are left for the cleanup
+		found |= removeMatching(silenceList, address, true);
+		found |= removeMatching(tempBanList, address, false);
+
+		if (clearAll)
 		{
-			if (tempElevated.matches(userAddress) && !tempElevated.isExpired())
-				return ACCESS_ELEVATED;
+			found |= removeMatching(tempElevatedList, address, true);
+			found |= removeMatching(tempModeratorList, address, true);
+			found |= removeMatching(tempAdminList, address, true);
 		}
 
-		for (UserAccess userAccess : userList)
+		if (found)
+			compileTemp();
+		return found;
+	}
+
+	/**
+	 * Removes every rule in list that matches address.
+	 */
+	private static boolean removeMatching(List<TempAccess> list, InetAddress address, boolean includeExpired)
+	{
+		boolean removed = false;
+		Iterator<TempAccess> iter = list.iterator();
+		while (iter.hasNext())
 		{
-			if (userAccess.matches(userAddress))
-				return userAccess.getAccess();
+			TempAccess tempAccess = iter.next();
+			if (tempAccess.matches(address) && (includeExpired || !tempAccess.isExpired()))
+			{
+				iter.remove();
+				removed = true;
+			}
 		}
+		return removed;
+	}
 
-		return ACCESS_NORMAL;
+	public boolean isSilenced(InetAddress address)
+	{
+		return getDecision(address).silenced;
 	}
-	
-	public synchronized boolean clearTemp(InetAddress address, boolean clearAll)
+
+	public boolean isAddressAllowed(InetAddress address)
 	{
-		String userAddress = address.getHostAddress();
-		boolean found = false;
+		return getDecision(address).allowed;
+	}
 
-		for (Silence silence : silenceList)
+	public boolean isEmulatorAllowed(String emulator)
+	{
+		for (EmulatorAccess emulatorAccess : rules.emulators)
 		{
-			if (silence.matches(userAddress))
-			{
-				silenceList.remove(silence);
-				found = true;
-			}
+			if (emulatorAccess.matches(emulator))
+				return emulatorAccess.getAccess();
 		}
-		
-		for (TempBan tempBan : tempBanList)
+
+		return true;
+	}
+
+	public boolean isGameAllowed(String game)
+	{
+		for (GameAccess gameAccess : rules.games)
 		{
-			if (tempBan.matches(userAddress) && !tempBan.isExpired())
-			{
-				tempBanList.remove(tempBan);
-				found = true;
-			}
+			if (gameAccess.matches(game))
+				return gameAccess.getAccess();
 		}
-		
-		if (clearAll)
+
+		return true;
+	}
+
+	public String getStats()
+	{
+		return "reloads=" + reloadCount + " reloadMillis=" + reloadMillis + " lines=" + numLines + " reused=" + numReused + " generation=" + rules.generation + " decisions=" + decisions.size() + " hits=" + decisionHits.get() + " misses=" + decisionMisses.get() + " " + rules + " " + resolver;
+	}
+
+	public String toString()
+	{
+		return "AccessManager2[" + getStats() + "]";
+	}
+
+	/**
+	 * Reloads access.cfg when it changes.  The directory is watched rather than the file, since editors often save by
+	 * writing a new file and renaming it over the old one.  If the directory can't be watched, the file's modified time
+	 * is checked every so often instead.
+	 */
+	private class AccessFileWatcher implements Runnable
+	{
+		private WatchService	watchService;
+
+		public void run()
 		{
-			for (TempElevated tempElevated : tempElevatedList)
+			log.debug("AccessManager2 watcher thread running...");
+
+			try
 			{
-				if (tempElevated.matches(userAddress))
+				try
 				{
-					tempElevatedList.remove(tempElevated);
-					found = true;
+					watchService = FileSystems.getDefault().newWatchService();
+					accessFile.getParentFile().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
 				}
-			}
-			
-			for (TempModerator tempModerator : tempModeratorList)
-			{
-				if (tempModerator.matches(userAddress))
+				catch (Exception e)
 				{
-					tempModeratorList.remove(tempModerator);
-					found = true;
+					log.warn("Can not watch " + accessFile + " for changes, checking it every " + RELOAD_CHECK_INTERVAL + "ms instead: " + e.getMessage());
+					close();
 				}
-			}
-			
-			for (TempAdmin tempAdmin : tempAdminList)
-			{
-				if (tempAdmin.matches(userAddress))
+
+				while (!stopFlag)
 				{
-					tempAdminList.remove(tempAdmin);
-					found = true;
+					if (watchService != null ? waitForEvent() : waitForModifiedTime())
+					{
+						// let the save finish, and take any more events it causes along with it
+						Thread.sleep(RELOAD_SETTLE_TIME);
+						if (watchService != null)
+						{
+							WatchKey key;
+							while ((key = watchService.poll()) != null)
+							{
+								key.pollEvents();
+								key.reset();
+							}
+						}
+
+						if (!stopFlag)
+							reload();
+					}
 				}
 			}
+			catch (InterruptedException e)
+			{
+				log.error("AccessManager2 watcher thread interrupted!");
+			}
+			catch (Throwable e)
+			{
+				if (!stopFlag)
+					log.fatal("AccessManager2 watcher thread caught unexpected exception: " + e, e);
+			}
+			finally
+			{
+				close();
+				log.debug("AccessManager2 watcher thread exiting...");
+			}
 		}
 
-		return found;
-	}
-
-	public synchronized boolean isSilenced(InetAddress address)
-	{
-		checkReload();
-
-		String userAddress = address.getHostAddress();
-
-		for (Silence silence : silenceList)
+		/**
+		 * @return	true if access.cfg has changed
+		 */
+		private boolean waitForEvent() throws InterruptedException
 		{
-			if (silence.matches(userAddress) && !silence.isExpired())
-				return true;
-		}
+			// wake up now and then to see if we've been stopped
+			WatchKey key = watchService.poll(RELOAD_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			if (key == null)
+				return false;
 
-		return false;
-	}
+			boolean changed = false;
+			for (WatchEvent<?> event : key.pollEvents())
+			{
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW || accessFile.getName().equals(event.context().toString()))
+					changed = true;
+			}
 
-	public synchronized boolean isAddressAllowed(InetAddress address)
-	{
-		checkReload();
+			if (!key.reset())
+			{
+				log.warn("Stopped watching " + accessFile + " for changes, checking it every " + RELOAD_CHECK_INTERVAL + "ms instead");
+				close();
+			}
 
-		String userAddress = address.getHostAddress();
+			return changed;
+		}
 
-		for (TempBan tempBan : tempBanList)
+		/**
+		 * @return	true if access.cfg has changed
+		 */
+		private boolean waitForModifiedTime() throws InterruptedException
 		{
-			if (tempBan.matches(userAddress) && !tempBan.isExpired())
-				return false;
+			Thread.sleep(RELOAD_CHECK_INTERVAL);
+			return (accessFile.lastModified() != lastLoadModifiedTime);
 		}
 
-		for (AddressAccess addressAccess : addressList)
+		private void close()
 		{
-			if (addressAccess.matches(userAddress))
-				return addressAccess.getAccess();
-		}
+			if (watchService == null)
+				return;
 
-		return true;
+			try
+			{
+				watchService.close();
+			}
+			catch (IOException e)
+			{
+				log.debug("Failed to close watch service: " + e.getMessage());
+			}
+			watchService = null;
+		}
 	}
 
-	public synchronized boolean isEmulatorAllowed(String emulator)
+	/**
+	 * The result of every check for one address against one snapshot.
+	 */
+	protected static class Decision
 	{
-		checkReload();
+		protected final long	generation;
+		protected final int		access;
+		protected final boolean	allowed;
+		protected final boolean	silenced;
+		protected final String	announcement;
 
-		for (EmulatorAccess emulatorAccess : emulatorList)
+		protected Decision(Rules r, InetAddress address, long now)
 		{
-			if (emulatorAccess.matches(emulator))
-				return emulatorAccess.getAccess();
-		}
+			generation = r.generation;
 
-		return true;
+			UserAccess userAccess = r.users.match(address, now);
+			announcement = (userAccess == null ? null : userAccess.getMessage());
+
+			if (r.tempAdmins.match(address, now) != null)
+				access = ACCESS_ADMIN;
+			else if (r.tempModerators.match(address, now) != null)
+				access = ACCESS_MODERATOR;
+			else if (r.tempElevated.match(address, now) != null)
+				access = ACCESS_ELEVATED;
+			else if (userAccess != null)
+				access = userAccess.getAccess();
+			else
+				access = ACCESS_NORMAL;
+
+			if (r.tempBans.match(address, now) != null)
+			{
+				allowed = false;
+			}
+			else
+			{
+				AddressAccess addressAccess = r.addresses.match(address, now);
+				allowed = (addressAccess == null || addressAccess.getAccess());
+			}
+
+			silenced = (r.silences.match(address, now) != null);
+		}
 	}
 
-	public synchronized boolean isGameAllowed(String game)
+	/**
+	 * Everything checks look at, as of one load or change.  Never changed once built.
+	 */
+	protected static class Rules
 	{
-		checkReload();
+		protected final long							generation;
+		// when the first temporary rule in effect runs out
+		protected final long							expires;
+		protected final AddressRuleSet<UserAccess>		users;
+		protected final AddressRuleSet<AddressAccess>	addresses;
+		protected final List<GameAccess>				games;
+		protected final List<EmulatorAccess>			emulators;
+		protected final AddressRuleSet<TempAccess>		tempBans;
+		protected final AddressRuleSet<TempAccess>		tempAdmins;
+		protected final AddressRuleSet<TempAccess>		tempModerators;
+		protected final AddressRuleSet<TempAccess>		tempElevated;
+		protected final AddressRuleSet<TempAccess>		silences;
 
-		for (GameAccess gameAccess : gameList)
+		protected Rules()
 		{
-			if (gameAccess.matches(game))
-				return gameAccess.getAccess();
+			this(0, Long.MAX_VALUE, AddressRuleSet.<UserAccess> empty(), AddressRuleSet.<AddressAccess> empty(), new ArrayList<GameAccess>(), new ArrayList<EmulatorAccess>(), AddressRuleSet.<TempAccess> empty(), AddressRuleSet.<TempAccess> empty(), AddressRuleSet.<TempAccess> empty(), AddressRuleSet.<TempAccess> empty(), AddressRuleSet.<TempAccess> empty());
 		}
 
-		return true;
+		protected Rules(long generation, long expires, AddressRuleSet<UserAccess> users, AddressRuleSet<AddressAccess> addresses, List<GameAccess> games, List<EmulatorAccess> emulators, AddressRuleSet<TempAccess> tempBans, AddressRuleSet<TempAccess> tempAdmins, AddressRuleSet<TempAccess> tempModerators, AddressRuleSet<TempAccess> tempElevated, AddressRuleSet<TempAccess> silences)
+		{
+			this.generation = generation;
+			this.expires = expires;
+			this.users = users;
+			this.addresses = addresses;
+			this.games = Collections.unmodifiableList(games);
+			this.emulators = Collections.unmodifiableList(emulators);
+			this.tempBans = tempBans;
+			this.tempAdmins = tempAdmins;
+			this.tempModerators = tempModerators;
+			this.tempElevated = tempElevated;
+			this.silences = silences;
+		}
+
+		public String toString()
+		{
+			return "users=" + users.getNumPatterns() + " addresses=" + addresses.getNumPatterns() + " wildcards=" + (users.getNumWildcards() + addresses.getNumWildcards()) + " games=" + games.size() + " emulators=" + emulators.size() + " temp=" + (tempBans.getNumPatterns() + tempAdmins.getNumPatterns() + tempModerators.getNumPatterns() + tempElevated.getNumPatterns() + silences.getNumPatterns());
+		}
 	}
 
 	protected class UserAccess
 	{
-		protected List<WildcardStringPattern>	patterns;
+		protected List<String>					patterns;
 		protected List<String>					hostNames;
-		protected List<String>					resolvedAddresses;
+		protected List<InetAddress>				resolvedAddresses;
 		protected int							access;
 		protected String						message;
-		
+
 		protected UserAccess(StringTokenizer st) throws Exception
 		{
 			if (st.countTokens() < 2 || st.countTokens() > 3)
@@ -460,8 +860,8 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 				throw new AccessException("Unrecognized access token: " + accessStr);
 
 			hostNames = new ArrayList<String>();
-			resolvedAddresses = new ArrayList<String>();
-			patterns = new ArrayList<WildcardStringPattern>();
+			resolvedAddresses = new ArrayList<InetAddress>();
+			patterns = new ArrayList<String>();
 
 			String s = st.nextToken().toLowerCase();
 			StringTokenizer pt = new StringTokenizer(s, "|");
@@ -472,52 +872,49 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 				{
 					if(pat.length() <= 5)
 						throw new AccessException("Malformatted DNS entry: " + s);
-					String hostName = pat.substring(4);
-					try
-					{
-						InetAddress a = InetAddress.getByName(hostName);
-						log.debug("Resolved " + hostName + " to " + a.getHostAddress());
-					}
-					catch(Exception e)
-					{
-						log.warn("Failed to resolve DNS entry to an address: " + hostName + ": " + e.getMessage());
-					}
 					hostNames.add(pat.substring(4));
 				}
 				else
 				{
-					patterns.add(new WildcardStringPattern(pat));
+					patterns.add(pat);
 				}
 			}
-			
+
 			refreshDNS();
 
 			if (st.hasMoreTokens())
 				message = st.nextToken();
 		}
 
-		protected synchronized void refreshDNS()
+		/**
+		 * Takes up whatever the host names have resolved to so far, without waiting for any lookups.
+		 *
+		 * @return	true if the addresses have changed
+		 */
+		protected boolean refreshDNS()
 		{
-			resolvedAddresses.clear();
+			List<InetAddress> addresses = new ArrayList<InetAddress>();
 			for(String hostName: hostNames)
 			{
-				try
-				{
-					InetAddress address = InetAddress.getByName(hostName);
-					resolvedAddresses.add(address.getHostAddress());
-				}
-				catch(Exception e)
-				{
-					log.debug("Failed to resolve DNS entry to an address: " + hostName, e);
-				}
+				addresses.addAll(resolver.getAddresses(hostName));
 			}
+
+			if (addresses.equals(resolvedAddresses))
+				return false;
+			resolvedAddresses = addresses;
+			return true;
 		}
 
-		protected List<WildcardStringPattern> getPatterns()
+		protected List<String> getPatterns()
 		{
 			return patterns;
 		}
 
+		protected List<InetAddress> getResolvedAddresses()
+		{
+			return resolvedAddresses;
+		}
+
 		protected int getAccess()
 		{
 			return access;
@@ -527,30 +924,13 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 		{
 			return message;
 		}
-
-		protected synchronized boolean matches(String address)
-		{
-			for (WildcardStringPattern pattern : patterns)
-			{
-				if (pattern.match(address))
-					return true;
-			}
-			
-			for (String resolvedAddress : resolvedAddresses)
-			{
-				if (resolvedAddress.equals(address))
-					return true;
-			}
-			
-			return false;
-		}
 	}
 
 	protected class AddressAccess
 	{
-		protected List<WildcardStringPattern>	patterns;
+		protected List<String>					patterns;
 		protected List<String>					hostNames;
-		protected List<String>					resolvedAddresses;
+		protected List<InetAddress>				resolvedAddresses;
 		protected boolean						access;
 
 		protected AddressAccess(StringTokenizer st) throws Exception
@@ -567,9 +947,9 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 				throw new AccessException("Unrecognized access token: " + accessStr);
 
 			hostNames = new ArrayList<String>();
-			resolvedAddresses = new ArrayList<String>();
-			patterns = new ArrayList<WildcardStringPattern>();
-			
+			resolvedAddresses = new ArrayList<InetAddress>();
+			patterns = new ArrayList<String>();
+
 			String s = st.nextToken().toLowerCase();
 			StringTokenizer pt = new StringTokenizer(s, "|");
 			while (pt.hasMoreTokens())
@@ -579,69 +959,49 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 				{
 					if(pat.length() <= 5)
 						throw new AccessException("Malformatted DNS entry: " + s);
-					String hostName = pat.substring(4);
-					try
-					{
-						InetAddress a = InetAddress.getByName(hostName);
-						log.debug("Resolved " + hostName + " to " + a.getHostAddress());
-					}
-					catch(Exception e)
-					{
-						log.warn("Failed to resolve DNS entry to an address: " + hostName + ": " + e.getMessage());
-					}
 					hostNames.add(pat.substring(4));
 				}
 				else
 				{
-					patterns.add(new WildcardStringPattern(pat));
+					patterns.add(pat);
 				}
 			}
-			
+
 			refreshDNS();
 		}
-		
-		protected synchronized void refreshDNS()
+
+		/**
+		 * Takes up whatever the host names have resolved to so far, without waiting for any lookups.
+		 *
+		 * @return	true if the addresses have changed
+		 */
+		protected boolean refreshDNS()
 		{
-			resolvedAddresses.clear();
+			List<InetAddress> addresses = new ArrayList<InetAddress>();
 			for(String hostName: hostNames)
 			{
-				try
-				{
-					InetAddress address = InetAddress.getByName(hostName);
-					resolvedAddresses.add(address.getHostAddress());
-				}
-				catch(Exception e)
-				{
-					log.debug("Failed to resolve DNS entry to an address: " + hostName, e);
-				}
+				addresses.addAll(resolver.getAddresses(hostName));
 			}
+
+			if (addresses.equals(resolvedAddresses))
+				return false;
+			resolvedAddresses = addresses;
+			return true;
 		}
 
-		protected List<WildcardStringPattern> getPatterns()
+		protected List<String> getPatterns()
 		{
 			return patterns;
 		}
 
-		protected boolean getAccess()
+		protected List<InetAddress> getResolvedAddresses()
 		{
-			return access;
+			return resolvedAddresses;
 		}
 
-		protected synchronized boolean matches(String address)
+		protected boolean getAccess()
 		{
-			for (WildcardStringPattern pattern : patterns)
-			{
-				if (pattern.match(address))
-					return true;
-			}
-			
-			for (String resolvedAddress : resolvedAddresses)
-			{
-				if (resolvedAddress.equals(address))
-					return true;
-			}
-			
-			return false;
+			return access;
 		}
 	}
 
@@ -741,27 +1101,37 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 		}
 	}
 
-	protected class TempBan
+	/**
+	 * A rule added by an admin for a number of minutes.
+	 */
+	protected class TempAccess
 	{
-		protected List<WildcardStringPattern>	patterns;
-		protected long						startTime;
+		protected List<String>					patterns;
+		protected long							startTime;
 		protected int							minutes;
+		// the patterns on their own, for finding which rules to clear for an address
+		protected AddressRuleSet<TempAccess>	matcher;
 
-		protected TempBan(String accessStr, int minutes)
+		protected TempAccess(String accessStr, int minutes)
 		{
-			patterns = new ArrayList<WildcardStringPattern>();
+			patterns = new ArrayList<String>();
 			String s = accessStr.toLowerCase();
 			StringTokenizer pt = new StringTokenizer(s, "|");
 			while (pt.hasMoreTokens())
 			{
-				patterns.add(new WildcardStringPattern(pt.nextToken().toLowerCase()));
+				patterns.add(pt.nextToken().toLowerCase());
 			}
 
 			this.minutes = minutes;
 			startTime = System.currentTimeMillis();
+
+			AddressRuleSet.Builder<TempAccess> builder = new AddressRuleSet.Builder<TempAccess>().next(this, 0);
+			for (String pattern : patterns)
+				builder.addPattern(pattern);
+			matcher = builder.build();
 		}
 
-		protected List<WildcardStringPattern> getPatterns()
+		protected List<String> getPatterns()
 		{
 			return patterns;
 		}
@@ -776,234 +1146,61 @@ public class AccessManager2 implements AccessManager, Startable, Runnable
 			return minutes;
 		}
 
-		protected boolean isExpired()
-		{
-			if (System.currentTimeMillis() > (startTime + (minutes * 60000)))
-				return true;
-			return false;
-		}
-
-		protected boolean matches(String address)
+		protected long getExpireTime()
 		{
-			for (WildcardStringPattern pattern : patterns)
-			{
-				if (pattern.match(address))
-					return true;
-			}
-			return false;
-		}
-	}
-
-	protected class TempAdmin
-	{
-		protected List<WildcardStringPattern>	patterns;
-		protected long							startTime;
-		protected int							minutes;
-
-		protected TempAdmin(String accessStr, int minutes)
-		{
-			patterns = new ArrayList<WildcardStringPattern>();
-			String s = accessStr.toLowerCase();
-			StringTokenizer pt = new StringTokenizer(s, "|");
-			while (pt.hasMoreTokens())
-			{
-				patterns.add(new WildcardStringPattern(pt.nextToken().toLowerCase()));
-			}
-
-			this.minutes = minutes;
-			startTime = System.currentTimeMillis();
-		}
-
-		protected List<WildcardStringPattern> getPatterns()
-		{
-			return patterns;
-		}
-
-		protected long getStartTime()
-		{
-			return startTime;
-		}
-
-		protected int getMinutes()
-		{
-			return minutes;
+			return (startTime + (minutes * 60000L));
 		}
 
 		protected boolean isExpired()
 		{
-			if (System.currentTimeMillis() > (startTime + (minutes * 60000)))
+			if (System.currentTimeMillis() > getExpireTime())
 				return true;
 			return false;
 		}
 
-		protected boolean matches(String address)
+		protected boolean matches(InetAddress address)
 		{
-			for (WildcardStringPattern pattern : patterns)
-			{
-				if (pattern.match(address))
-					return true;
-			}
-			return false;
+			return (matcher.match(address, 0) != null);
 		}
 	}
-	
-	protected class TempModerator
-	{
-		protected List<WildcardStringPattern>	patterns;
-		protected long							startTime;
-		protected int							minutes;
-
-		protected TempModerator(String accessStr, int minutes)
-		{
-			patterns = new ArrayList<WildcardStringPattern>();
-			String s = accessStr.toLowerCase();
-			StringTokenizer pt = new StringTokenizer(s, "|");
-			while (pt.hasMoreTokens())
-			{
-				patterns.add(new WildcardStringPattern(pt.nextToken().toLowerCase()));
-			}
-
-			this.minutes = minutes;
-			startTime = System.currentTimeMillis();
-		}
-
-		protected List<WildcardStringPattern> getPatterns()
-		{
-			return patterns;
-		}
 
-		protected long getStartTime()
+	protected class TempBan extends TempAccess
+	{
+		protected TempBan(String accessStr, int minutes)
 		{
-			return startTime;
+			super(accessStr, minutes);
 		}
+	}
 
-		protected int getMinutes()
+	protected class TempAdmin extends TempAccess
+	{
+		protected TempAdmin(String accessStr, int minutes)
 		{
-			return minutes;
+			super(accessStr, minutes);
 		}
+	}
 
-		protected boolean isExpired()
+	protected class TempModerator extends TempAccess
+	{
+		protected TempModerator(String accessStr, int minutes)
 		{
-			if (System.currentTimeMillis() > (startTime + (minutes * 60000)))
-				return true;
-			return false;
-		}
-
-		protected boolean matches(String address)
-		{
-			for (WildcardStringPattern pattern : patterns)
-			{
-				if (pattern.match(address))
-					return true;
-			}
-			return false;
+			super(accessStr, minutes);
 		}
 	}
 
-	protected class TempElevated
+	protected class TempElevated extends TempAccess
 	{
-		protected List<WildcardStringPattern>	patterns;
-		protected long							startTime;
-		protected int							minutes;
-
 		protected TempElevated(String accessStr, int minutes)
 		{
-			patterns = new ArrayList<WildcardStringPattern>();
-			String s = accessStr.toLowerCase();
-			StringTokenizer pt = new StringTokenizer(s, "|");
-			while (pt.hasMoreTokens())
-			{
-				patterns.add(new WildcardStringPattern(pt.nextToken().toLowerCase()));
-			}
-
-			this.minutes = minutes;
-			startTime = System.currentTimeMillis();
-		}
-
-		protected List<WildcardStringPattern> getPatterns()
-		{
-			return patterns;
-		}
-
-		protected long getStartTime()
-		{
-			return startTime;
-		}
-
-		protected int getMinutes()
-		{
-			return minutes;
-		}
-
-		protected boolean isExpired()
-		{
-			if (System.currentTimeMillis() > (startTime + (minutes * 60000)))
-				return true;
-			return false;
-		}
-
-		protected boolean matches(String address)
-		{
-			for (WildcardStringPattern pattern : patterns)
-			{
-				if (pattern.match(address))
-					return true;
-			}
-			return false;
+			super(accessStr, minutes);
 		}
 	}
-	
-	
-	protected class Silence
-	{
-		protected List<WildcardStringPattern>	patterns;
-		protected long							startTime;
-		protected int							minutes;
 
+	protected class Silence extends TempAccess
+	{
 		protected Silence(String accessStr, int minutes)
 		{
-			patterns = new ArrayList<WildcardStringPattern>();
-			String s = accessStr.toLowerCase();
-			StringTokenizer pt = new StringTokenizer(s, "|");
-			while (pt.hasMoreTokens())
-			{
-				patterns.add(new WildcardStringPattern(pt.nextToken().toLowerCase()));
-			}
-
-			this.minutes = minutes;
-			startTime = System.currentTimeMillis();
-		}
-
-		protected List<WildcardStringPattern> getPatterns()
-		{
-			return patterns;
-		}
-
-		protected long getStartTime()
-		{
-			return startTime;
-		}
-
-		protected int getMinutes()
-		{
-			return minutes;
-		}
-
-		protected boolean isExpired()
-		{
-			if (System.currentTimeMillis() > (startTime + (minutes * 60000)))
-				return true;
-			return false;
-		}
-
-		protected boolean matches(String address)
-		{
-			for (WildcardStringPattern pattern : patterns)
-			{
-				if (pattern.match(address))
-					return true;
-			}
-			return false;
+			super(accessStr, minutes);
 		}
 	}
 }
@@ -0,0 +1,298 @@
+package org.emulinker.kaillera.access;
+
+import java.net.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import org.emulinker.util.WildcardStringPattern;
+
+/**
+ * An immutable set of rules matched against client addresses, where the first rule added that matches an address
+ * wins, the same as walking a list of rules in the order they appear in access.cfg.<br>
+ * <br>
+ * Most address patterns are a whole address or the first few parts of one followed by *, like 192.168.1.* or
+ * 2001:db8:0:0:*, and those are compiled into a binary trie of address prefixes, one for IPv4 and one for IPv6, so
+ * finding every prefix an address falls under takes one step per bit no matter how many rules there are.  Any other
+ * pattern, like 10.*.0.1 or 1.2.3.1*, is kept as a WildcardStringPattern and matched against the address text the way
+ * it always has been, but only if it comes before the best match the trie found.<br>
+ * <br>
+ * A rule can have an expiry time, for temporary bans and the like; an expired rule is skipped as if it wasn't there.
+ *
+ * @param <R>	The rule type returned for a match
+ */
+public class AddressRuleSet<R>
+{
+	private static final Pattern	IPV4_ADDRESS	= Pattern.compile("(0|[1-9]\\d{0,2})(\\.(0|[1-9]\\d{0,2})){3}");
+	private static final Pattern	IPV4_PREFIX		= Pattern.compile("((0|[1-9]\\d{0,2})\\.){1,3}\\*");
+	// the form InetAddress.getHostAddress gives IPv6 addresses in, which is all the old string patterns ever matched
+	private static final Pattern	IPV6_ADDRESS	= Pattern.compile("([1-9a-f][0-9a-f]{0,3}:|0:){7}([1-9a-f][0-9a-f]{0,3}|0)");
+	private static final Pattern	IPV6_PREFIX		= Pattern.compile("([1-9a-f][0-9a-f]{0,3}:|0:){1,7}\\*");
+
+	private Node<R>					ipv4Root;
+	private Node<R>					ipv6Root;
+	private List<Entry<R>>			wildcards;
+	private int						numPatterns;
+
+	private AddressRuleSet(Node<R> ipv4Root, Node<R> ipv6Root, List<Entry<R>> wildcards, int numPatterns)
+	{
+		this.ipv4Root = ipv4Root;
+		this.ipv6Root = ipv6Root;
+		this.wildcards = wildcards;
+		this.numPatterns = numPatterns;
+	}
+
+	/**
+	 * @return	How many patterns and resolved addresses the rules were compiled from
+	 */
+	public int getNumPatterns()
+	{
+		return numPatterns;
+	}
+
+	/**
+	 * @return	How many of those couldn't be compiled into the trie and are matched as text
+	 */
+	public int getNumWildcards()
+	{
+		return wildcards.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return (numPatterns == 0);
+	}
+
+	/**
+	 * @return	The first rule added that matches address and hasn't expired by now, or null
+	 */
+	public R match(InetAddress address, long now)
+	{
+		Entry<R> best = null;
+
+		// a scoped IPv6 address, like a link-local client's, is walked without its scope, which isn't part of the bytes
+		Node<R> node = null;
+		if (address instanceof Inet4Address)
+			node = ipv4Root;
+		else if (address instanceof Inet6Address)
+			node = ipv6Root;
+
+		if (node != null)
+		{
+			byte[] bytes = address.getAddress();
+			int bits = (bytes.length * 8);
+			for (int i = 0; node != null; i++)
+			{
+				best = node.first(best, now);
+				if (i == bits)
+					break;
+				node = (((bytes[i >> 3] >> (7 - (i & 7))) & 1) == 0 ? node.zero : node.one);
+			}
+		}
+
+		if (!wildcards.isEmpty())
+		{
+			String hostAddress = address.getHostAddress();
+			for (Entry<R> entry : wildcards)
+			{
+				if (best != null && entry.order >= best.order)
+					break;
+				if (!entry.isExpired(now) && entry.pattern.match(hostAddress))
+				{
+					best = entry;
+					break;
+				}
+			}
+		}
+
+		return (best == null ? null : best.rule);
+	}
+
+	public String toString()
+	{
+		return "AddressRuleSet[patterns=" + numPatterns + " wildcards=" + wildcards.size() + "]";
+	}
+
+	public static <R> AddressRuleSet<R> empty()
+	{
+		return new Builder<R>().build();
+	}
+
+	/**
+	 * Collects rules in priority order and compiles them into an AddressRuleSet.  Every pattern and address added for
+	 * the same rule must be added before the next rule is started.
+	 */
+	public static class Builder<R>
+	{
+		private Node<R>			ipv4Root	= new Node<R>();
+		private Node<R>			ipv6Root	= new Node<R>();
+		private List<Entry<R>>	wildcards	= new ArrayList<Entry<R>>();
+		private int				order		= -1;
+		private Entry<R>		current;
+		private int				numPatterns	= 0;
+
+		/**
+		 * Starts the next rule; everything added until the next call belongs to it, and it loses to every rule
+		 * started before it.
+		 *
+		 * @param expires	When the rule expires, in milliseconds, or 0 if it doesn't
+		 */
+		public Builder<R> next(R rule, long expires)
+		{
+			order++;
+			current = new Entry<R>(order, rule, expires, null);
+			return this;
+		}
+
+		/**
+		 * Adds an address pattern, already in lower case, for the current rule.
+		 */
+		public Builder<R> addPattern(String pattern)
+		{
+			numPatterns++;
+
+			if (pattern.equals("*"))
+			{
+				ipv4Root.add(current);
+				ipv6Root.add(current);
+			}
+			else if (IPV4_ADDRESS.matcher(pattern).matches() || IPV4_PREFIX.matcher(pattern).matches())
+			{
+				String[] parts = pattern.split("\\.");
+				byte[] bytes = new byte[4];
+				int prefix = 0;
+				for (int i = 0; i < parts.length && !parts[i].equals("*"); i++)
+				{
+					int octet = Integer.parseInt(parts[i]);
+					if (octet > 255)
+					{
+						// out of range, so leave it to the text match, which will never match it either
+						addWildcard(pattern);
+						return this;
+					}
+					bytes[i] = (byte) octet;
+					prefix += 8;
+				}
+				ipv4Root.add(bytes, prefix, current);
+			}
+			else if (IPV6_ADDRESS.matcher(pattern).matches() || IPV6_PREFIX.matcher(pattern).matches())
+			{
+				String[] parts = pattern.split(":");
+				byte[] bytes = new byte[16];
+				int prefix = 0;
+				for (int i = 0; i < parts.length && !parts[i].equals("*"); i++)
+				{
+					int group = Integer.parseInt(parts[i], 16);
+					bytes[i * 2] = (byte) (group >> 8);
+					bytes[(i * 2) + 1] = (byte) group;
+					prefix += 16;
+				}
+				ipv6Root.add(bytes, prefix, current);
+			}
+			else
+			{
+				addWildcard(pattern);
+			}
+
+			return this;
+		}
+
+		/**
+		 * Adds one exact address for the current rule, such as one a dns: pattern resolved to.
+		 */
+		public Builder<R> addAddress(InetAddress address)
+		{
+			numPatterns++;
+			byte[] bytes = address.getAddress();
+			(bytes.length == 4 ? ipv4Root : ipv6Root).add(bytes, (bytes.length * 8), current);
+			return this;
+		}
+
+		private void addWildcard(String pattern)
+		{
+			wildcards.add(new Entry<R>(current.order, current.rule, current.expires, new WildcardStringPattern(pattern)));
+		}
+
+		public AddressRuleSet<R> build()
+		{
+			// entries are added in order, so every node's list and the wildcard list are already sorted
+			return new AddressRuleSet<R>(ipv4Root, ipv6Root, wildcards, numPatterns);
+		}
+	}
+
+	private static class Entry<R>
+	{
+		private int						order;
+		private R						rule;
+		private long					expires;
+		private WildcardStringPattern	pattern;
+
+		private Entry(int order, R rule, long expires, WildcardStringPattern pattern)
+		{
+			this.order = order;
+			this.rule = rule;
+			this.expires = expires;
+			this.pattern = pattern;
+		}
+
+		private boolean isExpired(long now)
+		{
+			return (expires > 0 && now > expires);
+		}
+	}
+
+	private static class Node<R>
+	{
+		private Node<R>			zero;
+		private Node<R>			one;
+		// rules whose prefix ends here, lowest order first
+		private List<Entry<R>>	entries;
+
+		private void add(Entry<R> entry)
+		{
+			if (entries == null)
+				entries = new ArrayList<Entry<R>>(1);
+			// the same rule can list the same prefix twice
+			if (entries.isEmpty() || entries.get(entries.size() - 1) != entry)
+				entries.add(entry);
+		}
+
+		private void add(byte[] bytes, int prefix, Entry<R> entry)
+		{
+			Node<R> node = this;
+			for (int i = 0; i < prefix; i++)
+			{
+				if (((bytes[i >> 3] >> (7 - (i & 7))) & 1) == 0)
+				{
+					if (node.zero == null)
+						node.zero = new Node<R>();
+					node = node.zero;
+				}
+				else
+				{
+					if (node.one == null)
+						node.one = new Node<R>();
+					node = node.one;
+				}
+			}
+			node.add(entry);
+		}
+
+		/**
+		 * @return	Whichever comes first of best and the first unexpired entry here
+		 */
+		private Entry<R> first(Entry<R> best, long now)
+		{
+			if (entries == null)
+				return best;
+
+			for (Entry<R> entry : entries)
+			{
+				if (best != null && entry.order >= best.order)
+					return best;
+				if (!entry.isExpired(now))
+					return entry;
+			}
+			return best;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package org.emulinker.kaillera.access;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.commons.logging.*;
+
+/**
+ * Resolves the host names in dns: access rules without making anyone wait for an answer.  Asking for a host name
+ * returns whatever addresses it last resolved to, or none if it hasn't been resolved yet, and if that answer is older
+ * than its time to live a lookup is started in the background.  Lookups run on the thread pool, a few at a time, and
+ * when one finishes with different addresses than before the listener is told, so the rules can be compiled again.<br>
+ * <br>
+ * A failed lookup counts as resolving to nothing, the same as it always has, and is tried again once its negative
+ * time to live is up.  How host names are looked up is left to a HostLookup, normally the system's resolver.
+ */
+public class DnsResolver
+{
+	private static Log						log				= LogFactory.getLog(DnsResolver.class);
+
+	/**
+	 * Looks up host names the way InetAddress.getByName does.
+	 */
+	public static final HostLookup			SYSTEM_LOOKUP	= new HostLookup()
+	{
+		public List<InetAddress> lookup(String hostName) throws UnknownHostException
+		{
+			return Collections.singletonList(InetAddress.getByName(hostName));
+		}
+	};
+
+	private ThreadPoolExecutor				threadPool;
+	private HostLookup						hostLookup;
+	private Listener						listener;
+	private int								maxLookups;
+	private long							ttl;
+	private long							negativeTtl;
+
+	private ConcurrentHashMap<String, Entry>	cache			= new ConcurrentHashMap<String, Entry>();
+	// only used synchronized
+	private LinkedHashSet<String>			queued			= new LinkedHashSet<String>();
+	private Set<String>						running			= new HashSet<String>();
+	private long							lookupCount		= 0;
+	private long							failureCount	= 0;
+
+	/**
+	 * @param maxLookups	How many lookups can run at once
+	 * @param ttl			How long a successful lookup is good for, in milliseconds
+	 * @param negativeTtl	How long to wait before trying a failed lookup again, in milliseconds
+	 */
+	public DnsResolver(ThreadPoolExecutor threadPool, HostLookup hostLookup, Listener listener, int maxLookups, long ttl, long negativeTtl)
+	{
+		this.threadPool = threadPool;
+		this.hostLookup = hostLookup;
+		this.listener = listener;
+		this.maxLookups = maxLookups;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+	}
+
+	public synchronized String getStats()
+	{
+		return "hosts=" + cache.size() + " lookups=" + lookupCount + " failures=" + failureCount + " pending=" + (queued.size() + running.size());
+	}
+
+	public String toString()
+	{
+		return "DnsResolver[" + getStats() + "]";
+	}
+
+	/**
+	 * Never waits for a lookup.
+	 *
+	 * @return	The addresses hostName last resolved to, or none if it hasn't been yet
+	 */
+	public List<InetAddress> getAddresses(String hostName)
+	{
+		Entry entry = cache.get(hostName);
+		if (entry == null || System.currentTimeMillis() > entry.expires)
+			request(hostName);
+		return (entry == null ? Collections.<InetAddress> emptyList() : entry.addresses);
+	}
+
+	/**
+	 * Forgets every answer, for when the rules are thrown away.
+	 */
+	public synchronized void clear()
+	{
+		cache.clear();
+		queued.clear();
+	}
+
+	private synchronized void request(String hostName)
+	{
+		if (running.contains(hostName) || !queued.add(hostName))
+			return;
+		startLookups();
+	}
+
+	// only called synchronized
+	private void startLookups()
+	{
+		while (running.size() < maxLookups && !queued.isEmpty())
+		{
+			Iterator<String> iter = queued.iterator();
+			String hostName = iter.next();
+			iter.remove();
+
+			running.add(hostName);
+			threadPool.execute(new Lookup(hostName));
+		}
+	}
+
+	private void finished(String hostName, List<InetAddress> addresses, boolean failed)
+	{
+		Entry old = cache.put(hostName, new Entry(addresses, (System.currentTimeMillis() + (failed ? negativeTtl : ttl))));
+
+		synchronized (this)
+		{
+			running.remove(hostName);
+			lookupCount++;
+			if (failed)
+				failureCount++;
+			startLookups();
+		}
+
+		List<InetAddress> oldAddresses = (old == null ? Collections.<InetAddress> emptyList() : old.addresses);
+		if (!addresses.equals(oldAddresses))
+			listener.addressesChanged(hostName);
+	}
+
+	private class Lookup implements Runnable
+	{
+		private String	hostName;
+
+		private Lookup(String hostName)
+		{
+			this.hostName = hostName;
+		}
+
+		public void run()
+		{
+			List<InetAddress> addresses = Collections.<InetAddress> emptyList();
+			boolean failed = false;
+			try
+			{
+				addresses = Collections.unmodifiableList(new ArrayList<InetAddress>(hostLookup.lookup(hostName)));
+				log.debug("Resolved " + hostName + " to " + addresses);
+			}
+			catch (Exception e)
+			{
+				failed = true;
+				if (!cache.containsKey(hostName))
+					log.warn("Failed to resolve DNS entry to an address: " + hostName + ": " + e.getMessage());
+				else
+					log.debug("Failed to resolve DNS entry to an address: " + hostName, e);
+			}
+			finally
+			{
+				finished(hostName, addresses, failed);
+			}
+		}
+	}
+
+	private static class Entry
+	{
+		private List<InetAddress>	addresses;
+		private long				expires;
+
+		private Entry(List<InetAddress> addresses, long expires)
+		{
+			this.addresses = addresses;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Turns a host name into addresses, taking as long as it needs to.
+	 */
+	public static interface HostLookup
+	{
+		public List<InetAddress> lookup(String hostName) throws Exception;
+	}
+
+	/**
+	 * Told when a host name has resolved to different addresses than before.  Called on the lookup's thread.
+	 */
+	public static interface Listener
+	{
+		public void addressesChanged(String hostName);
+	}
+}
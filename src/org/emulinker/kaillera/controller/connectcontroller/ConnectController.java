@@ -26,16 +26,9 @@ public class ConnectController extends UDPServer
 	private int								bufferSize				= 0;
 
 	private long							startTime;
-	private int								requestCount			= 0;
-	private int								messageFormatErrorCount	= 0;
-	private int								protocolErrorCount		= 0;
-	private int								deniedServerFullCount	= 0;
-	private int								deniedOtherCount		= 0;
-	private String               			lastAddress = null;
-	private int                             lastAddressCount = 0;
-	private int								failedToStartCount		= 0;
-	private int								connectedCount			= 0;
-	private int								pingCount				= 0;
+	private Counters[]						counters;
+	private Worker[]						workers;
+	private HammerCheck						hammerCheck				= new HammerCheck();
 
 	public ConnectController(ThreadPoolExecutor threadPool, KailleraServerController[] controllersArray, AccessManager accessManager, Configuration config) throws NoSuchElementException, ConfigurationException, BindException
 	{
@@ -49,6 +42,16 @@ public class ConnectController extends UDPServer
 		if (bufferSize <= 0)
 			throw new ConfigurationException("controllers.connect.bufferSize must be > 0");
 
+		int numWorkers = config.getInt("controllers.connect.workers", 1);
+		if (numWorkers <= 0)
+			throw new ConfigurationException("controllers.connect.workers must be > 0");
+
+		if (numWorkers > 1 && !UDPServer.isReusePortSupported())
+		{
+			log.warn("SO_REUSEPORT is not supported on this platform, controllers.connect.workers will be ignored");
+			numWorkers = 1;
+		}
+
 		controllersMap = new HashMap<String, KailleraServerController>();
 		for (KailleraServerController controller : controllersArray)
 		{
@@ -60,7 +63,29 @@ public class ConnectController extends UDPServer
 			}
 		}
 
-		super.bind(port);
+		// the first counters belong to this socket, the rest to the additional workers
+		counters = new Counters[numWorkers];
+		for (int i = 0; i < numWorkers; i++)
+			counters[i] = new Counters();
+
+		workers = new Worker[numWorkers - 1];
+
+		if (numWorkers > 1)
+		{
+			// bind the workers first since binding this socket will start them
+			for (int i = 0; i < workers.length; i++)
+			{
+				workers[i] = new Worker(i + 1);
+				workers[i].bind(port);
+			}
+			super.bind(port, true);
+
+			log.info("Receiving on port " + port + " with " + numWorkers + " workers");
+		}
+		else
+		{
+			super.bind(port);
+		}
 
 		System.out.println("Ready to accept connections on port " + port);
 		log.info("Ready to accept connections on port " + port);
@@ -88,42 +113,71 @@ public class ConnectController extends UDPServer
 
 	public int getRequestCount()
 	{
-		return requestCount;
+		int count = 0;
+		for (Counters c : counters)
+			count += c.requestCount;
+		return count;
 	}
 
 	public int getMessageFormatErrorCount()
 	{
-		return messageFormatErrorCount;
+		int count = 0;
+		for (Counters c : counters)
+			count += c.messageFormatErrorCount;
+		return count;
 	}
 
 	public int getProtocolErrorCount()
 	{
-		return protocolErrorCount;
+		int count = 0;
+		for (Counters c : counters)
+			count += c.protocolErrorCount;
+		return count;
 	}
 
 	public int getDeniedServerFullCount()
 	{
-		return deniedServerFullCount;
+		int count = 0;
+		for (Counters c : counters)
+			count += c.deniedServerFullCount;
+		return count;
 	}
 
 	public int getDeniedOtherCount()
 	{
-		return deniedOtherCount;
+		int count = 0;
+		for (Counters c : counters)
+			count += c.deniedOtherCount;
+		return count;
 	}
 
 	public int getFailedToStartCount()
 	{
-		return failedToStartCount;
+		int count = 0;
+		for (Counters c : counters)
+			count += c.failedToStartCount;
+		return count;
 	}
 
 	public int getConnectCount()
 	{
-		return connectedCount;
+		int count = 0;
+		for (Counters c : counters)
+			count += c.connectedCount;
+		return count;
+	}
+
+	public int getNumWorkers()
+	{
+		return counters.length;
 	}
 
 	public int getPingCount()
 	{
-		return pingCount;
+		int count = 0;
+		for (Counters c : counters)
+			count += c.pingCount;
+		return count;
 	}
 
 	protected ByteBuffer getBuffer()
@@ -151,6 +205,8 @@ public class ConnectController extends UDPServer
 		startTime = System.currentTimeMillis();
 		log.debug(toString() + " Thread starting (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");
 		threadPool.execute(this);
+		for (Worker worker : workers)
+			threadPool.execute(worker);
 		Thread.yield();
 		log.debug(toString() + " Thread started (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");
 	}
@@ -158,13 +214,23 @@ public class ConnectController extends UDPServer
 	public synchronized void stop()
 	{
 		super.stop();
+		for (Worker worker : workers)
+			worker.stop();
 		for (KailleraServerController controller : controllersMap.values())
 			controller.stop();
 	}
 
-	protected synchronized void handleReceived(ByteBuffer buffer, InetSocketAddress fromSocketAddress)
+	protected void handleReceived(ByteBuffer buffer, InetSocketAddress fromSocketAddress)
+	{
+		handleReceived(counters[0], buffer, fromSocketAddress);
+	}
+
+	// each Counters instance is only ever touched by the thread receiving on its socket, so no locking is needed for
+	// them; the kernel picks the socket by source address and port, so a client reconnecting from new ports can land
+	// on any of them, and hammer protection is shared
+	private void handleReceived(Counters c, ByteBuffer buffer, InetSocketAddress fromSocketAddress)
 	{
-		requestCount++;
+		c.requestCount++;
 
 		ConnectMessage inMessage = null;
 
@@ -174,7 +240,7 @@ public class ConnectController extends UDPServer
 		}
 		catch (MessageFormatException e)
 		{
-			messageFormatErrorCount++;
+			c.messageFormatErrorCount++;
 			buffer.rewind();
 			log.warn("Received invalid message from " + EmuUtil.formatSocketAddress(fromSocketAddress) + ": " + EmuUtil.dumpBuffer(buffer));
 			return;
@@ -185,7 +251,7 @@ public class ConnectController extends UDPServer
 
 		if (inMessage instanceof ConnectMessage_PING)
 		{
-			pingCount++;
+			c.pingCount++;
 			log.debug("Ping from: " + EmuUtil.formatSocketAddress(fromSocketAddress));
 			send(new ConnectMessage_PONG(), fromSocketAddress);
 			return;
@@ -193,7 +259,7 @@ public class ConnectController extends UDPServer
 
 		if (!(inMessage instanceof ConnectMessage_HELLO))
 		{
-			messageFormatErrorCount++;
+			c.messageFormatErrorCount++;
 			log.warn("Received unexpected message type from " + EmuUtil.formatSocketAddress(fromSocketAddress) + ": " + inMessage);
 			return;
 		}
@@ -205,14 +271,14 @@ public class ConnectController extends UDPServer
 		KailleraServerController protocolController = getController(connectMessage.getProtocol());
 		if (protocolController == null)
 		{
-			protocolErrorCount++;
+			c.protocolErrorCount++;
 			log.error("Client requested an unhandled protocol " + EmuUtil.formatSocketAddress(fromSocketAddress) + ": " + connectMessage.getProtocol());
 			return;
 		}
 
 		if (!accessManager.isAddressAllowed(fromSocketAddress.getAddress()))
 		{
-			deniedOtherCount++;
+			c.deniedOtherCount++;
 			log.warn("AccessManager denied connection from " + EmuUtil.formatSocketAddress(fromSocketAddress));
 			return;
 		}
@@ -224,48 +290,36 @@ public class ConnectController extends UDPServer
 			try
 			{
 				//SF MOD - Hammer Protection
-				if(access < AccessManager.ACCESS_ADMIN && connectedCount > 0){
-					if(lastAddress.equals(fromSocketAddress.getAddress().getHostAddress())){
-						lastAddressCount++;
-						if(lastAddressCount >= 4){
-							lastAddressCount = 0;
-							failedToStartCount++;
-							log.debug("SF MOD: HAMMER PROTECTION (2 Min Ban): " + EmuUtil.formatSocketAddress(fromSocketAddress));
-							accessManager.addTempBan(fromSocketAddress.getAddress().getHostAddress(), 2);
-							return;
-						}
-					}
-					else{
-						lastAddress = fromSocketAddress.getAddress().getHostAddress();
-						lastAddressCount = 0;
-					}		
+				if(hammerCheck.isHammering(fromSocketAddress.getAddress().getHostAddress(), (access < AccessManager.ACCESS_ADMIN && getConnectCount() > 0))){
+					c.failedToStartCount++;
+					log.debug("SF MOD: HAMMER PROTECTION (2 Min Ban): " + EmuUtil.formatSocketAddress(fromSocketAddress));
+					accessManager.addTempBan(fromSocketAddress.getAddress().getHostAddress(), 2);
+					return;
 				}
-				else
-					lastAddress = fromSocketAddress.getAddress().getHostAddress();
 				
 				privatePort = protocolController.newConnection(fromSocketAddress, connectMessage.getProtocol());
 
 				if (privatePort <= 0)
 				{
-					failedToStartCount++;
+					c.failedToStartCount++;
 					log.error(protocolController + " failed to start for " + EmuUtil.formatSocketAddress(fromSocketAddress));
 					return;
 				}
 
-				connectedCount++;
+				c.connectedCount++;
 				log.debug(protocolController + " allocated port " + privatePort + " to client from " + fromSocketAddress.getAddress().getHostAddress());
 				send(new ConnectMessage_HELLOD00D(privatePort), fromSocketAddress);
 			}
 			catch (ServerFullException e)
 			{
-				deniedServerFullCount++;
+				c.deniedServerFullCount++;
 				log.debug("Sending server full response to " + EmuUtil.formatSocketAddress(fromSocketAddress));
 				send(new ConnectMessage_TOO(), fromSocketAddress);
 				return;
 			}
 			catch (NewConnectionException e)
 			{
-				deniedOtherCount++;
+				c.deniedOtherCount++;
 				log.warn(protocolController + " denied connection from " + EmuUtil.formatSocketAddress(fromSocketAddress) + ": " + e.getMessage());
 				return;
 			}
@@ -277,4 +331,93 @@ public class ConnectController extends UDPServer
 		send(outMessage.toBuffer(), toSocketAddress);
 		outMessage.releaseBuffer();
 	}
+
+	private static class Counters
+	{
+		private int		requestCount			= 0;
+		private int		messageFormatErrorCount	= 0;
+		private int		protocolErrorCount		= 0;
+		private int		deniedServerFullCount	= 0;
+		private int		deniedOtherCount		= 0;
+		private int		failedToStartCount		= 0;
+		private int		connectedCount			= 0;
+		private int		pingCount				= 0;
+	}
+
+	/**
+	 * Hammer protection for every socket on the connect port: the same address connecting again and again with no one
+	 * else connecting in between is banned for a while.
+	 */
+	private static class HammerCheck
+	{
+		private String	lastAddress			= null;
+		private int		lastAddressCount	= 0;
+
+		/**
+		 * @param counted	false for connections that can't be hammering, which still count as someone else
+		 * 					connecting in between
+		 * @return	true if address has just connected for the fifth time running
+		 */
+		private synchronized boolean isHammering(String address, boolean counted)
+		{
+			if (counted)
+			{
+				if (address.equals(lastAddress))
+				{
+					lastAddressCount++;
+					if (lastAddressCount >= 4)
+					{
+						lastAddressCount = 0;
+						return true;
+					}
+					return false;
+				}
+
+				lastAddressCount = 0;
+			}
+
+			lastAddress = address;
+			return false;
+		}
+	}
+
+	/**
+	 * Additional receive socket bound to the connect port with SO_REUSEPORT.  Replies are still sent from the main
+	 * socket, which has the same port, so clients can't tell the difference.
+	 */
+	private class Worker extends UDPServer
+	{
+		private int	index;
+
+		private Worker(int index)
+		{
+			super(false);
+			this.index = index;
+		}
+
+		public String toString()
+		{
+			return "ConnectController.Worker(" + index + ")";
+		}
+
+		protected void bind(int port) throws BindException
+		{
+			super.bind(port, true);
+		}
+
+		protected ByteBuffer getBuffer()
+		{
+			return ConnectController.this.getBuffer();
+		}
+
+		protected void releaseBuffer(ByteBuffer buffer)
+		{
+			ConnectController.this.releaseBuffer(buffer);
+		}
+
+		protected void handleReceived(ByteBuffer buffer, InetSocketAddress fromSocketAddress)
+		{
+			ConnectController.this.handleReceived(counters[index], buffer, fromSocketAddress);
+		}
+	}
 }
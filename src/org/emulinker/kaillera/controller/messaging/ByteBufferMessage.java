@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import org.apache.commons.logging.*;
+import org.emulinker.util.ByteBufferPool;
 
 public abstract class ByteBufferMessage
 {
@@ -49,12 +50,21 @@ public abstract class ByteBufferMessage
 
 	private void initBuffer(int size)
 	{
+		releaseBuffer();
 		buffer = getBuffer(size);
 	}
 
+	/**
+	 * Returns the buffer created by toBuffer() to the pool.  The buffer returned by toBuffer() must not be used after
+	 * calling this.
+	 */
 	public void releaseBuffer()
 	{
-
+		if (buffer != null)
+		{
+			releaseBuffer(buffer);
+			buffer = null;
+		}
 	}
 
 	public ByteBuffer toBuffer()
@@ -69,11 +79,11 @@ public abstract class ByteBufferMessage
 
 	public static ByteBuffer getBuffer(int size)
 	{
-		return ByteBuffer.allocateDirect(size);
+		return ByteBufferPool.acquire(size);
 	}
 
 	public static void releaseBuffer(ByteBuffer buffer)
 	{
-		// nothing to do since we aren't caching buffers anymore
+		ByteBufferPool.release(buffer);
 	}
 }
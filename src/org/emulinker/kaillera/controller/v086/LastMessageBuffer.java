@@ -1,59 +1,120 @@
 package org.emulinker.kaillera.controller.v086;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.commons.logging.*;
 import org.emulinker.kaillera.controller.v086.protocol.V086Message;
 
 /**
- * This is a specialized data structure designed to efficiently store and retrieve the last outbound messages sent to a 
- * client.  It would be much easier to use a simple LinkedList, but that means we have to use iterators and create node 
- * objects, which causes large amounts of garbage collection considering the rate at which messages flow through the 
+ * This is a specialized data structure designed to efficiently store and retrieve the last outbound messages sent to a
+ * client.  It would be much easier to use a simple LinkedList, but that means we have to use iterators and create node
+ * objects, which causes large amounts of garbage collection considering the rate at which messages flow through the
  * server.<br>
  * <br>
- * This class operates like a circular buffer, but adds messages from back to front.  By doing this, we can use 
- * System.aray copy to efficiently copy messages out, start with the newest first.
- */ 
+ * This class operates like a circular buffer, but adds messages from back to front.  By doing this, we can use
+ * System.aray copy to efficiently copy messages out, start with the newest first.<br>
+ * <br>
+ * Each message is also encoded exactly once when it is added, header and all, into a byte ring owned by this buffer.
+ * Since every message is resent as part of the next several bundles, fill() hands out the offsets of the encoded bytes
+ * so bundles can be assembled with bulk copies instead of encoding the same message again each time.  When the byte
+ * ring wraps, the oldest messages whose bytes get overwritten are dropped, even if fewer than max messages are held.
+ * The message objects themselves aren't kept, so a sender can reuse one as soon as add() returns.
+ */
 
 public class LastMessageBuffer
 {
+	private static Log		log			= LogFactory.getLog(LastMessageBuffer.class);
+
 	private int				max;
 	private int				next;
 	private int				size;
-	private V086Message[]	array;
+	private int[]			offsets;
+	private int[]			lengths;
 
-	public LastMessageBuffer(int max)
+	private byte[]			bytes;
+	private ByteBuffer		writeBuffer;
+	private int				writePosition	= 0;
+
+	public LastMessageBuffer(int max, int byteCapacity)
 	{
-		array = new V086Message[max];
+		offsets = new int[max];
+		lengths = new int[max];
 		this.max = max;
-		next = (max-1); 
+		next = (max-1);
+
+		bytes = new byte[byteCapacity];
+		writeBuffer = ByteBuffer.wrap(bytes);
+		writeBuffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Returns the byte ring backing the offsets handed out by fill().  The contents are only valid until the next add().
+	 */
+	public byte[] getBytes()
+	{
+		return bytes;
 	}
 
 	public void add(V086Message o)
 	{
-		array[next] = o;
+		// message number + length + body
+		int wireLength = (4 + o.getLength());
+		if (wireLength > bytes.length)
+		{
+			log.warn("Ran out of output buffer space, consider increasing the controllers.v086.bufferSize setting!");
+			return;
+		}
+
+		if ((writePosition + wireLength) > bytes.length)
+			writePosition = 0;
+
+		// drop the oldest messages whose bytes are about to be overwritten
+		while (size > 0)
+		{
+			int oldest = ((next + size) % max);
+			if (offsets[oldest] < (writePosition + wireLength) && writePosition < (offsets[oldest] + lengths[oldest]))
+				size--;
+			else
+				break;
+		}
+
+		writeBuffer.clear();
+		writeBuffer.position(writePosition);
+		writeBuffer.limit(writePosition + wireLength);
+		o.writeTo(writeBuffer);
+
+		offsets[next] = writePosition;
+		lengths[next] = wireLength;
+		writePosition += wireLength;
+
 		if (--next < 0)
 			next = (max-1);
 		if(size < max)
 			size++;
 	}
 
-	public int fill(V086Message[] o, int num)
+	/**
+	 * Copies the offsets and lengths within getBytes() of up to num of the newest messages, newest first, stopping
+	 * before the total would exceed maxBytes.
+	 *
+	 * @return	The number of messages filled
+	 */
+	public int fill(int[] outOffsets, int[] outLengths, int num, int maxBytes)
 	{
-		//int startRead = (next+1);
-		//int endRead = ((next+1)+size);
 		if(size < num)
+			num = size;
+
+		int total = 0;
+		for (int i = 0; i < num; i++)
 		{
-			System.arraycopy(array, (next + 1), o, 0, size);
-			return size;
-		}
-		else if (((next + 1) + num) <= max)
-		{
-			System.arraycopy(array, (next + 1), o, 0, num);
-		}
-		else
-		{
-			//int firstPartSize = (max-(next+1));
-			//int secondPartSize = (size-(max-(next+1)));
-			System.arraycopy(array, (next + 1), o, 0, (max - (next + 1)));
-			System.arraycopy(array, 0, o, (max - (next + 1)), (num - (max - (next + 1))));
+			int index = ((next + 1 + i) % max);
+			total += lengths[index];
+			if (total > maxBytes)
+				return i;
+
+			outOffsets[i] = offsets[index];
+			outLengths[i] = lengths[index];
 		}
 		return num;
 	}
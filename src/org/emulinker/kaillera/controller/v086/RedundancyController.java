@@ -0,0 +1,111 @@
+package org.emulinker.kaillera.controller.v086;
+
+/**
+ * Chooses how many of the last outbound messages are piggybacked onto each bundle sent to a client.  Every bundle the
+ * client sends us carries its own recent messages, so when a bundle arrives holding n new messages, the n-1 datagrams
+ * before it were lost on the way.  The loss rate measured this way over each window of datagrams is used to pick the
+ * smallest redundancy that makes losing every copy of a message unlikely, on the assumption that the link loses
+ * packets about as often in both directions.<br>
+ * <br>
+ * Increases take effect immediately, but decreases only happen one step per window so a short quiet period on a bad
+ * link doesn't drop the redundancy straight to the minimum.  A gap the client's own redundancy couldn't cover jumps
+ * straight to the maximum.
+ */
+public class RedundancyController
+{
+	// roughly one second of gameplay
+	private static final int	WINDOW_DATAGRAMS	= 60;
+	// acceptable chance of every copy of a message being lost
+	private static final double	TARGET_LOSS			= 0.0001;
+	private static final int	DEFAULT_WINDOW		= 5;
+
+	private int					min;
+	private int					max;
+	private volatile int		window;
+	private volatile double		lossRate			= 0;
+
+	private int					receivedCount		= 0;
+	private int					lostCount			= 0;
+
+	public RedundancyController(int min, int max)
+	{
+		this.min = min;
+		this.max = max;
+		window = Math.max(min, Math.min(max, DEFAULT_WINDOW));
+	}
+
+	/**
+	 * @return	The number of messages to include in each bundle
+	 */
+	public int getWindow()
+	{
+		return window;
+	}
+
+	/**
+	 * @return	The smoothed fraction of datagrams from the client that were lost
+	 */
+	public double getLossRate()
+	{
+		return lossRate;
+	}
+
+	public String toString()
+	{
+		return window + " (" + (Math.round(lossRate * 1000) / 10.0) + "% loss)";
+	}
+
+	/**
+	 * Called for every bundle received from the client that contained new messages.
+	 */
+	public synchronized void received(int newMessages)
+	{
+		receivedCount++;
+		if (newMessages > 1)
+			lostCount += (newMessages - 1);
+
+		if ((receivedCount + lostCount) >= WINDOW_DATAGRAMS)
+			adjust();
+	}
+
+	/**
+	 * Called when messages from the client went missing despite its redundancy.
+	 */
+	public synchronized void gapDetected()
+	{
+		window = max;
+	}
+
+	/**
+	 * Called when the client resends messages we already have, meaning our replies aren't getting through.
+	 */
+	public synchronized void retryRequested()
+	{
+		if (window < max)
+			window++;
+	}
+
+	private void adjust()
+	{
+		double sample = ((double) lostCount / (receivedCount + lostCount));
+		lossRate = ((lossRate + sample) / 2);
+		receivedCount = 0;
+		lostCount = 0;
+
+		int target = min;
+		if (lossRate >= 1)
+			target = max;
+		else if (lossRate > 0)
+			target = (int) Math.ceil(Math.log(TARGET_LOSS) / Math.log(lossRate));
+
+		if (target > max)
+			target = max;
+		else if (target < min)
+			target = min;
+
+		if (target > window)
+			window = target;
+		else if (target < window)
+			window--;
+	}
+}
@@ -33,9 +33,14 @@ public class V086Controller implements KailleraServerController
 	private String[]							clientTypes;
 	private Map<Integer, V086ClientHandler>		clientHandlers		= new ConcurrentHashMap<Integer, V086ClientHandler>();
 
+	private int									redundancyMin;
+	private int									redundancyMax;
+	private boolean								slabGameDataCache;
+
 	private int									portRangeStart;
 	private int									extraPorts;
 	private Queue<Integer>						portRangeQueue		= new ConcurrentLinkedQueue<Integer>();
+	private UDPMultiplexer						multiplexer;
 
 	// shouldn't need to use a synchronized or concurrent map since all thread access will be read only
 	private Map<Class, V086ServerEventHandler>	serverEventHandlers	= new HashMap<Class, V086ServerEventHandler>();
@@ -55,18 +60,54 @@ public class V086Controller implements KailleraServerController
 
 		this.portRangeStart = config.getInt("controllers.v086.portRangeStart");
 		this.extraPorts = config.getInt("controllers.v086.extraPorts", 0);
-		int maxPort = 0;
-		for (int i = portRangeStart; i <= (portRangeStart + server.getMaxUsers() + extraPorts); i++)
-		{
-			portRangeQueue.add(i);
-			maxPort = i;
-		}
-		
-		log.warn("Listening on UDP ports: " + portRangeStart + " to " + maxPort + ".  Make sure these ports are open in your firewall!");
 
 		if (bufferSize <= 0)
 			throw new ConfigurationException("controllers.v086.bufferSize must be > 0");
 
+		this.redundancyMin = config.getInt("controllers.v086.redundancy.min", 2);
+		this.redundancyMax = config.getInt("controllers.v086.redundancy.max", MAX_BUNDLE_SIZE);
+		if (redundancyMin < 1 || redundancyMax > MAX_BUNDLE_SIZE || redundancyMin > redundancyMax)
+			throw new ConfigurationException("controllers.v086.redundancy.min and max must be between 1 and " + MAX_BUNDLE_SIZE + " and min must be <= max");
+
+		String gameDataCache = config.getString("controllers.v086.gameDataCache", "heap");
+		if (!gameDataCache.equals("heap") && !gameDataCache.equals("slab"))
+			throw new ConfigurationException("controllers.v086.gameDataCache must be heap or slab");
+		this.slabGameDataCache = gameDataCache.equals("slab");
+
+		if (config.getBoolean("controllers.v086.multiplex.enabled", false))
+		{
+			int workers = config.getInt("controllers.v086.multiplex.workers", 2);
+			int socketsPerWorker = config.getInt("controllers.v086.multiplex.socketsPerWorker", 1);
+			if (workers <= 0)
+				throw new ConfigurationException("controllers.v086.multiplex.workers must be > 0");
+			if (socketsPerWorker <= 0)
+				throw new ConfigurationException("controllers.v086.multiplex.socketsPerWorker must be > 0");
+			// without it a player waiting for game data blocks the receive thread every other user on it shares
+			if (!config.getBoolean("game.tickEngine.enabled", false))
+				throw new ConfigurationException("controllers.v086.multiplex.enabled requires game.tickEngine.enabled=true");
+
+			boolean reusePort = config.getBoolean("controllers.v086.multiplex.reusePort", false);
+			if (reusePort && !UDPServer.isReusePortSupported())
+			{
+				log.warn("SO_REUSEPORT is not supported on this platform, controllers.v086.multiplex.reusePort will be ignored");
+				reusePort = false;
+			}
+
+			multiplexer = new UDPMultiplexer(threadPool, portRangeStart, workers, socketsPerWorker, bufferSize, reusePort);
+			log.warn("Listening on UDP ports: " + multiplexer.getStartPort() + " to " + multiplexer.getEndPort() + " (multiplexed).  Make sure these ports are open in your firewall!");
+		}
+		else
+		{
+			int maxPort = 0;
+			for (int i = portRangeStart; i <= (portRangeStart + server.getMaxUsers() + extraPorts); i++)
+			{
+				portRangeQueue.add(i);
+				maxPort = i;
+			}
+
+			log.warn("Listening on UDP ports: " + portRangeStart + " to " + maxPort + ".  Make sure these ports are open in your firewall!");
+		}
+
 		// array access should be faster than a hash and we won't have to create
 		// a new Integer each time
 		actions[UserInformation.ID] = LoginAction.getInstance();
@@ -109,6 +150,7 @@ public class V086Controller implements KailleraServerController
 		// setup the user event handlers
 		userEventHandlers.put(ConnectedEvent.class, ACKAction.getInstance());
 		userEventHandlers.put(InfoMessageEvent.class, InfoMessageAction.getInstance());
+		userEventHandlers.put(PacedMessageEvent.class, PacedMessageAction.getInstance());
 	}
 
 	public String getVersion()
@@ -179,6 +221,24 @@ public class V086Controller implements KailleraServerController
 		V086ClientHandler clientHandler = new V086ClientHandler(clientSocketAddress);
 		KailleraUser user = server.newConnection(clientSocketAddress, protocol, clientHandler);
 
+		if (multiplexer != null)
+		{
+			try
+			{
+				clientHandler.bind(multiplexer, clientSocketAddress);
+			}
+			catch (BindException e)
+			{
+				log.error("Failed to attach " + user + " to " + multiplexer + ": " + e.getMessage(), e);
+				clientHandler.stop();
+				throw new NewConnectionException("Failed to bind!");
+			}
+
+			log.info("Shared port " + clientHandler.getBindPort() + " allocated to: " + user);
+			clientHandler.start(user);
+			return clientHandler.getBindPort();
+		}
+
 		int boundPort = -1;
 		int bindAttempts = 0;
 		while (bindAttempts++ < 5)
@@ -229,6 +289,20 @@ public class V086Controller implements KailleraServerController
 
 	public synchronized void start()
 	{
+		if (multiplexer != null)
+		{
+			try
+			{
+				multiplexer.start();
+			}
+			catch (BindException e)
+			{
+				log.fatal(toString() + " failed to start " + multiplexer + ": " + e.getMessage(), e);
+				multiplexer.stop();
+				return;
+			}
+		}
+
 		isRunning = true;
 	}
 
@@ -240,6 +314,9 @@ public class V086Controller implements KailleraServerController
 			clientHandler.stop();
 
 		clientHandlers.clear();
+
+		if (multiplexer != null)
+			multiplexer.stop();
 	}
 
 	public class V086ClientHandler extends PrivateUDPServer implements KailleraEventListener
@@ -252,9 +329,20 @@ public class V086Controller implements KailleraServerController
 		private GameDataCache		serverCache				= null;
 
 		//private LinkedList<V086Message>	lastMessages			= new LinkedList<V086Message>();
-		private LastMessageBuffer	lastMessageBuffer		= new LastMessageBuffer(MAX_BUNDLE_SIZE);
+		private LastMessageBuffer	lastMessageBuffer		= new LastMessageBuffer(MAX_BUNDLE_SIZE, (bufferSize * 2));
+
+		private int[]				outOffsets				= new int[MAX_BUNDLE_SIZE];
+		private int[]				outLengths				= new int[MAX_BUNDLE_SIZE];
+		// refilled for every datagram sent; lastMessageBuffer encodes each message as it's added, so gameplay
+		// messages can be refilled too
+		private V086Bundle			outBundle				= new V086Bundle(lastMessageBuffer.getBytes(), outOffsets, outLengths, 0);
+		private GameData			outGameData				= GameData.createFlyweight();
+		private CachedGameData		outCachedGameData		= CachedGameData.createFlyweight();
 
-		private V086Message[]		outMessages				= new V086Message[MAX_BUNDLE_SIZE];
+		private RedundancyController	redundancy				= new RedundancyController(redundancyMin, redundancyMax);
+
+		// reused for every datagram so gameplay messages can be parsed without allocating
+		private V086Bundle			reusableInBundle		= V086Bundle.createReusable();
 
 		private ByteBuffer			inBuffer				= ByteBuffer.allocateDirect(bufferSize);
 		private ByteBuffer			outBuffer				= ByteBuffer.allocateDirect(bufferSize);
@@ -270,6 +358,11 @@ public class V086Controller implements KailleraServerController
 		private int					clientRetryCount		= 0;
 		private long				lastResend				= 0;
 
+		// the rest of the lobby still to be paced out, and the server events that arrived while it was, only touched by
+		// the user's event thread
+		private Deque<PreEncodedMessage>	pacedMessages	= null;
+		private List<ServerEvent>	heldEvents				= null;
+
 		private V086ClientHandler(InetSocketAddress remoteSocketAddress)
 		{
 			super(false, remoteSocketAddress.getAddress());
@@ -298,6 +391,11 @@ public class V086Controller implements KailleraServerController
 			return user;
 		}
 
+		public RedundancyController getRedundancy()
+		{
+			return redundancy;
+		}
+
 		public synchronized int getNextMessageNumber()
 		{
 			if (messageNumberCounter > 0xFFFF)
@@ -335,11 +433,23 @@ public class V086Controller implements KailleraServerController
 
 		public void resetGameDataCache()
 		{
+			// gives back any pooled frames the old cache is holding
+			if (serverCache != null)
+				serverCache.clear();
+
+			if (slabGameDataCache)
+			{
+				// the client cache is only read with get(), so it doesn't need a hash index
+				clientCache = new SlabGameDataCache(256, false);
+				serverCache = new SlabGameDataCache(256);
+				return;
+			}
+
 			clientCache = new ClientGameDataCache(256);
 			/*SF MOD - Button Ghosting Patch
 			serverCache = new ServerGameDataCache(256);
 			*/
-			serverCache = new ClientGameDataCache(256);
+			serverCache = new IndexedGameDataCache(256);
 		}
 
 		public void startSpeedTest()
@@ -377,9 +487,22 @@ public class V086Controller implements KailleraServerController
 			super.bind(port);
 		}
 
+		public void bind(UDPMultiplexer multiplexer, InetSocketAddress connectSocketAddress) throws BindException
+		{
+			super.bind(multiplexer, connectSocketAddress);
+		}
+
 		public void start(KailleraUser user)
 		{
 			this.user = user;
+
+			// multiplexed handlers are driven by the shared receive loops
+			if (isMultiplexed())
+			{
+				clientHandlers.put(user.getID(), this);
+				return;
+			}
+
 			log.debug(toString() + " thread starting (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");
 			threadPool.execute(this);
 			Thread.yield();
@@ -417,7 +540,7 @@ public class V086Controller implements KailleraServerController
 					return;
 	
 				int port = -1;
-				if (isBound())
+				if (isBound() && !isMultiplexed())
 					port = getBindPort();
 				log.debug(this.toString() + " Stopping!");
 				super.stop();
@@ -451,12 +574,26 @@ public class V086Controller implements KailleraServerController
 		}
 
 		protected void handleReceived(ByteBuffer buffer)
+		{
+			try
+			{
+				handleBundle(buffer);
+			}
+			finally
+			{
+				// frames parsed into GameData that no action took, because the bundle was bad, an action failed or
+				// there was none, go back to the pool
+				reusableInBundle.releaseFrames();
+			}
+		}
+
+		private void handleBundle(ByteBuffer buffer)
 		{
 			V086Bundle inBundle = null;
 
 			try
 			{
-				inBundle = V086Bundle.parse(buffer, lastMessageNumber);
+				inBundle = V086Bundle.parse(buffer, lastMessageNumber, reusableInBundle);
 				//inBundle = V086Bundle.parse(buffer, -1);
 			}
 			catch (ParseException e)
@@ -483,12 +620,14 @@ public class V086Controller implements KailleraServerController
 			if (inBundle.getNumMessages() == 0)
 			{
 				log.debug(toString() + " received bundle of " + inBundle.getNumMessages() + " messages from " + user);
+				redundancy.retryRequested();
 				clientRetryCount++;
 				resend(clientRetryCount);
 				return;
 			}
 			else
 			{
+				redundancy.received(inBundle.getNumMessages());
 				clientRetryCount = 0;
 			}
 
@@ -527,6 +666,7 @@ public class V086Controller implements KailleraServerController
 									}
 									else {
 										log.warn(user + " dropped a packet! (" + prevMessageNumber + " to " + lastMessageNumber + ")");
+										redundancy.gapDetected();
 										user.droppedPacket();
 									}
 								}
@@ -553,8 +693,83 @@ public class V086Controller implements KailleraServerController
 			}
 		}
 
+		/**
+		 * Holds back server events until the last of paced has been sent, one for each PacedMessageEvent.  While the
+		 * client is still being sent the lobby as it was when it logged in, a change to the lobby has to reach it after
+		 * the part of the lobby it changes.
+		 */
+		public void holdServerEvents(List<PreEncodedMessage> paced)
+		{
+			pacedMessages = new ArrayDeque<PreEncodedMessage>(paced);
+			if (heldEvents == null)
+				heldEvents = new ArrayList<ServerEvent>();
+		}
+
+		/**
+		 * Sends the next paced message, if releaseServerEvents hasn't already sent it.
+		 */
+		public void sendPaced() throws MessageFormatException
+		{
+			PreEncodedMessage message = (pacedMessages == null ? null : pacedMessages.poll());
+			if (message == null)
+				return;
+
+			send(new PreEncodedMessage(getNextMessageNumber(), message));
+			if (pacedMessages.isEmpty())
+				releaseServerEvents();
+		}
+
+		/**
+		 * Sends whatever is left of the paced messages straight away, and then the server events held back behind them.
+		 */
+		public void releaseServerEvents()
+		{
+			Deque<PreEncodedMessage> paced = pacedMessages;
+			pacedMessages = null;
+			if (paced != null)
+			{
+				for (PreEncodedMessage message : paced)
+				{
+					try
+					{
+						send(new PreEncodedMessage(getNextMessageNumber(), message));
+					}
+					catch (MessageFormatException e)
+					{
+						log.error("Failed to contruct PreEncodedMessage message: " + e.getMessage(), e);
+					}
+				}
+			}
+
+			List<ServerEvent> events = heldEvents;
+			heldEvents = null;
+			if (events == null)
+				return;
+
+			for (ServerEvent event : events)
+				actionPerformed(event);
+		}
+
 		public void actionPerformed(KailleraEvent event)
 		{
+			// if this user is quitting, the rest of the lobby no longer matters
+			if (heldEvents != null && event instanceof UserQuitEvent && ((UserQuitEvent) event).getUser() == user)
+			{
+				pacedMessages = null;
+				releaseServerEvents();
+			}
+
+			// the user can create or join a game while the lobby is still being paced out, and has to be sent the lobby
+			// and what has changed since before anything that happens in the game
+			if (heldEvents != null && event instanceof GameEvent)
+				releaseServerEvents();
+
+			if (heldEvents != null && event instanceof ServerEvent)
+			{
+				heldEvents.add((ServerEvent) event);
+				return;
+			}
+
 			if (event instanceof GameEvent)
 			{
 				V086GameEventHandler eventHandler = gameEventHandlers.get(event.getClass());
@@ -600,6 +815,8 @@ public class V086Controller implements KailleraServerController
 				{
 					//int numToSend = (3+timeoutCounter);
 					int numToSend = (3 * timeoutCounter);
+					if (numToSend < redundancy.getWindow())
+						numToSend = redundancy.getWindow();
 					if (numToSend > MAX_BUNDLE_SIZE)
 						numToSend = MAX_BUNDLE_SIZE;
 					
@@ -616,7 +833,31 @@ public class V086Controller implements KailleraServerController
 
 		public void send(V086Message outMessage)
 		{
-			send(outMessage, 5);
+			send(outMessage, redundancy.getWindow());
+		}
+
+		/**
+		 * Sends a GameData message without allocating one.  data only has to stay intact until this returns.
+		 */
+		public void sendGameData(byte[] data) throws MessageFormatException
+		{
+			synchronized (outSynch)
+			{
+				outGameData.reset(getNextMessageNumber(), data);
+				send(outGameData);
+			}
+		}
+
+		/**
+		 * Sends a CachedGameData message without allocating one.
+		 */
+		public void sendCachedGameData(int key)
+		{
+			synchronized (outSynch)
+			{
+				outCachedGameData.reset(getNextMessageNumber(), key);
+				send(outCachedGameData);
+			}
 		}
 
 		public void send(V086Message outMessage, int numToSend)
@@ -627,9 +868,10 @@ public class V086Controller implements KailleraServerController
 					lastMessageBuffer.add(outMessage);
 				}
 
-				numToSend = lastMessageBuffer.fill(outMessages, numToSend);
+				// leave room for the message count
+				numToSend = lastMessageBuffer.fill(outOffsets, outLengths, numToSend, (outBuffer.capacity() - 1));
 				//System.out.println("Server -> " + numToSend);
-				V086Bundle outBundle = new V086Bundle(outMessages, numToSend);
+				outBundle.setNumToWrite(numToSend);
 //				log.debug("<- " + outBundle);
 				outBundle.writeTo(outBuffer);
 				outBuffer.flip();
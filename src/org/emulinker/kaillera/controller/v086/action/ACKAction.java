@@ -9,6 +9,7 @@ import org.emulinker.kaillera.controller.v086.protocol.*;
 import org.emulinker.kaillera.model.*;
 import org.emulinker.kaillera.model.event.*;
 import org.emulinker.kaillera.model.exception.LoginException;
+import org.emulinker.kaillera.model.impl.*;
 
 public class ACKAction implements V086Action, V086UserEventHandler
 {
@@ -20,6 +21,15 @@ public class ACKAction implements V086Action, V086UserEventHandler
 	private int					actionCount			= 0;
 	private int					handledCount		= 0;
 
+	// delay between the ServerStatus messages for a large lobby, so a dropped packet doesn't lose any of them
+	private static final long	STATUS_DELAY		= 100;
+
+	private long				encodedVersion		= -1;
+	private List<PreEncodedMessage>	encodedStatus;
+	private Map<LobbySnapshot.UserEntry, ServerStatus.User>	statusUsers	= new IdentityHashMap<LobbySnapshot.UserEntry, ServerStatus.User>();
+	private Map<LobbySnapshot.GameEntry, ServerStatus.Game>	statusGames	= new IdentityHashMap<LobbySnapshot.GameEntry, ServerStatus.Game>();
+	private int					encodeCount			= 0;
+
 	public static ACKAction getInstance()
 	{
 		return singleton;
@@ -40,6 +50,11 @@ public class ACKAction implements V086Action, V086UserEventHandler
 		return handledCount;
 	}
 
+	public synchronized int getStatusEncodeCount()
+	{
+		return encodeCount;
+	}
+
 	public String toString()
 	{
 		return desc;
@@ -100,41 +115,84 @@ public class ACKAction implements V086Action, V086UserEventHandler
 
 		ConnectedEvent connectedEvent = (ConnectedEvent) event;
 		
-		KailleraServer server = connectedEvent.getServer();
-		KailleraUser thisUser = connectedEvent.getUser();
+		KailleraServerImpl server = (KailleraServerImpl) connectedEvent.getServer();
+		KailleraUserImpl thisUser = (KailleraUserImpl) connectedEvent.getUser();
+
+		// the snapshot only has users that have finished logging in, so this user isn't in it yet
+		List<PreEncodedMessage> status = getServerStatus(server.getLobbySnapshot().getView());
+
+		log.debug("Sending ServerStatus to " + thisUser + " in " + status.size() + " messages");
 
-		List<ServerStatus.User> users = new ArrayList<ServerStatus.User>();
-		List<ServerStatus.Game> games = new ArrayList<ServerStatus.Game>();
-		
 		try
 		{
-			for (KailleraUser user : server.getUsers())
-			{
-				if (user.getStatus() != KailleraUser.STATUS_CONNECTING && !user.equals(thisUser))
-					users.add(new ServerStatus.User(user.getName(), user.getPing(), (byte) user.getStatus(), user.getID(), user.getConnectionType()));
-			}
+			clientHandler.send(new PreEncodedMessage(clientHandler.getNextMessageNumber(), status.get(0)));
 		}
 		catch (MessageFormatException e)
 		{
-			log.error("Failed to contruct new ServerStatus.User", e);
-			return;
+			log.error("Failed to contruct new ServerStatus for users", e);
 		}
 
-		try
+		if (status.size() == 1)
+			return;
+
+		// the rest is paced out by the server, and lobby changes wait until the client has all of it
+		clientHandler.holdServerEvents(status.subList(1, status.size()));
+		SendScheduler.Sequence sequence = server.getSendScheduler().newSequence(thisUser);
+		for (int i = 1; i < status.size(); i++)
+			sequence.add(STATUS_DELAY, new PacedMessageEvent(thisUser));
+		sequence.start();
+	}
+
+	/**
+	 * @return	The ServerStatus messages for view, encoded once per version of the lobby and shared by every login
+	 */
+	private synchronized List<PreEncodedMessage> getServerStatus(LobbySnapshot.View view)
+	{
+		if (encodedStatus != null && view.getVersion() == encodedVersion)
+			return encodedStatus;
+
+		// entries are replaced when they change, so anything still in the lobby can reuse what was built for it last time
+		Map<LobbySnapshot.UserEntry, ServerStatus.User> users = new IdentityHashMap<LobbySnapshot.UserEntry, ServerStatus.User>();
+		Map<LobbySnapshot.GameEntry, ServerStatus.Game> games = new IdentityHashMap<LobbySnapshot.GameEntry, ServerStatus.Game>();
+		List<ServerStatus.User> userList = new ArrayList<ServerStatus.User>(view.getUsers().size());
+		List<ServerStatus.Game> gameList = new ArrayList<ServerStatus.Game>(view.getGames().size());
+
+		for (LobbySnapshot.UserEntry entry : view.getUsers())
 		{
-			for (KailleraGame game : server.getGames()){
-				int num = 0;
-				for(KailleraUser user : game.getPlayers()){
-					if(!user.getStealth())
-						num++;
+			ServerStatus.User user = statusUsers.get(entry);
+			if (user == null)
+			{
+				try
+				{
+					user = new ServerStatus.User(entry.getName(), entry.getPing(), (byte) entry.getStatus(), entry.getID(), entry.getConnectionType());
+				}
+				catch (MessageFormatException e)
+				{
+					log.error("Failed to contruct new ServerStatus.User", e);
+					continue;
 				}
-				games.add(new ServerStatus.Game(game.getRomName(), game.getID(), game.getClientType(), game.getOwner().getName(), (num + "/" + game.getMaxUsers()), (byte) game.getStatus()));
-			}
 			}
-		catch (MessageFormatException e)
+			users.put(entry, user);
+			userList.add(user);
+		}
+
+		for (LobbySnapshot.GameEntry entry : view.getGames())
 		{
-			log.error("Failed to contruct new ServerStatus.User", e);
-			return;
+			ServerStatus.Game game = statusGames.get(entry);
+			if (game == null)
+			{
+				try
+				{
+					game = new ServerStatus.Game(entry.getRomName(), entry.getID(), entry.getClientType(), entry.getOwnerName(), (entry.getNumPlayers() + "/" + entry.getMaxUsers()), (byte) entry.getStatus());
+				}
+				catch (MessageFormatException e)
+				{
+					log.error("Failed to contruct new ServerStatus.Game", e);
+					continue;
+				}
+			}
+			games.put(entry, game);
+			gameList.add(game);
 		}
 
 		// Here I am attempting to fix the inherent Kaillera protocol bug that occurs when there are a large number of users
@@ -145,66 +203,61 @@ public class ACKAction implements V086Action, V086UserEventHandler
 		// I am attempting to fix this by breaking the ServerStatus message up into multiple packets.  I'm shooting for a max
 		// packet size of 1500 bytes, but since kaillera sends 3 messages per packet, the max size for a single message should be 500
 		
-		int counter = 0;
-		boolean sent = false;
-		
+		List<PreEncodedMessage> status = new ArrayList<PreEncodedMessage>();
 		List<ServerStatus.User> usersSubList = new ArrayList<ServerStatus.User>();
 		List<ServerStatus.Game> gamesSubList = new ArrayList<ServerStatus.Game>();
-		
-		while(!users.isEmpty())
+		int counter = 0;
+
+		for (ServerStatus.User user : userList)
 		{
-			ServerStatus.User user = users.get(0);
-			users.remove(0);
-			
-			if((counter + user.getLength()) >= 300)
+			if ((counter + user.getLength()) >= 300 && counter > 0)
 			{
-				sendServerStatus(clientHandler, usersSubList, gamesSubList, counter);
+				addServerStatus(status, usersSubList, gamesSubList);
 				usersSubList = new ArrayList<ServerStatus.User>();
 				gamesSubList = new ArrayList<ServerStatus.Game>();
 				counter = 0;
-				sent = true;
-				try { Thread.sleep(100); } catch(Exception e) {}//SF MOD
 			}
 			
 			counter += user.getLength();
 			usersSubList.add(user);
 		}
 
-		while(!games.isEmpty())
+		for (ServerStatus.Game game : gameList)
 		{
-			ServerStatus.Game game = games.get(0);
-			games.remove(0);
-			
-			if((counter + game.getLength()) >= 300)
+			if ((counter + game.getLength()) >= 300 && counter > 0)
 			{
-				sendServerStatus(clientHandler, usersSubList, gamesSubList, counter);
+				addServerStatus(status, usersSubList, gamesSubList);
 				usersSubList = new ArrayList<ServerStatus.User>();
 				gamesSubList = new ArrayList<ServerStatus.Game>();
 				counter = 0;
-				sent = true;
-				try { Thread.sleep(100); } catch(Exception e) {}//SF MOD
 			}
 			
 			counter += game.getLength();
 			gamesSubList.add(game);
 		}
 
-		if((usersSubList.size() > 0 || gamesSubList.size() > 0) || !sent)
-			sendServerStatus(clientHandler, usersSubList, gamesSubList, counter);
+		// an empty lobby still gets one, empty, ServerStatus
+		if ((usersSubList.size() > 0 || gamesSubList.size() > 0) || status.isEmpty())
+			addServerStatus(status, usersSubList, gamesSubList);
+
+		// an older view may turn up after a newer one has been encoded; don't go backwards
+		if (encodedStatus == null || view.getVersion() > encodedVersion)
+		{
+			encodedVersion = view.getVersion();
+			encodedStatus = status;
+			statusUsers = users;
+			statusGames = games;
+			encodeCount++;
+		}
+
+		return status;
 	}
 	
-	private void sendServerStatus(V086Controller.V086ClientHandler clientHandler, List<ServerStatus.User> users, List<ServerStatus.Game> games, int counter)
+	private void addServerStatus(List<PreEncodedMessage> status, List<ServerStatus.User> users, List<ServerStatus.Game> games)
 	{
-		StringBuilder sb = new StringBuilder();
-		for(ServerStatus.Game game : games)
-		{
-			sb.append(game.getGameID());
-			sb.append(",");
-		}
-		log.debug("Sending ServerStatus to " + clientHandler.getUser() + ": " + users.size() + " users, " + games.size() + " games in " + counter + " bytes, games: " + sb.toString());
 		try
 		{
-			clientHandler.send(new ServerStatus(clientHandler.getNextMessageNumber(), users, games));
+			status.add(new PreEncodedMessage(new ServerStatus(0, users, games)));
 		}
 		catch (MessageFormatException e)
 		{
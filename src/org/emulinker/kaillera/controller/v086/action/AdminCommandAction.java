@@ -7,9 +7,11 @@ import org.apache.commons.logging.*;
 
 import org.emulinker.release.*;
 import org.emulinker.kaillera.access.AccessManager;
+import org.emulinker.kaillera.access.AccessManager2;
 import org.emulinker.kaillera.controller.messaging.MessageFormatException;
 import org.emulinker.kaillera.controller.v086.V086Controller;
 import org.emulinker.kaillera.controller.v086.protocol.*;
+import org.emulinker.kaillera.model.event.InfoMessageEvent;
 import org.emulinker.kaillera.model.exception.ActionException;
 import org.emulinker.kaillera.model.impl.*;
 import org.emulinker.util.*;
@@ -243,53 +245,40 @@ public class AdminCommandAction implements V086Action
 
 	private void processHelp(String message, KailleraServerImpl server, KailleraUserImpl admin, V086Controller.V086ClientHandler clientHandler) throws ActionException, MessageFormatException
 	{
-		if(admin.getAccess() == AccessManager.ACCESS_MODERATOR)
-			return;
-		//clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.AdminCommands"))); //$NON-NLS-1$ //$NON-NLS-2$
-		//try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpVersion"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpKick"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpSilence"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpBan"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
+		// paced by the send scheduler, so a multiplexed worker isn't held up sending it
+		SendScheduler.Sequence help = server.getSendScheduler().newSequence(admin);
+		if(admin.getAccess() != AccessManager.ACCESS_MODERATOR){
+			//clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.AdminCommands"))); //$NON-NLS-1$ //$NON-NLS-2$
+			//try { Thread.sleep(20); } catch(Exception e) {}
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpVersion"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpKick"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpSilence"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpBan"))); //$NON-NLS-1$ //$NON-NLS-2$
 		
-		if(admin.getAccess() == AccessManager.ACCESS_ADMIN){
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpClear"))); //$NON-NLS-1$ //$NON-NLS-2$
-			try { Thread.sleep(20); } catch(Exception e) {}
-		}
+			if(admin.getAccess() == AccessManager.ACCESS_ADMIN){
+				help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpClear"))); //$NON-NLS-1$ //$NON-NLS-2$
+			}
 		
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpCloseGame"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpAnnounce"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpAnnounceAll"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpAnnounceGame"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpFindUser"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpFindGame"))); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/triviaon to start the trivia bot- /triviapause to pause the bot- /triviaresume to resume the bot after pause- /triviasave to save the bot's scores- /triviatime <#> to change the question delay")); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/triviaoff to stop the bot- /triviascores to show top 3 scores- /triviawin to show a winner- /triviaupdate <IP Address> <New IP Address> to update ip address")); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/stealthon /stealthoff to join a room invisibly.")); //$NON-NLS-1$ //$NON-NLS-2$
-		try { Thread.sleep(20); } catch(Exception e) {}
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpCloseGame"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpAnnounce"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpAnnounceAll"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpAnnounceGame"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpFindUser"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpFindGame"))); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, "/triviaon to start the trivia bot- /triviapause to pause the bot- /triviaresume to resume the bot after pause- /triviasave to save the bot's scores- /triviatime <#> to change the question delay")); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, "/triviaoff to stop the bot- /triviascores to show top 3 scores- /triviawin to show a winner- /triviaupdate <IP Address> <New IP Address> to update ip address")); //$NON-NLS-1$ //$NON-NLS-2$
+			help.add(20, new InfoMessageEvent(admin, "/stealthon /stealthoff to join a room invisibly.")); //$NON-NLS-1$ //$NON-NLS-2$
 		
-		if(admin.getAccess() == AccessManager.ACCESS_SUPERADMIN){
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/tempelevated <UserID> <min> to give a user temporary elevated access.")); //$NON-NLS-1$ //$NON-NLS-2$
-			try { Thread.sleep(20); } catch(Exception e) {}
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/tempmoderator <UserID> <min> to give a user temporary moderator access.")); //$NON-NLS-1$ //$NON-NLS-2$
-			try { Thread.sleep(20); } catch(Exception e) {}
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", EmuLang.getString("AdminCommandAction.HelpTempAdmin"))); //$NON-NLS-1$ //$NON-NLS-2$
-			try { Thread.sleep(20); } catch(Exception e) {}
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/clear <IP Address> to remove any temp ban, silence, elevated, moderator or admin.")); //$NON-NLS-1$ //$NON-NLS-2$
-			try { Thread.sleep(20); } catch(Exception e) {}
+			if(admin.getAccess() == AccessManager.ACCESS_SUPERADMIN){
+				help.add(20, new InfoMessageEvent(admin, "/tempelevated <UserID> <min> to give a user temporary elevated access.")); //$NON-NLS-1$ //$NON-NLS-2$
+				help.add(20, new InfoMessageEvent(admin, "/tempmoderator <UserID> <min> to give a user temporary moderator access.")); //$NON-NLS-1$ //$NON-NLS-2$
+				help.add(20, new InfoMessageEvent(admin, EmuLang.getString("AdminCommandAction.HelpTempAdmin"))); //$NON-NLS-1$ //$NON-NLS-2$
+				help.add(20, new InfoMessageEvent(admin, "/clear <IP Address> to remove any temp ban, silence, elevated, moderator or admin.")); //$NON-NLS-1$ //$NON-NLS-2$
+			}
 		}
+
+		ChatAction.addHelp(help, admin);
+		help.start();
 	}
 	
 
@@ -302,33 +291,39 @@ public class AdminCommandAction implements V086Action
 		int foundCount = 0;
 		String str = (message.substring(space + 1));
 		//WildcardStringPattern pattern = new WildcardStringPattern
-		
-		for (KailleraUserImpl user : server.getUsers())
+
+		// a name can match anywhere, so this still checks every name, but only logged in users' and already in lower case
+		String lowerStr = str.toLowerCase();
+		for (Map.Entry<String, KailleraUserImpl> entry : server.getLobbyIndex().getUsersByName().entrySet())
 		{
-			if (!user.isLoggedIn())
+			KailleraUserImpl user = entry.getValue();
+			if (!entry.getKey().contains(lowerStr) || !user.isLoggedIn())
 				continue;
 
-			if (user.getName().toLowerCase().contains(str.toLowerCase()))
-			{
-				StringBuilder sb = new StringBuilder();
-				sb.append("UserID: "); //$NON-NLS-1$
-				sb.append(user.getID());
-				sb.append(", IP: "); //$NON-NLS-1$
-				sb.append(user.getConnectSocketAddress().getAddress().getHostAddress());
-				sb.append(", Nick: <"); //$NON-NLS-1$
-				sb.append(user.getName());
-				sb.append(">, Access: "); //$NON-NLS-1$
-				sb.append(user.getAccessStr());
-				if(user.getGame() != null){
-					sb.append(", GameID: "); //$NON-NLS-1$
-					sb.append(user.getGame().getID());
-					sb.append(", Game: "); //$NON-NLS-1$
-					sb.append(user.getGame().getRomName());
-				}
-				
-				clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", sb.toString())); //$NON-NLS-1$
-				foundCount++;
+			StringBuilder sb = new StringBuilder();
+			sb.append("UserID: "); //$NON-NLS-1$
+			sb.append(user.getID());
+			sb.append(", IP: "); //$NON-NLS-1$
+			sb.append(user.getConnectSocketAddress().getAddress().getHostAddress());
+			sb.append(", Nick: <"); //$NON-NLS-1$
+			sb.append(user.getName());
+			sb.append(">, Access: "); //$NON-NLS-1$
+			sb.append(user.getAccessStr());
+			if(user.getGame() != null){
+				sb.append(", GameID: "); //$NON-NLS-1$
+				sb.append(user.getGame().getID());
+				sb.append(", Game: "); //$NON-NLS-1$
+				sb.append(user.getGame().getRomName());
+			}
+
+			V086Controller.V086ClientHandler userHandler = clientHandler.getController().getClientHandlers().get(user.getID());
+			if(userHandler != null){
+				sb.append(", Redundancy: "); //$NON-NLS-1$
+				sb.append(userHandler.getRedundancy());
 			}
+			
+			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", sb.toString())); //$NON-NLS-1$
+			foundCount++;
 		}
 
 		if (foundCount == 0)
@@ -343,7 +338,12 @@ public class AdminCommandAction implements V086Action
 
 		int foundCount = 0;
 		WildcardStringPattern pattern = new WildcardStringPattern(message.substring(space + 1));
-		for (KailleraGameImpl game : server.getGames())
+		// only games with a whole word from the pattern in their name could match, if the pattern has one
+		Collection<KailleraGameImpl> candidates = server.getLobbyIndex().getCandidateGames(message.substring(space + 1));
+		if (candidates == null)
+			candidates = server.getGames();
+
+		for (KailleraGameImpl game : candidates)
 		{
 			if (pattern.match(game.getRomName()))
 			{
@@ -813,62 +813,60 @@ public class AdminCommandAction implements V086Action
 	{
 		try
 		{
+			// paced by the send scheduler, so a multiplexed worker isn't held up sending it
+			SendScheduler.Sequence version = server.getSendScheduler().newSequence(admin);
 			ReleaseInfo releaseInfo = server.getReleaseInfo();
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "VERSION: " + releaseInfo.getProductName() + ": " + releaseInfo.getVersionString() + ": " + releaseInfo.getReleaseDate())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-			sleep(20);
+			version.add(20, new InfoMessageEvent(admin, "VERSION: " + releaseInfo.getProductName() + ": " + releaseInfo.getVersionString() + ": " + releaseInfo.getReleaseDate())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 			if(admin.getAccess() >= AccessManager.ACCESS_ADMIN){
 			Properties props = System.getProperties();
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "JAVAVER: " + props.getProperty("java.version"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			sleep(20);
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "JAVAVEND: " + props.getProperty("java.vendor"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			sleep(20);
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "OSNAME: " + props.getProperty("os.name"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			sleep(20);
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "OSARCH: " + props.getProperty("os.arch"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			sleep(20);
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "OSVER: " + props.getProperty("os.version"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			sleep(20);
+			version.add(20, new InfoMessageEvent(admin, "JAVAVER: " + props.getProperty("java.version"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			version.add(20, new InfoMessageEvent(admin, "JAVAVEND: " + props.getProperty("java.vendor"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			version.add(20, new InfoMessageEvent(admin, "OSNAME: " + props.getProperty("os.name"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			version.add(20, new InfoMessageEvent(admin, "OSARCH: " + props.getProperty("os.arch"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			version.add(20, new InfoMessageEvent(admin, "OSVER: " + props.getProperty("os.version"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
 			Runtime runtime = Runtime.getRuntime();
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "NUMPROCS: " + runtime.availableProcessors())); //$NON-NLS-1$ //$NON-NLS-2$
-			sleep(20);
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "FREEMEM: " + runtime.freeMemory())); //$NON-NLS-1$ //$NON-NLS-2$
-			sleep(20);
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "MAXMEM: " + runtime.maxMemory())); //$NON-NLS-1$ //$NON-NLS-2$
-			sleep(20);
-			clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "TOTMEM: " + runtime.totalMemory())); //$NON-NLS-1$ //$NON-NLS-2$
-			sleep(20);
+			version.add(20, new InfoMessageEvent(admin, "NUMPROCS: " + runtime.availableProcessors())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "FREEMEM: " + runtime.freeMemory())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "MAXMEM: " + runtime.maxMemory())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "TOTMEM: " + runtime.totalMemory())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "BUFPOOL: " + ByteBufferPool.getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "FRAMEPOOL: " + FramePool.getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			if(server.getTickEngine() != null){
+				version.add(20, new InfoMessageEvent(admin, "TICK: " + server.getTickEngine().getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if(server.getMailboxExecutor() != null){
+				version.add(20, new InfoMessageEvent(admin, "MAILBOX: " + server.getMailboxExecutor().getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			version.add(20, new InfoMessageEvent(admin, "LANES: " + server.getMailboxStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "TOPICS: " + server.getEventBus().getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "SENDQ: " + server.getSendScheduler().getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "LOBBY: " + server.getLobbySnapshot().getStats() + " encodes=" + ACKAction.getInstance().getStatusEncodeCount())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "USERFEED: " + server.getAdminUserFeed().getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			version.add(20, new InfoMessageEvent(admin, "INDEX: " + server.getLobbyIndex().getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			if (server.getAccessManager() instanceof AccessManager2)
+			{
+				version.add(20, new InfoMessageEvent(admin, "ACCESS: " + ((AccessManager2) server.getAccessManager()).getStats())); //$NON-NLS-1$ //$NON-NLS-2$
+			}
 			
 			Map<String, String> env = System.getenv();
 			
 			if(EmuUtil.systemIsWindows())
 			{
-				clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "COMPNAME: " + env.get("COMPUTERNAME"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-				sleep(20);
-				clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "USER: " + env.get("USERNAME"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-				sleep(20);
+				version.add(20, new InfoMessageEvent(admin, "COMPNAME: " + env.get("COMPUTERNAME"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				version.add(20, new InfoMessageEvent(admin, "USER: " + env.get("USERNAME"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			}
 			else
 			{
-				clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "COMPNAME: " + env.get("HOSTNAME"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-				sleep(20);
-				clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "USER: " + env.get("USERNAME"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-				sleep(20);
+				version.add(20, new InfoMessageEvent(admin, "COMPNAME: " + env.get("HOSTNAME"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				version.add(20, new InfoMessageEvent(admin, "USER: " + env.get("USERNAME"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			}
 			}
+			version.start();
 		}
 		catch (NoSuchElementException e)
 		{
 			throw new ActionException(EmuLang.getString("AdminCommandAction.VersionError")); //$NON-NLS-1$
 		}
 	}
-	
-	private void sleep(int ms)
-	{
-		try
-		{
-			Thread.sleep(ms);
-		}
-		catch(Exception e) {}
-	}
 }
@@ -13,6 +13,7 @@ import org.emulinker.kaillera.model.event.*;
 import org.emulinker.kaillera.model.exception.ActionException;
 import org.emulinker.kaillera.model.exception.FloodException;
 import org.emulinker.kaillera.model.impl.KailleraUserImpl;
+import org.emulinker.kaillera.model.impl.SendScheduler;
 import org.emulinker.release.ReleaseInfo;
 import org.emulinker.util.EmuLang;
 import org.emulinker.util.WildcardStringPattern;
@@ -64,11 +65,9 @@ public class ChatAction implements V086Action, V086ServerEventHandler
 			if(clientHandler.getUser().getAccess() > AccessManager.ACCESS_ELEVATED){
 				try
 				{
-					if(AdminCommandAction.getInstance().isValidCommand(((Chat) message).getMessage())){
+					// an admin's /help ends with the commands everyone can use
+					if(AdminCommandAction.getInstance().isValidCommand(((Chat) message).getMessage()))
 						AdminCommandAction.getInstance().performAction(message, clientHandler);
-						if(((Chat) message).getMessage().equals("/help"))
-							checkCommands(message, clientHandler);
-					}
 					else
 						checkCommands(message, clientHandler);
 				}
@@ -403,28 +402,11 @@ public class ChatAction implements V086Action, V086ServerEventHandler
 					}
 		
 				}
-				else if(((Chat) message).getMessage().equals("/help")){	
-					try {clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/me <message> to make personal message eg. /me is bored ...SupraFast is bored.")); } catch(Exception e) {}
-					try { Thread.sleep(20); } catch(Exception e) {}
-					try {clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/ignore <UserID> or /unignore <UserID> or /ignoreall or /unignoreall to ignore users.")); } catch(Exception e) {}
-					try { Thread.sleep(20); } catch(Exception e) {}
-					try {clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/msg <UserID> <msg> to PM somebody. /msgoff or /msgon to turn pm off | on.")); } catch(Exception e) {}
-					try { Thread.sleep(20); } catch(Exception e) {}
-					try {clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/myip to get your IP Address.")); } catch(Exception e) {}
-					try { Thread.sleep(20); } catch(Exception e) {}		
-					if(clientHandler.getUser().getAccess() == AccessManager.ACCESS_MODERATOR){
-						try {clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/silence <UserID> <min> to silence a user. 15min max.")); } catch(Exception e) {}
-						try { Thread.sleep(20); } catch(Exception e) {}
-						try {clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/kick <UserID> to kick a user.")); } catch(Exception e) {}
-						try { Thread.sleep(20); } catch(Exception e) {}	
-					}
-					if(clientHandler.getUser().getAccess() < AccessManager.ACCESS_ADMIN){
-						try {clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/version to get server version.")); } catch(Exception e) {}
-						try { Thread.sleep(20); } catch(Exception e) {}	
-						try {clientHandler.send(new InformationMessage(clientHandler.getNextMessageNumber(), "server", "/finduser <Nick> to get a user's info. eg. /finduser sup ...will return SupraFast info.")); } catch(Exception e) {}
-						try { Thread.sleep(20); } catch(Exception e) {}
-						return;
-					}
+				else if(((Chat) message).getMessage().equals("/help")){
+					// paced by the send scheduler, so a multiplexed worker isn't held up sending it
+					SendScheduler.Sequence help = userN.getServer().getSendScheduler().newSequence(userN);
+					addHelp(help, userN);
+					help.start();
 				}
 				else if(((Chat) message).getMessage().startsWith("/finduser") && clientHandler.getUser().getAccess() < AccessManager.ACCESS_ADMIN){
 					int space = ((Chat) message).getMessage().indexOf(' ');
@@ -480,6 +462,25 @@ public class ChatAction implements V086Action, V086ServerEventHandler
 
 	
 	
+	/**
+	 * Adds the commands everyone can use, and the ones for the user's access below admin, to a help sequence.
+	 */
+	static void addHelp(SendScheduler.Sequence help, KailleraUser user)
+	{
+		help.add(20, new InfoMessageEvent(user, "/me <message> to make personal message eg. /me is bored ...SupraFast is bored."));
+		help.add(20, new InfoMessageEvent(user, "/ignore <UserID> or /unignore <UserID> or /ignoreall or /unignoreall to ignore users."));
+		help.add(20, new InfoMessageEvent(user, "/msg <UserID> <msg> to PM somebody. /msgoff or /msgon to turn pm off | on."));
+		help.add(20, new InfoMessageEvent(user, "/myip to get your IP Address."));
+		if(user.getAccess() == AccessManager.ACCESS_MODERATOR){
+			help.add(20, new InfoMessageEvent(user, "/silence <UserID> <min> to silence a user. 15min max."));
+			help.add(20, new InfoMessageEvent(user, "/kick <UserID> to kick a user."));
+		}
+		if(user.getAccess() < AccessManager.ACCESS_ADMIN){
+			help.add(20, new InfoMessageEvent(user, "/version to get server version."));
+			help.add(20, new InfoMessageEvent(user, "/finduser <Nick> to get a user's info. eg. /finduser sup ...will return SupraFast info."));
+		}
+	}
+
 	public void handleEvent(ServerEvent event, V086Controller.V086ClientHandler clientHandler)
 	{
 		handledCount++;
@@ -495,10 +496,15 @@ public class ChatAction implements V086Action, V086ServerEventHandler
 					return;
 			}
 			
-			String m = chatEvent.getMessage();
-		
-		
-			clientHandler.send(new Chat_Notification(clientHandler.getNextMessageNumber(), chatEvent.getUser().getName(), m));
+			PreEncodedMessage encoded = (PreEncodedMessage) chatEvent.getEncoded();
+			if (encoded == null)
+			{
+				String m = chatEvent.getMessage();
+				encoded = new PreEncodedMessage(new Chat_Notification(0, chatEvent.getUser().getName(), m));
+				chatEvent.setEncoded(encoded);
+			}
+
+			clientHandler.send(new PreEncodedMessage(clientHandler.getNextMessageNumber(), encoded));
 		}
 		catch (MessageFormatException e)
 		{
@@ -95,9 +95,16 @@ public class CreateGameAction implements V086Action, V086ServerEventHandler
 
 		try
 		{
-			KailleraGame game = gameCreatedEvent.getGame();
-			KailleraUser owner = game.getOwner();		
-			clientHandler.send(new CreateGame_Notification(clientHandler.getNextMessageNumber(), owner.getName(), game.getRomName(), owner.getClientType(), game.getID(), (short) 0));
+			PreEncodedMessage encoded = (PreEncodedMessage) gameCreatedEvent.getEncoded();
+			if (encoded == null)
+			{
+				KailleraGame game = gameCreatedEvent.getGame();
+				KailleraUser owner = game.getOwner();
+				encoded = new PreEncodedMessage(new CreateGame_Notification(0, owner.getName(), game.getRomName(), owner.getClientType(), game.getID(), (short) 0));
+				gameCreatedEvent.setEncoded(encoded);
+			}
+
+			clientHandler.send(new PreEncodedMessage(clientHandler.getNextMessageNumber(), encoded));
 		}
 		catch (MessageFormatException e)
 		{
@@ -11,7 +11,9 @@ import org.emulinker.kaillera.controller.v086.protocol.*;
 import org.emulinker.kaillera.model.event.*;
 import org.emulinker.kaillera.model.exception.ActionException;
 import org.emulinker.kaillera.model.exception.GameChatException;
+import org.emulinker.kaillera.model.impl.KailleraGameImpl;
 import org.emulinker.kaillera.model.impl.KailleraUserImpl;
+import org.emulinker.kaillera.model.impl.SendScheduler;
 
 public class GameChatAction implements V086Action, V086GameEventHandler
 {
@@ -67,11 +69,9 @@ public class GameChatAction implements V086Action, V086GameEventHandler
 			//if(clientHandler.getUser().getAccess() >= AccessManager.ACCESS_ADMIN || clientHandler.getUser().equals(clientHandler.getUser().getGame().getOwner())){
 				try
 				{
-					if(GameOwnerCommandAction.getInstance().isValidCommand(((GameChat) message).getMessage())){
+					// an owner's /help ends with the commands every player can use
+					if(GameOwnerCommandAction.getInstance().isValidCommand(((GameChat) message).getMessage()))
 						GameOwnerCommandAction.getInstance().performAction(message, clientHandler);
-						if(((GameChat) message).getMessage().equals("/help"))
-							checkCommands(message, clientHandler);
-					}
 					else
 						checkCommands(message, clientHandler);
 					return;
@@ -463,16 +463,12 @@ public class GameChatAction implements V086Action, V086GameEventHandler
 						return;
 					}
 				}
-				else if(((GameChat) message).getMessage().equals("/help")){	
+				else if(((GameChat) message).getMessage().equals("/help")){
+					// paced by the send scheduler, so a multiplexed worker isn't held up sending it
 					KailleraUserImpl user = (KailleraUserImpl) clientHandler.getUser();
-					user.getGame().announce("/me <message> to make personal message eg. /me is bored ...SupraFast is bored.", user);
-					try { Thread.sleep(20); } catch(Exception e) {}			
-					user.getGame().announce("/msg <UserID> <msg> to PM somebody. /msgoff or /msgon to turn pm off | on.", user);
-					try { Thread.sleep(20); } catch(Exception e) {}
-					user.getGame().announce("/ignore <UserID> or /unignore <UserID> or /ignoreall or /unignoreall to ignore users.", user);
-					try { Thread.sleep(20); } catch(Exception e) {}
-					user.getGame().announce("/p2pon or /p2poff this option ignores all server activity during gameplay.", user);
-					try { Thread.sleep(20); } catch(Exception e) {}
+					SendScheduler.Sequence help = user.getServer().getSendScheduler().newSequence(user);
+					addHelp(help, user.getGame(), user);
+					help.start();
 					return;
 				}
 				else
@@ -483,6 +479,17 @@ public class GameChatAction implements V086Action, V086GameEventHandler
 			}
 	}
 	
+	/**
+	 * Adds the commands every player can use to a help sequence.
+	 */
+	static void addHelp(SendScheduler.Sequence help, KailleraGameImpl game, KailleraUserImpl user)
+	{
+		help.add(20, new GameInfoEvent(game, "/me <message> to make personal message eg. /me is bored ...SupraFast is bored.", user));
+		help.add(20, new GameInfoEvent(game, "/msg <UserID> <msg> to PM somebody. /msgoff or /msgon to turn pm off | on.", user));
+		help.add(20, new GameInfoEvent(game, "/ignore <UserID> or /unignore <UserID> or /ignoreall or /unignoreall to ignore users.", user));
+		help.add(20, new GameInfoEvent(game, "/p2pon or /p2poff this option ignores all server activity during gameplay.", user));
+	}
+
 	public void handleEvent(GameEvent event, V086Controller.V086ClientHandler clientHandler)
 	{
 		handledCount++;
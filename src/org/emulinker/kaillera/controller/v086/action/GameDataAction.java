@@ -7,7 +7,7 @@ import org.emulinker.kaillera.controller.v086.protocol.*;
 import org.emulinker.kaillera.model.KailleraUser;
 import org.emulinker.kaillera.model.event.*;
 import org.emulinker.kaillera.model.exception.GameDataException;
-import org.emulinker.util.EmuUtil;
+import org.emulinker.util.*;
 
 public class GameDataAction implements V086Action, V086GameEventHandler
 {
@@ -47,12 +47,17 @@ public class GameDataAction implements V086Action, V086GameEventHandler
 
 	public void performAction(V086Message message, V086Controller.V086ClientHandler clientHandler) throws FatalActionException
 	{
+		// the data is in a pooled frame that goes back once the cache has its own reference and the game has copied it
+		FramePool.Frame frame = ((GameData) message).takeFrame();
 		try
 		{
 			KailleraUser user = clientHandler.getUser();
 			byte[] data = ((GameData) message).getGameData();
 			
-			clientHandler.getClientGameDataCache().add(data);
+			if (frame != null)
+				clientHandler.getClientGameDataCache().add(frame);
+			else
+				clientHandler.getClientGameDataCache().add(data);
 			user.addGameData(data);			
 		}
 		catch (GameDataException e)
@@ -71,37 +76,49 @@ public class GameDataAction implements V086Action, V086GameEventHandler
 				}
 			}
 		}
+		finally
+		{
+			if (frame != null)
+				frame.release();
+		}
 	}
 
 	public void handleEvent(GameEvent event, V086Controller.V086ClientHandler clientHandler)
 	{
-		byte[] data = ((GameDataEvent) event).getData();
-		int key = clientHandler.getServerGameDataCache().indexOf(data);
+		GameDataEvent gameDataEvent = (GameDataEvent) event;
+		byte[] data = gameDataEvent.getData();
 		
-		if (key < 0)
+		try
 		{
-			clientHandler.getServerGameDataCache().add(data);
-			
+			GameDataCache serverCache = clientHandler.getServerGameDataCache();
+			int key = serverCache.indexOf(data);
 			
-			try
+			if (key < 0)
 			{
-				clientHandler.send(new GameData(clientHandler.getNextMessageNumber(), data));
+				// the frame goes back to the pool once every player is done with it, so the cache takes its own reference
+				if (gameDataEvent.isPooled())
+					serverCache.add(gameDataEvent.getFrame());
+				else
+					serverCache.add(data);
+				
+				try
+				{
+					clientHandler.sendGameData(data);
+				}
+				catch (MessageFormatException e)
+				{
+					log.error("Failed to contruct GameData message: " + e.getMessage(), e);
+				}
 			}
-			catch (MessageFormatException e)
+			else
 			{
-				log.error("Failed to contruct GameData message: " + e.getMessage(), e);
+				clientHandler.sendCachedGameData(key);
 			}
 		}
-		else
+		finally
 		{
-			try
-			{
-				clientHandler.send(new CachedGameData(clientHandler.getNextMessageNumber(), key));
-			}
-			catch (MessageFormatException e)
-			{
-				log.error("Failed to contruct CachedGameData message: " + e.getMessage(), e);
-			}
+			// send() has already encoded the frame into the outbound buffer
+			gameDataEvent.release();
 		}
 	}
 }
@@ -7,6 +7,7 @@ import org.emulinker.kaillera.access.AccessManager;
 import org.emulinker.kaillera.controller.messaging.MessageFormatException;
 import org.emulinker.kaillera.controller.v086.V086Controller;
 import org.emulinker.kaillera.controller.v086.protocol.*;
+import org.emulinker.kaillera.model.event.GameInfoEvent;
 import org.emulinker.kaillera.model.event.GameStartedEvent;
 import org.emulinker.kaillera.model.event.PlayerDesynchEvent;
 import org.emulinker.kaillera.model.exception.ActionException;
@@ -234,43 +235,37 @@ public class GameOwnerCommandAction implements V086Action
 
 	private void processHelp(String message, KailleraGameImpl game, KailleraUserImpl admin, V086Controller.V086ClientHandler clientHandler) throws ActionException, MessageFormatException
 	{
-		if(!admin.equals(game.getOwner()) && admin.getAccess() < AccessManager.ACCESS_SUPERADMIN)
-			return;
-		//game.setIndividualGameAnnounce(admin.getPlayerNumber());
-		//game.announce(EmuLang.getString("GameOwnerCommandAction.AvailableCommands")); //$NON-NLS-1$
-		//try { Thread.sleep(20); } catch(Exception e) {}
-		game.announce(EmuLang.getString("GameOwnerCommandAction.SetAutofireDetection"), admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		game.announce("/maxusers <#> to set capacity of room", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		game.announce("/maxping <#> to set maximum ping for room", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		game.announce("/start or /startn <#> start game when n players are joined.", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		game.announce("/mute /unmute  <UserID> or /muteall or /unmuteall to mute player(s).", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		game.announce("/swap <order> eg. 123..n {n = total # of players; Each slot = new player#}", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}	
-		game.announce("/kick <Player#> or /kickall to kick a player(s).", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}	
-		game.announce("/setemu To restrict the gameroom to this emulator!", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}	
-		game.announce("/setconn To restrict the gameroom to this connection type!", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {} 
-		game.announce("/lagstat To check who has the most lag spikes or /lagreset to reset lagstat!", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}	
-		game.announce("/samedelay {true | false} to play at the same delay as player with highest ping. Default is false.", admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}	
+		// paced by the send scheduler, so a multiplexed worker isn't held up sending it
+		SendScheduler.Sequence help = admin.getServer().getSendScheduler().newSequence(admin);
+		if(admin.equals(game.getOwner()) || admin.getAccess() >= AccessManager.ACCESS_SUPERADMIN){
+			//game.setIndividualGameAnnounce(admin.getPlayerNumber());
+			//game.announce(EmuLang.getString("GameOwnerCommandAction.AvailableCommands")); //$NON-NLS-1$
+			//try { Thread.sleep(20); } catch(Exception e) {}
+			help.add(20, new GameInfoEvent(game, EmuLang.getString("GameOwnerCommandAction.SetAutofireDetection"), admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/maxusers <#> to set capacity of room", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/maxping <#> to set maximum ping for room", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/start or /startn <#> start game when n players are joined.", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/mute /unmute  <UserID> or /muteall or /unmuteall to mute player(s).", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/swap <order> eg. 123..n {n = total # of players; Each slot = new player#}", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/kick <Player#> or /kickall to kick a player(s).", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/setemu To restrict the gameroom to this emulator!", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/setconn To restrict the gameroom to this connection type!", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/lagstat To check who has the most lag spikes or /lagreset to reset lagstat!", admin)); //$NON-NLS-1$
+			help.add(20, new GameInfoEvent(game, "/samedelay {true | false} to play at the same delay as player with highest ping. Default is false.", admin)); //$NON-NLS-1$
+		}
+
+		GameChatAction.addHelp(help, game, admin);
+		help.start();
 	}
 	
 	private void autoFireHelp(KailleraGameImpl game, KailleraUserImpl admin)
 	{
 		int cur = game.getAutoFireDetector().getSensitivity();
-		game.announce(EmuLang.getString("GameOwnerCommandAction.HelpSensitivity"), admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		game.announce(EmuLang.getString("GameOwnerCommandAction.HelpDisable"), admin); //$NON-NLS-1$
-		try { Thread.sleep(20); } catch(Exception e) {}
-		game.announce(EmuLang.getString("GameOwnerCommandAction.HelpCurrentSensitivity", cur) + (cur == 0 ? (EmuLang.getString("GameOwnerCommandAction.HelpDisabled")) : ""), admin); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		SendScheduler.Sequence help = admin.getServer().getSendScheduler().newSequence(admin);
+		help.add(20, new GameInfoEvent(game, EmuLang.getString("GameOwnerCommandAction.HelpSensitivity"), admin)); //$NON-NLS-1$
+		help.add(20, new GameInfoEvent(game, EmuLang.getString("GameOwnerCommandAction.HelpDisable"), admin)); //$NON-NLS-1$
+		help.add(20, new GameInfoEvent(game, EmuLang.getString("GameOwnerCommandAction.HelpCurrentSensitivity", cur) + (cur == 0 ? (EmuLang.getString("GameOwnerCommandAction.HelpDisabled")) : ""), admin)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		help.start();
 	}
 
 	private void processDetectAutoFire(String message, KailleraGameImpl game, KailleraUserImpl admin, V086Controller.V086ClientHandler clientHandler) throws ActionException, MessageFormatException
@@ -354,6 +349,17 @@ public class GameOwnerCommandAction implements V086Action
 				str = str.substring(0, str.length() - ", ".length());
 				game.announce(str + " lag spikes", null);		
 			}
+
+			str = "";
+			for (KailleraUser player : game.getPlayers()){
+				V086Controller.V086ClientHandler playerHandler = clientHandler.getController().getClientHandlers().get(player.getID());
+				if(!player.getStealth() && playerHandler != null)
+					str = str + "P" + player.getPlayerNumber() + ": " + playerHandler.getRedundancy() + ", ";
+			}
+			if(str.length() > 0){
+				str = str.substring(0, str.length() - ", ".length());
+				game.announce("Redundancy: " + str, null);
+			}
 		}
 		else if(message.equals("/lagreset")){
 			for (KailleraUser player : game.getPlayers()){
@@ -4,6 +4,7 @@ import org.apache.commons.logging.*;
 import org.emulinker.kaillera.controller.messaging.MessageFormatException;
 import org.emulinker.kaillera.controller.v086.V086Controller;
 import org.emulinker.kaillera.controller.v086.protocol.GameStatus;
+import org.emulinker.kaillera.controller.v086.protocol.PreEncodedMessage;
 import org.emulinker.kaillera.model.KailleraGame;
 import org.emulinker.kaillera.model.KailleraUser;
 import org.emulinker.kaillera.model.event.*;
@@ -44,13 +45,20 @@ public class GameStatusAction implements V086ServerEventHandler
 
 		try
 		{
-			KailleraGame game = statusChangeEvent.getGame();
-			int num = 0;
-			for(KailleraUser user : game.getPlayers()){
-				if(!user.getStealth())
-					num++;
+			PreEncodedMessage encoded = (PreEncodedMessage) statusChangeEvent.getEncoded();
+			if (encoded == null)
+			{
+				KailleraGame game = statusChangeEvent.getGame();
+				int num = 0;
+				for(KailleraUser user : game.getPlayers()){
+					if(!user.getStealth())
+						num++;
+				}
+				encoded = new PreEncodedMessage(new GameStatus(0, game.getID(), (short) 0, (byte) game.getStatus(), (byte) num, (byte) game.getMaxUsers()));
+				statusChangeEvent.setEncoded(encoded);
 			}
-			clientHandler.send(new GameStatus(clientHandler.getNextMessageNumber(), game.getID(), (short) 0, (byte) game.getStatus(), (byte) num, (byte) game.getMaxUsers()));
+
+			clientHandler.send(new PreEncodedMessage(clientHandler.getNextMessageNumber(), encoded));
 		}
 		catch (MessageFormatException e)
 		{
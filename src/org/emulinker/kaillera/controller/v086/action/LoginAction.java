@@ -22,7 +22,7 @@ public class LoginAction implements V086Action, V086ServerEventHandler
 
 	private int	actionCount		= 0;
 	private int	handledCount	= 0;
-	
+
 	private LoginAction()
 	{
 
@@ -75,10 +75,19 @@ public class LoginAction implements V086Action, V086ServerEventHandler
 		try
 		{
 			KailleraUserImpl user = (KailleraUserImpl) userJoinedEvent.getUser();
-			clientHandler.send(new UserJoined(clientHandler.getNextMessageNumber(), user.getName(), user.getID(), user.getPing(), (byte) user.getConnectionType()));
+
+			PreEncodedMessage encoded = (PreEncodedMessage) userJoinedEvent.getEncoded();
+			if (encoded == null)
+			{
+				encoded = new PreEncodedMessage(new UserJoined(0, user.getName(), user.getID(), user.getPing(), (byte) user.getConnectionType()));
+				userJoinedEvent.setEncoded(encoded);
+			}
+
+			clientHandler.send(new PreEncodedMessage(clientHandler.getNextMessageNumber(), encoded));
 			
+			// admin clients that take deltas get joins from the AdminUserFeed
 			KailleraUserImpl thisUser = (KailleraUserImpl) clientHandler.getUser();
-			if(thisUser.isEmuLinkerClient() && thisUser.getAccess() >= AccessManager.ACCESS_SUPERADMIN)
+			if(thisUser.isEmuLinkerClient() && thisUser.getAccess() >= AccessManager.ACCESS_SUPERADMIN && !thisUser.getServer().getAdminUserFeed().isSendingDeltas())
 			{		
 				if(!user.equals(thisUser)){
 					StringBuilder sb = new StringBuilder();
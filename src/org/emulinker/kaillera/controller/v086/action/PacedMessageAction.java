@@ -0,0 +1,49 @@
+package org.emulinker.kaillera.controller.v086.action;
+
+import org.apache.commons.logging.*;
+import org.emulinker.kaillera.controller.messaging.MessageFormatException;
+import org.emulinker.kaillera.controller.v086.V086Controller;
+import org.emulinker.kaillera.model.event.*;
+
+public class PacedMessageAction implements V086UserEventHandler
+{
+	private static Log					log			= LogFactory.getLog(PacedMessageAction.class);
+	private static final String			desc		= "PacedMessageAction";
+	private static PacedMessageAction	singleton	= new PacedMessageAction();
+
+	public static PacedMessageAction getInstance()
+	{
+		return singleton;
+	}
+
+	private int	handledCount	= 0;
+
+	private PacedMessageAction()
+	{
+
+	}
+
+	public int getHandledEventCount()
+	{
+		return handledCount;
+	}
+
+	public String toString()
+	{
+		return desc;
+	}
+
+	public void handleEvent(UserEvent event, V086Controller.V086ClientHandler clientHandler)
+	{
+		handledCount++;
+
+		try
+		{
+			clientHandler.sendPaced();
+		}
+		catch (MessageFormatException e)
+		{
+			log.error("Failed to contruct PreEncodedMessage message: " + e.getMessage(), e);
+		}
+	}
+}
@@ -70,8 +70,15 @@ public class QuitAction implements V086Action, V086ServerEventHandler
 
 		try
 		{
-			KailleraUser user = userQuitEvent.getUser();
-			clientHandler.send(new Quit_Notification(clientHandler.getNextMessageNumber(), user.getName(), user.getID(), userQuitEvent.getMessage()));
+			PreEncodedMessage encoded = (PreEncodedMessage) userQuitEvent.getEncoded();
+			if (encoded == null)
+			{
+				KailleraUser user = userQuitEvent.getUser();
+				encoded = new PreEncodedMessage(new Quit_Notification(0, user.getName(), user.getID(), userQuitEvent.getMessage()));
+				userQuitEvent.setEncoded(encoded);
+			}
+
+			clientHandler.send(new PreEncodedMessage(clientHandler.getNextMessageNumber(), encoded));
 		}
 		catch (MessageFormatException e)
 		{
@@ -65,15 +65,6 @@ public class QuitGameAction implements V086Action, V086GameEventHandler
 		{
 			log.debug("Failed to close game: " + e.getMessage());
 		}
-
-		try
-		{
-			Thread.sleep(100);
-		}
-		catch (InterruptedException e)
-		{
-			log.error("Sleep Interrupted!", e);
-		}
 	}
 
 	public void handleEvent(GameEvent event, V086Controller.V086ClientHandler clientHandler)
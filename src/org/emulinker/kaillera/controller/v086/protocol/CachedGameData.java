@@ -12,12 +12,37 @@ public class CachedGameData extends V086Message
 
 	private int					key;
 
+	/**
+	 * Creates an instance to refill instead of allocating a new message for every frame, either by V086Bundle while
+	 * parsing or by a sender with reset().
+	 */
+	public static CachedGameData createFlyweight()
+	{
+		try
+		{
+			return new CachedGameData(0, 0);
+		}
+		catch (MessageFormatException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
 	public CachedGameData(int messageNumber, int key) throws MessageFormatException
 	{
 		super(messageNumber);
 		this.key = key;
 	}
 
+	/**
+	 * Refills a flyweight from createFlyweight() to be sent.  Only safe once the previous contents have been encoded.
+	 */
+	public void reset(int messageNumber, int key)
+	{
+		this.number = messageNumber;
+		this.key = key;
+	}
+
 	public byte getID()
 	{
 		return ID;
@@ -50,6 +75,11 @@ public class CachedGameData extends V086Message
 	}
 
 	public static CachedGameData parse(int messageNumber, ByteBuffer buffer) throws ParseException, MessageFormatException
+	{
+		return parse(messageNumber, buffer, null);
+	}
+
+	static CachedGameData parse(int messageNumber, ByteBuffer buffer, CachedGameData flyweight) throws ParseException, MessageFormatException
 	{
 		if (buffer.remaining() < 2)
 			throw new ParseException("Failed byte count validation!");
@@ -59,6 +89,11 @@ public class CachedGameData extends V086Message
 		//		if (b != 0x00)
 		//			throw new MessageFormatException("Invalid " + DESC + " format: byte 0 = " + EmuUtil.byteToHex(b));
 
-		return new CachedGameData(messageNumber, UnsignedUtil.getUnsignedByte(buffer));
+		if (flyweight == null)
+			return new CachedGameData(messageNumber, UnsignedUtil.getUnsignedByte(buffer));
+
+		flyweight.number = messageNumber;
+		flyweight.key = UnsignedUtil.getUnsignedByte(buffer);
+		return flyweight;
 	}
 }
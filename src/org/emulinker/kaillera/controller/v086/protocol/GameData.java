@@ -11,6 +11,8 @@ public class GameData extends V086Message
 	public static final String	DESC	= "Game Data";
 
 	private byte[]				gameData;
+	// only set on flyweights refilled by parse
+	private FramePool.Frame		frame;
 
 	public static void main(String args[]) throws Exception
 	{
@@ -26,6 +28,27 @@ public class GameData extends V086Message
 		System.out.println("et=" + (System.currentTimeMillis() - st));
 	}
 
+	private GameData() throws MessageFormatException
+	{
+		super(0);
+	}
+
+	/**
+	 * Creates an instance to refill instead of allocating a new message for every frame, either by V086Bundle while
+	 * parsing or by a sender with reset().
+	 */
+	public static GameData createFlyweight()
+	{
+		try
+		{
+			return new GameData();
+		}
+		catch (MessageFormatException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
 	public GameData(int messageNumber, byte[] gameData) throws MessageFormatException
 	{
 		super(messageNumber);
@@ -36,6 +59,19 @@ public class GameData extends V086Message
 		this.gameData = gameData;
 	}
 
+	/**
+	 * Refills a flyweight from createFlyweight() to be sent.  Only safe once the previous contents have been encoded.
+	 */
+	public void reset(int messageNumber, byte[] gameData) throws MessageFormatException
+	{
+		if (gameData.length <= 0 || gameData.length > 0xFFFF)
+			throw new MessageFormatException("Invalid " + getDescription() + " format: gameData.remaining() = " + gameData.length);
+
+		this.number = messageNumber;
+		this.gameData = gameData;
+		this.frame = null;
+	}
+
 	public byte getID()
 	{
 		return ID;
@@ -51,6 +87,29 @@ public class GameData extends V086Message
 		return gameData;
 	}
 
+	/**
+	 * @return	The pooled frame holding the data of a message parsed into a flyweight, or null.  The caller gets the one
+	 * 			reference to it and must release it; the message no longer has it.
+	 */
+	public FramePool.Frame takeFrame()
+	{
+		FramePool.Frame taken = frame;
+		frame = null;
+		return taken;
+	}
+
+	/**
+	 * Releases the frame if nothing has taken it.
+	 */
+	void releaseFrame()
+	{
+		if (frame != null)
+		{
+			frame.release();
+			frame = null;
+		}
+	}
+
 	public String toString()
 	{
 		StringBuilder sb = new StringBuilder();
@@ -74,6 +133,11 @@ public class GameData extends V086Message
 	}
 
 	public static GameData parse(int messageNumber, ByteBuffer buffer) throws ParseException, MessageFormatException
+	{
+		return parse(messageNumber, buffer, null);
+	}
+
+	static GameData parse(int messageNumber, ByteBuffer buffer, GameData flyweight) throws ParseException, MessageFormatException
 	{
 		if (buffer.remaining() < 4)
 			throw new ParseException("Failed byte count validation!");
@@ -87,9 +151,23 @@ public class GameData extends V086Message
 		if (dataSize <= 0 || dataSize > buffer.remaining())
 			throw new MessageFormatException("Invalid " + DESC + " format: dataSize = " + dataSize);
 
-		byte[] gameData = new byte[dataSize];
-		buffer.get(gameData);
+		// the data has to be copied out since the client cache hangs on to it
+		if (flyweight == null)
+		{
+			byte[] gameData = new byte[dataSize];
+			buffer.get(gameData);
+			return new GameData(messageNumber, gameData);
+		}
+
+		// a flyweight copies into a pooled frame instead, which the cache can take a reference to; one left over from a
+		// message that was never handled goes back first
+		flyweight.releaseFrame();
+		FramePool.Frame frame = FramePool.acquire(dataSize);
+		buffer.get(frame.getData());
 
-		return new GameData(messageNumber, gameData);
+		flyweight.number = messageNumber;
+		flyweight.gameData = frame.getData();
+		flyweight.frame = frame;
+		return flyweight;
 	}
 }
@@ -0,0 +1,75 @@
+package org.emulinker.kaillera.controller.v086.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.emulinker.kaillera.controller.messaging.*;
+
+/**
+ * Wraps a message whose body has already been encoded into a shared read-only buffer.  Messages broadcast to every
+ * user are identical apart from the message number, so the body only needs to be encoded once; each client then gets
+ * its own PreEncodedMessage carrying its own message number and the shared body.
+ */
+public class PreEncodedMessage extends V086Message
+{
+	private V086Message	template;
+	private ByteBuffer	body;
+
+	/**
+	 * Encodes the body of template.  The number of the template is ignored.
+	 */
+	public PreEncodedMessage(V086Message template) throws MessageFormatException
+	{
+		super(template.getNumber());
+
+		ByteBuffer buffer = ByteBuffer.allocate(template.getBodyLength());
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		template.writeBodyTo(buffer);
+		buffer.flip();
+
+		this.template = template;
+		this.body = buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Creates a copy of encoded with a new message number, sharing the encoded body.
+	 */
+	public PreEncodedMessage(int messageNumber, PreEncodedMessage encoded) throws MessageFormatException
+	{
+		super(messageNumber);
+
+		this.template = encoded.template;
+		this.body = encoded.body;
+	}
+
+	public V086Message getTemplate()
+	{
+		return template;
+	}
+
+	public byte getID()
+	{
+		return template.getID();
+	}
+
+	public String getDescription()
+	{
+		return template.getDescription();
+	}
+
+	public int getBodyLength()
+	{
+		return body.remaining();
+	}
+
+	public void writeBodyTo(ByteBuffer buffer)
+	{
+		// duplicate so concurrent writers don't share a position
+		buffer.put(body.duplicate());
+	}
+
+	public String toString()
+	{
+		return getInfoString() + "[encoded " + template + "]";
+	}
+}
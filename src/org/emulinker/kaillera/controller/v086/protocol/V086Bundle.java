@@ -8,13 +8,23 @@ import org.emulinker.util.*;
 
 public class V086Bundle extends ByteBufferMessage
 {
-	public static final String	DESC	= "Kaillera v.086 Message Bundle";
+	public static final String	DESC			= "Kaillera v.086 Message Bundle";
+	public static final int		MAX_MESSAGES	= 32;
 
 	//protected List<V086Message>	messages;
 	protected V086Message[]		messages;
 	protected int				numToWrite;
 	protected int				length	= -1;
 
+	// set instead of messages when the bundle is assembled from already encoded messages
+	protected byte[]			encoded;
+	protected int[]				offsets;
+	protected int[]				lengths;
+
+	// only set on bundles from createReusable()
+	private GameData[]			gameDataFlyweights;
+	private CachedGameData[]	cachedGameDataFlyweights;
+
 	public V086Bundle(V086Message[] messages)
 	{
 		this(messages, Integer.MAX_VALUE);
@@ -29,6 +39,60 @@ public class V086Bundle extends ByteBufferMessage
 		this.messages = messages;
 	}
 
+	/**
+	 * Creates a bundle from messages that have already been encoded, header and all, into encoded.  writeTo() just
+	 * copies the bytes, and getMessages() returns null.
+	 */
+	public V086Bundle(byte[] encoded, int[] offsets, int[] lengths, int numToWrite)
+	{
+		this.encoded = encoded;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.numToWrite = numToWrite;
+	}
+
+	/**
+	 * Changes how many of the already encoded messages are written, so a sender can keep one bundle over its offset
+	 * arrays instead of creating one for every datagram.
+	 */
+	public void setNumToWrite(int numToWrite)
+	{
+		this.numToWrite = numToWrite;
+		length = -1;
+	}
+
+	/**
+	 * Creates an empty bundle for parse(ByteBuffer, int, V086Bundle) to refill with every datagram received from one
+	 * client.  GameData and CachedGameData messages parsed into it are flyweights owned by the bundle, so they, the
+	 * bundle and its message array are only valid until the next parse.
+	 */
+	public static V086Bundle createReusable()
+	{
+		V086Bundle bundle = new V086Bundle(new V086Message[MAX_MESSAGES], 0);
+		bundle.gameDataFlyweights = new GameData[MAX_MESSAGES];
+		bundle.cachedGameDataFlyweights = new CachedGameData[MAX_MESSAGES];
+		for (int i = 0; i < MAX_MESSAGES; i++)
+		{
+			bundle.gameDataFlyweights[i] = GameData.createFlyweight();
+			bundle.cachedGameDataFlyweights[i] = CachedGameData.createFlyweight();
+		}
+		return bundle;
+	}
+
+	/**
+	 * Releases the frames of GameData parsed into this bundle that no action took, so a bundle that wasn't parsed or
+	 * handled all the way through doesn't keep them from the pool.
+	 */
+	public void releaseFrames()
+	{
+		if (gameDataFlyweights == null)
+			return;
+
+		// a parse that failed partway hasn't set numToWrite
+		for (GameData flyweight : gameDataFlyweights)
+			flyweight.releaseFrame();
+	}
+
 	public String getDescription()
 	{
 		return DESC;
@@ -46,7 +110,13 @@ public class V086Bundle extends ByteBufferMessage
 
 	public int getLength()
 	{
-		if (length == -1)
+		if (length == -1 && encoded != null)
+		{
+			length = 1;
+			for (int i = 0; i < numToWrite; i++)
+				length += lengths[i];
+		}
+		else if (length == -1)
 		{
 			for (int i = 0; i < numToWrite; i++)
 			{
@@ -64,6 +134,9 @@ public class V086Bundle extends ByteBufferMessage
 		StringBuilder sb = new StringBuilder();
 		sb.append(DESC + " (" + numToWrite + " messages) (" + getLength() + " bytes)");
 		sb.append(EmuUtil.LB);
+		if (encoded != null)
+			return sb.toString();
+
 		for (int i = 0; i < numToWrite; i++)
 		{
 			if (messages[i] == null)
@@ -80,6 +153,13 @@ public class V086Bundle extends ByteBufferMessage
 		// no real need for unsigned
 		//UnsignedUtil.putUnsignedByte(buffer, numToWrite);
 		buffer.put((byte) numToWrite);
+		if (encoded != null)
+		{
+			for (int i = 0; i < numToWrite; i++)
+				buffer.put(encoded, offsets[i], lengths[i]);
+			return;
+		}
+
 		for (int i = 0; i < numToWrite; i++)
 		{
 			if (messages[i] == null)
@@ -95,6 +175,15 @@ public class V086Bundle extends ByteBufferMessage
 	}
 
 	public static V086Bundle parse(ByteBuffer buffer, int lastMessageID) throws ParseException, V086BundleFormatException, MessageFormatException
+	{
+		return parse(buffer, lastMessageID, null);
+	}
+
+	/**
+	 * Parses into reusable, which must come from createReusable(), instead of allocating a new bundle.  Lobby messages
+	 * are still parsed into new objects, but gameplay messages reuse the flyweights of the bundle.
+	 */
+	public static V086Bundle parse(ByteBuffer buffer, int lastMessageID, V086Bundle reusable) throws ParseException, V086BundleFormatException, MessageFormatException
 	{
 		buffer.order(ByteOrder.LITTLE_ENDIAN);
 		
@@ -105,7 +194,7 @@ public class V086Bundle extends ByteBufferMessage
 		//int messageCount = UnsignedUtil.getUnsignedByte(buffer);
 		int messageCount = buffer.get();
 
-		if (messageCount <= 0 || messageCount > 32) // what should the max be?
+		if (messageCount <= 0 || messageCount > MAX_MESSAGES) // what should the max be?
 			throw new V086BundleFormatException("Invalid message count: " + messageCount);
 
 		if (buffer.limit() < (1 + (messageCount * 6)))
@@ -118,18 +207,18 @@ public class V086Bundle extends ByteBufferMessage
 		int msgNum = buffer.getChar(1);//buffer.getShort(1); - mistake. max value of short is 0x7FFF but we need 0xFFFF
 		if((msgNum - 1) == lastMessageID || msgNum == 0 && lastMessageID == 0xFFFF){// exception for 0 and 0xFFFF
 			messageCount = 1;
-			messages = new V086Message[messageCount];
+			messages = (reusable != null ? reusable.messages : new V086Message[messageCount]);
 			int messageNumber = UnsignedUtil.getUnsignedShort(buffer);
 			
 			short messageLength = buffer.getShort();
 			if (messageLength < 2 || messageLength > buffer.remaining())// || messageLength > buffer.limit())
 				throw new ParseException("Invalid message length: " + messageLength);
 			
-			messages[parsedCount] = V086Message.parse(messageNumber, messageLength, buffer);			
+			messages[parsedCount] = parseMessage(messageNumber, messageLength, buffer, reusable, parsedCount);
 			parsedCount++;
 		}
 		else{
-			messages = new V086Message[messageCount];
+			messages = (reusable != null ? reusable.messages : new V086Message[messageCount]);
 			for(parsedCount = 0; parsedCount < messageCount; parsedCount++){
 				int messageNumber = UnsignedUtil.getUnsignedShort(buffer);
 				
@@ -151,10 +240,89 @@ public class V086Bundle extends ByteBufferMessage
 				if (messageLength < 2 || messageLength > buffer.remaining())// || messageLength > buffer.limit())
 					throw new ParseException("Invalid message length: " + messageLength);
 				
-				messages[parsedCount] = V086Message.parse(messageNumber, messageLength, buffer);
+				messages[parsedCount] = parseMessage(messageNumber, messageLength, buffer, reusable, parsedCount);
 			}
 		}
-		
+
+		if (reusable != null)
+		{
+			reusable.numToWrite = parsedCount;
+			reusable.length = -1;
+			return reusable;
+		}
+
 		return new V086Bundle(messages, parsedCount);
 	}
+
+	private static V086Message parseMessage(int messageNumber, int messageLength, ByteBuffer buffer, V086Bundle reusable, int index) throws ParseException, MessageFormatException
+	{
+		if (reusable == null)
+			return V086Message.parse(messageNumber, messageLength, buffer);
+
+		switch (buffer.get(buffer.position()))
+		{
+			case GameData.ID:
+				buffer.get();
+				return GameData.parse(messageNumber, buffer, reusable.gameDataFlyweights[index]);
+
+			case CachedGameData.ID:
+				buffer.get();
+				return CachedGameData.parse(messageNumber, buffer, reusable.cachedGameDataFlyweights[index]);
+
+			default:
+				return V086Message.parse(messageNumber, messageLength, buffer);
+		}
+	}
+
+	/**
+	 * Measures the bytes allocated per datagram parsed, with and without a reusable bundle.
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int iterations = 1000000;
+		ByteBuffer gameDataBundle = ByteBuffer.allocateDirect(4096);
+		ByteBuffer cachedBundle = ByteBuffer.allocateDirect(4096);
+
+		V086Message[] messages = new V086Message[5];
+		for (int i = 0; i < messages.length; i++)
+			messages[i] = new GameData(5 - i, new byte[12]);
+		new V086Bundle(messages).writeTo(gameDataBundle);
+		gameDataBundle.flip();
+
+		for (int i = 0; i < messages.length; i++)
+			messages[i] = new CachedGameData(5 - i, i);
+		new V086Bundle(messages).writeTo(cachedBundle);
+		cachedBundle.flip();
+
+		V086Bundle reusable = createReusable();
+		measure("GameData", gameDataBundle, null, iterations);
+		measure("GameData (reusable)", gameDataBundle, reusable, iterations);
+		measure("CachedGameData", cachedBundle, null, iterations);
+		measure("CachedGameData (reusable)", cachedBundle, reusable, iterations);
+	}
+
+	private static void measure(String name, ByteBuffer buffer, V086Bundle reusable, int iterations) throws Exception
+	{
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		long threadID = Thread.currentThread().getId();
+
+		// warm up so the JIT has a chance to eliminate what it can
+		for (int i = 0; i < iterations; i++)
+		{
+			buffer.rewind();
+			parse(buffer, 3, reusable);
+		}
+
+		long startBytes = threadBean.getThreadAllocatedBytes(threadID);
+		long st = System.currentTimeMillis();
+		for (int i = 0; i < iterations; i++)
+		{
+			buffer.rewind();
+			parse(buffer, 3, reusable);
+		}
+		long et = (System.currentTimeMillis() - st);
+		long bytes = (threadBean.getThreadAllocatedBytes(threadID) - startBytes);
+
+		System.out.println(name + ": et=" + et + " bytes/datagram=" + (bytes / iterations));
+	}
 }
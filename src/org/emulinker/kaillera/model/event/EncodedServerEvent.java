@@ -0,0 +1,20 @@
+package org.emulinker.kaillera.model.event;
+
+/*
+ * Base for server events that go out unchanged to every user; the controller encodes the message
+ * once for the first user it sends to and reuses it for the rest.
+ */
+public abstract class EncodedServerEvent implements ServerEvent
+{
+	private volatile Object	encoded;
+
+	public Object getEncoded()
+	{
+		return encoded;
+	}
+
+	public void setEncoded(Object encoded)
+	{
+		this.encoded = encoded;
+	}
+}
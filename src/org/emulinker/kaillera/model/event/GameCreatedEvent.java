@@ -2,7 +2,7 @@ package org.emulinker.kaillera.model.event;
 
 import org.emulinker.kaillera.model.*;
 
-public class GameCreatedEvent implements ServerEvent
+public class GameCreatedEvent extends EncodedServerEvent
 {
 	private KailleraServer	server;
 	private KailleraGame	game;
@@ -1,11 +1,13 @@
 package org.emulinker.kaillera.model.event;
 
 import org.emulinker.kaillera.model.KailleraGame;
+import org.emulinker.util.FramePool;
 
 public class GameDataEvent implements GameEvent
 {
-	private KailleraGame	game;
-	private byte[]			data;
+	private KailleraGame		game;
+	private byte[]				data;
+	private FramePool.Frame		frame;
 
 	public GameDataEvent(KailleraGame game, byte[] data)
 	{
@@ -13,6 +15,32 @@ public class GameDataEvent implements GameEvent
 		this.data = data;
 	}
 
+	private GameDataEvent(KailleraGame game, FramePool.Frame frame)
+	{
+		this.game = game;
+		this.frame = frame;
+		this.data = frame.getData();
+	}
+
+	/**
+	 * Returns the event for a pooled frame.  Every player the frame goes to gets the same event, and the event stays
+	 * attached to the frame when it goes back to the pool, so it is only created the first time the frame is used by
+	 * a game.  Each player the event is handed to must hold a reference to the frame, which is given back by
+	 * release().<br>
+	 * <br>
+	 * Must be called by whoever assembled the frame, before it is shared.
+	 */
+	public static GameDataEvent forFrame(KailleraGame game, FramePool.Frame frame)
+	{
+		GameDataEvent event = (GameDataEvent) frame.getAttachment();
+		if (event == null || event.game != game)
+		{
+			event = new GameDataEvent(game, frame);
+			frame.setAttachment(event);
+		}
+		return event;
+	}
+
 	public String toString()
 	{
 		return "GameDataEvent";
@@ -27,4 +55,31 @@ public class GameDataEvent implements GameEvent
 	{
 		return data;
 	}
+
+	/**
+	 * @return	true if the data goes back to a pool once released, so anything holding on to it must take a copy or a
+	 * 			reference to the frame
+	 */
+	public boolean isPooled()
+	{
+		return (frame != null);
+	}
+
+	/**
+	 * @return	The pooled frame holding the data, or null if it isn't pooled
+	 */
+	public FramePool.Frame getFrame()
+	{
+		return frame;
+	}
+
+	/**
+	 * Called by each player the event was handed to, exactly once, once the data has been sent or cached.  That player
+	 * must not use the data afterwards.
+	 */
+	public void release()
+	{
+		if (frame != null)
+			frame.release();
+	}
 }
@@ -0,0 +1,28 @@
+package org.emulinker.kaillera.model.event;
+
+import org.emulinker.kaillera.model.KailleraUser;
+
+/**
+ * Tells the protocol layer it's time to send the next of the messages it is pacing out to its own client through the
+ * SendScheduler, so they go out in order with everything else sent to the user.  The model doesn't know what the
+ * messages are.
+ */
+public class PacedMessageEvent implements UserEvent
+{
+	private KailleraUser	user;
+
+	public PacedMessageEvent(KailleraUser user)
+	{
+		this.user = user;
+	}
+
+	public String toString()
+	{
+		return "PacedMessageEvent";
+	}
+
+	public KailleraUser getUser()
+	{
+		return user;
+	}
+}
@@ -2,7 +2,7 @@ package org.emulinker.kaillera.model.event;
 
 import org.emulinker.kaillera.model.*;
 
-public class UserJoinedEvent implements ServerEvent
+public class UserJoinedEvent extends EncodedServerEvent
 {
 	private KailleraServer	server;
 	private KailleraUser	user;
@@ -0,0 +1,333 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.util.*;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.commons.logging.*;
+import org.emulinker.kaillera.model.KailleraUser;
+import org.emulinker.kaillera.model.event.*;
+
+/**
+ * Keeps EmuLinker admin clients' user tables up to date.  A superadmin logging in with the EmuLinker client is sent
+ * the whole table as :USERINFO= messages, as before, and from then on only what has changed.  Changes are collected
+ * for a short interval and then sent to every admin as one batch of :USERDELTA= messages, built once and shared, so a
+ * busy server sends each admin a few messages per interval instead of one per user joining.<br>
+ * <br>
+ * A delta message is :USERDELTA=version followed by records separated by 0x03.  Each record starts with + for a user
+ * that joined, ~ for one that changed, followed by the same fields as a :USERINFO= record, or - followed by the ID of
+ * a user that quit.  The version goes up by one per batch, and a batch too long for one message is split into several
+ * with the same version, so a client can tell if it missed one.  Changes within a batch are coalesced: a user that
+ * joins and changes is one +, one that joins and quits is nothing at all.<br>
+ * <br>
+ * The table is sent as part of the admin's welcome messages, which takes a while on a busy server, so batches sent in
+ * the meantime are kept and sent once the table has gone out.  The table may already include changes from the batch
+ * that follows it, so + and ~ replace any existing entry and - for a user the client doesn't have is ignored.<br>
+ * <br>
+ * Admin clients that predate :USERDELTA= only understand a :USERINFO= message for each user that joins, so deltas
+ * are only sent if they are turned on; otherwise the feed only keeps the table and LoginAction sends the joins.
+ */
+public class AdminUserFeed implements Runnable
+{
+	private static Log								log				= LogFactory.getLog(AdminUserFeed.class);
+
+	// the most characters in one message, as for the rest of the :USERINFO= messages
+	private static final int						MESSAGE_LENGTH	= 300;
+	// batches kept for admins whose table is still being sent
+	private static final int						HISTORY_SIZE	= 64;
+
+	private static final char						OP_ADD			= '+';
+	private static final char						OP_UPDATE		= '~';
+	private static final char						OP_REMOVE		= '-';
+
+	private ThreadPoolExecutor						threadPool;
+	private int										interval;
+	private boolean									sendDeltas;
+	private volatile boolean						stopFlag		= false;
+	private volatile boolean						isRunning		= false;
+
+	// the current record for every user that has finished logging in
+	private LinkedHashMap<Integer, String>			records			= new LinkedHashMap<Integer, String>();
+	// what has happened to each user since the last batch
+	private LinkedHashMap<Integer, Character>		pending			= new LinkedHashMap<Integer, Character>();
+	private long									version			= 0;
+	private LinkedList<Batch>						history			= new LinkedList<Batch>();
+	private Set<KailleraUserImpl>					admins			= new HashSet<KailleraUserImpl>();
+
+	private List<String>							table;
+	private long									batchCount		= 0;
+	private long									messageCount	= 0;
+
+	/**
+	 * @param sendDeltas	Whether to send admins :USERDELTA= batches after the table
+	 */
+	public AdminUserFeed(ThreadPoolExecutor threadPool, int interval, boolean sendDeltas)
+	{
+		this.threadPool = threadPool;
+		this.interval = interval;
+		this.sendDeltas = sendDeltas;
+	}
+
+	public boolean isSendingDeltas()
+	{
+		return sendDeltas;
+	}
+
+	public boolean isRunning()
+	{
+		return isRunning;
+	}
+
+	public synchronized String getStats()
+	{
+		return "version=" + version + " admins=" + admins.size() + " users=" + records.size() + " batches=" + batchCount + " messages=" + messageCount;
+	}
+
+	public String toString()
+	{
+		return "AdminUserFeed[" + getStats() + "]";
+	}
+
+	public synchronized void start()
+	{
+		stopFlag = false;
+		if (sendDeltas)
+			threadPool.execute(this);
+	}
+
+	public synchronized void stop()
+	{
+		stopFlag = true;
+		records.clear();
+		pending.clear();
+		history.clear();
+		admins.clear();
+		table = null;
+	}
+
+	public void run()
+	{
+		isRunning = true;
+		log.debug("AdminUserFeed thread running...");
+
+		try
+		{
+			while (!stopFlag)
+			{
+				Thread.sleep(interval);
+				flush();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			log.error("AdminUserFeed thread interrupted!");
+		}
+		finally
+		{
+			isRunning = false;
+			log.debug("AdminUserFeed thread exiting...");
+		}
+	}
+
+	void apply(ServerEvent event)
+	{
+		if (event instanceof UserJoinedEvent)
+			userJoined((KailleraUserImpl) ((UserJoinedEvent) event).getUser());
+		else if (event instanceof UserQuitEvent)
+			userQuit((KailleraUserImpl) ((UserQuitEvent) event).getUser());
+	}
+
+	synchronized void userJoined(KailleraUserImpl user)
+	{
+		records.put(user.getID(), getRecord(user));
+		if (sendDeltas)
+			pending.put(user.getID(), OP_ADD);
+		table = null;
+	}
+
+	/**
+	 * Updates the record for user, if it has one.
+	 */
+	synchronized void userChanged(KailleraUserImpl user)
+	{
+		String old = records.get(user.getID());
+		if (old == null)
+			return;
+
+		String record = getRecord(user);
+		if (record.equals(old))
+			return;
+
+		records.put(user.getID(), record);
+		// a user that joined since the last batch is still sent as joined, with its latest record
+		if (sendDeltas && !pending.containsKey(user.getID()))
+			pending.put(user.getID(), OP_UPDATE);
+		table = null;
+	}
+
+	synchronized void userQuit(KailleraUserImpl user)
+	{
+		admins.remove(user);
+
+		if (records.remove(user.getID()) == null)
+			return;
+
+		// admins were never told about a user that joined since the last batch
+		Character op = pending.remove(user.getID());
+		if (sendDeltas && (op == null || op != OP_ADD))
+			pending.put(user.getID(), OP_REMOVE);
+		table = null;
+	}
+
+	/**
+	 * Adds the user table to an admin's welcome messages.
+	 *
+	 * @return	The version the table is up to, to pass to subscribe once it has been sent
+	 */
+	synchronized long addTable(SendScheduler.Sequence welcome, KailleraUser admin)
+	{
+		if (table == null)
+			table = split(":USERINFO=", records.values());
+
+		for (String message : table)
+			welcome.add(100, new InfoMessageEvent(admin, message));
+
+		return version;
+	}
+
+	/**
+	 * Starts sending batches to an admin whose user table, up to tableVersion, has been sent.
+	 */
+	synchronized void subscribe(KailleraUserImpl admin, long tableVersion)
+	{
+		if (!sendDeltas || !admin.isLoggedIn())
+			return;
+
+		// the oldest batch still kept has to follow straight on from the table
+		if (tableVersion < version && (history.isEmpty() || history.getFirst().version > (tableVersion + 1)))
+		{
+			log.warn(admin + " user table is too far behind, sending it again");
+			SendScheduler.Sequence resend = admin.getServer().getSendScheduler().newSequence(admin);
+			final long resendVersion = addTable(resend, admin);
+			final KailleraUserImpl resendAdmin = admin;
+			resend.then(0, new Runnable()
+			{
+				public void run()
+				{
+					subscribe(resendAdmin, resendVersion);
+				}
+			});
+			resend.start();
+			return;
+		}
+
+		for (Batch batch : history)
+		{
+			if (batch.version > tableVersion)
+				send(admin, batch);
+		}
+
+		admins.add(admin);
+	}
+
+	synchronized void flush()
+	{
+		if (pending.isEmpty())
+			return;
+
+		version++;
+
+		List<String> ops = new ArrayList<String>(pending.size());
+		for (Map.Entry<Integer, Character> entry : pending.entrySet())
+		{
+			if (entry.getValue() == OP_REMOVE)
+				ops.add(OP_REMOVE + entry.getKey().toString());
+			else
+				ops.add(entry.getValue() + records.get(entry.getKey()));
+		}
+		pending.clear();
+
+		Batch batch = new Batch(version, split(":USERDELTA=" + version + (char) 0x03, ops));
+		history.add(batch);
+		if (history.size() > HISTORY_SIZE)
+			history.removeFirst();
+		batchCount++;
+
+		Iterator<KailleraUserImpl> iter = admins.iterator();
+		while (iter.hasNext())
+		{
+			KailleraUserImpl admin = iter.next();
+			if (!admin.isLoggedIn())
+				iter.remove();
+			else
+				send(admin, batch);
+		}
+	}
+
+	private void send(KailleraUserImpl admin, Batch batch)
+	{
+		for (String message : batch.messages)
+		{
+			admin.addEvent(new InfoMessageEvent(admin, message));
+			messageCount++;
+		}
+	}
+
+	private static String getRecord(KailleraUserImpl user)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(user.getID());
+		sb.append((char) 0x02);
+		sb.append(user.getConnectSocketAddress().getAddress().getHostAddress());
+		sb.append((char) 0x02);
+		sb.append(user.getAccessStr());
+		sb.append((char) 0x02);
+		sb.append(user.getName());
+		sb.append((char) 0x02);
+		sb.append(user.getPing());
+		sb.append((char) 0x02);
+		sb.append(user.getStatus());
+		sb.append((char) 0x02);
+		sb.append(user.getConnectionType());
+		return sb.toString();
+	}
+
+	/**
+	 * Joins records into messages starting with header, each record followed by 0x03, starting a new message once one
+	 * is over MESSAGE_LENGTH.
+	 */
+	private static List<String> split(String header, Collection<String> records)
+	{
+		List<String> messages = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder(header);
+		int count = 0;
+		for (String record : records)
+		{
+			sb.append(record);
+			sb.append((char) 0x03);
+			count++;
+
+			if (sb.length() > MESSAGE_LENGTH)
+			{
+				messages.add(sb.toString());
+				sb = new StringBuilder(header);
+				count = 0;
+			}
+		}
+
+		if (count > 0)
+			messages.add(sb.toString());
+		return messages;
+	}
+
+	private static class Batch
+	{
+		private long			version;
+		private List<String>	messages;
+
+		private Batch(long version, List<String> messages)
+		{
+			this.version = version;
+			this.messages = messages;
+		}
+	}
+}
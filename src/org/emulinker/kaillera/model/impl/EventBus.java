@@ -0,0 +1,111 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.emulinker.kaillera.model.event.*;
+
+/**
+ * Delivers server events to the users subscribed to them.  Every server event belongs to one topic, looked up by its
+ * class, and each topic keeps its own set of subscribers, so publishing an event only touches the users who will
+ * actually receive it instead of walking every user and deciding from the event's name.<br>
+ * <br>
+ * Users subscribe when they log in and unsubscribe when they quit.  In between, KailleraUserImpl changes its topics
+ * whenever its status or P2P setting changes: a P2P user in a game gets none of the lobby topics, everyone else gets
+ * all of them.  Game events don't go through here; a game's player list is already the list of its subscribers.
+ */
+public class EventBus
+{
+	// lobby chat
+	public static final int								TOPIC_CHAT		= 0;
+	// users logging in and quitting
+	public static final int								TOPIC_USERS		= 1;
+	// games being created, closed or changing status
+	public static final int								TOPIC_GAMES		= 2;
+	// any other server event
+	public static final int								TOPIC_SERVER	= 3;
+	public static final int								NUM_TOPICS		= 4;
+
+	public static final int								ALL_TOPICS		= ((1 << NUM_TOPICS) - 1);
+	public static final int								P2P_TOPICS		= (1 << TOPIC_SERVER);
+
+	private static final String[]						topicNames		= { "chat", "users", "games", "server" };
+	private static final Map<Class<? extends KailleraEvent>, Integer>	topicsByClass	= createTopicsByClass();
+
+	private final List<Set<KailleraUserImpl>>			subscribers		= new ArrayList<Set<KailleraUserImpl>>(NUM_TOPICS);
+
+	public EventBus()
+	{
+		for (int i = 0; i < NUM_TOPICS; i++)
+			subscribers.add(Collections.newSetFromMap(new ConcurrentHashMap<KailleraUserImpl, Boolean>()));
+	}
+
+	private static Map<Class<? extends KailleraEvent>, Integer> createTopicsByClass()
+	{
+		Map<Class<? extends KailleraEvent>, Integer> topics = new HashMap<Class<? extends KailleraEvent>, Integer>();
+		topics.put(ChatEvent.class, TOPIC_CHAT);
+		topics.put(UserJoinedEvent.class, TOPIC_USERS);
+		topics.put(UserQuitEvent.class, TOPIC_USERS);
+		topics.put(GameCreatedEvent.class, TOPIC_GAMES);
+		topics.put(GameClosedEvent.class, TOPIC_GAMES);
+		topics.put(GameStatusChangedEvent.class, TOPIC_GAMES);
+		return Collections.unmodifiableMap(topics);
+	}
+
+	public static int getTopic(KailleraEvent event)
+	{
+		Integer topic = topicsByClass.get(event.getClass());
+		return (topic == null ? TOPIC_SERVER : topic);
+	}
+
+	public int getNumSubscribers(int topic)
+	{
+		return subscribers.get(topic).size();
+	}
+
+	public String getStats()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < NUM_TOPICS; i++)
+		{
+			if (i > 0)
+				sb.append(" ");
+			sb.append(topicNames[i]);
+			sb.append("=");
+			sb.append(getNumSubscribers(i));
+		}
+		return sb.toString();
+	}
+
+	public String toString()
+	{
+		return "EventBus[" + getStats() + "]";
+	}
+
+	public void publish(ServerEvent event)
+	{
+		for (KailleraUserImpl user : subscribers.get(getTopic(event)))
+			user.addEvent(event);
+	}
+
+	/**
+	 * Moves a user from the topics in oldTopics to those in newTopics; both are masks of 1 << topic.
+	 */
+	void changeTopics(KailleraUserImpl user, int oldTopics, int newTopics)
+	{
+		for (int i = 0; i < NUM_TOPICS; i++)
+		{
+			int bit = (1 << i);
+			if ((newTopics & bit) != 0 && (oldTopics & bit) == 0)
+				subscribers.get(i).add(user);
+			else if ((newTopics & bit) == 0 && (oldTopics & bit) != 0)
+				subscribers.get(i).remove(user);
+		}
+	}
+
+	void clear()
+	{
+		for (Set<KailleraUserImpl> set : subscribers)
+			set.clear();
+	}
+}
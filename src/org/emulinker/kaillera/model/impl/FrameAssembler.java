@@ -0,0 +1,408 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+import org.emulinker.kaillera.model.event.GameDataEvent;
+import org.emulinker.util.FramePool;
+
+/**
+ * Builds each combined frame of a game exactly once and shares it with every player.  Every player in a game receives
+ * the same frame k, made up of every player's k-th message, so rather than have each player's thread copy every queue
+ * into a frame of its own, the first player to ask for frame k assembles it while the others wait for it to be
+ * published.  Published frames are never modified again, so the same array is handed to every player.<br>
+ * <br>
+ * Frames are kept in a ring of FRAME_RING_SIZE, and each player has its own cursor into the ring so a player whose
+ * thread is running behind still picks up every frame in order.  A frame can't be overwritten until every synched
+ * player has sent the messages for the frames after it, and each player takes its copy before sending the next
+ * message, so the ring only runs out on players who have been desynched.<br>
+ * <br>
+ * Frames come from the FramePool.  The ring holds one reference to each frame until its slot is reused, and every
+ * player it is handed to gets a reference of its own, which GameDataAction gives back once the frame has been sent.
+ * Every player is handed the same GameDataEvent for a frame, which stays attached to the frame in the pool.<br>
+ * <br>
+ * Only one thread assembles at a time.  It reads the action queues exactly the way each player used to, so timeouts
+ * are still reported through KailleraGameImpl.handleTimeout with the same numbering, just from one thread instead of
+ * from every player at once.<br>
+ * <br>
+ * When the server runs a GameTickEngine, players never wait in here at all.  request() just counts the frame the player
+ * is owed and schedules the game, and the engine's worker calls tick() to assemble whatever frames are complete, send
+ * them to the players who asked for them, and generate the timeouts the waiting players would have.
+ */
+public class FrameAssembler
+{
+	public static final int					FRAME_RING_SIZE	= 16;
+
+	private KailleraGameImpl				game;
+	private PlayerActionQueue[]				queues;
+	private int								actionsPerMessage;
+	private int								timeoutMillis;
+
+	private FramePool.Frame[]				frames			= new FramePool.Frame[FRAME_RING_SIZE];
+	private volatile int					published		= 0;
+	private AtomicBoolean					assembling		= new AtomicBoolean(false);
+
+	private AtomicIntegerArray				cursors;
+	private AtomicReferenceArray<Thread>	waiters;
+
+	// only used with a tick engine
+	private GameTickEngine					engine;
+	private GameTickEngine.Worker			worker;
+	private AtomicBoolean					scheduled		= new AtomicBoolean(false);
+	private AtomicIntegerArray				requested;
+	private AtomicReferenceArray<KailleraUserImpl>	requesters;
+	private volatile int					bytesPerAction;
+
+	// only touched by the tick worker
+	private boolean							waiting			= false;
+	private long							waitStart;
+	private int								timeoutCounter	= 0;
+
+	FrameAssembler(KailleraGameImpl game, PlayerActionQueue[] queues, int actionsPerMessage, int timeoutMillis, GameTickEngine engine)
+	{
+		this.game = game;
+		this.queues = queues;
+		this.actionsPerMessage = actionsPerMessage;
+		this.timeoutMillis = timeoutMillis;
+		this.engine = engine;
+
+		cursors = new AtomicIntegerArray(queues.length);
+		waiters = new AtomicReferenceArray<Thread>(queues.length);
+		requested = new AtomicIntegerArray(queues.length);
+		requesters = new AtomicReferenceArray<KailleraUserImpl>(queues.length);
+
+		if (engine != null)
+			engine.register(this);
+	}
+
+	public String toString()
+	{
+		return "FrameAssembler[" + game + " frame=" + published + "]";
+	}
+
+	void close()
+	{
+		if (engine != null)
+			engine.unregister(this);
+	}
+
+	GameTickEngine.Worker getWorker()
+	{
+		return worker;
+	}
+
+	void setWorker(GameTickEngine.Worker worker)
+	{
+		this.worker = worker;
+	}
+
+	boolean markScheduled()
+	{
+		return scheduled.compareAndSet(false, true);
+	}
+
+	void clearScheduled()
+	{
+		scheduled.set(false);
+	}
+
+	/**
+	 * Has the tick worker look at this game again, for instance after a player drops and the frame it was holding up
+	 * can be completed without it.
+	 */
+	void wake()
+	{
+		if (worker != null)
+			worker.schedule(this);
+	}
+
+	/**
+	 * Records that a player has sent its actions for another frame and is owed that frame.  Used instead of nextFrame()
+	 * when the game is driven by a tick engine; the frame is sent to the player as a GameDataEvent once it is complete.
+	 */
+	void request(int playerNumber, KailleraUserImpl user, int bytesPerAction)
+	{
+		int index = (playerNumber - 1);
+		this.bytesPerAction = bytesPerAction;
+		requesters.set(index, user);
+		requested.incrementAndGet(index);
+		worker.schedule(this);
+	}
+
+	/**
+	 * Assembles and sends every frame that is complete, and generates a timeout for the first player holding up the
+	 * next frame each time timeoutMillis passes without it arriving.  Must only be called by this game's tick worker.
+	 *
+	 * @return	The System.nanoTime() at which this needs to be ticked again if nothing arrives, or Long.MAX_VALUE
+	 */
+	long tick(long now)
+	{
+		int frameBytes = (actionsPerMessage * bytesPerAction);
+		while (isRequested(published))
+		{
+			if (!waiting)
+			{
+				waiting = true;
+				waitStart = now;
+			}
+
+			if (game.isSynched() && !isComplete(frameBytes))
+				break;
+
+			publish(assembleAvailable(bytesPerAction));
+
+			engine.frameSent(System.nanoTime() - waitStart);
+			waiting = false;
+			timeoutCounter = 0;
+		}
+
+		deliver();
+
+		if (!waiting || !game.isSynched())
+			return Long.MAX_VALUE;
+
+		long timeoutNanos = (timeoutMillis * 1000000L);
+		long deadline;
+		while ((deadline = (waitStart + ((timeoutCounter + 1) * timeoutNanos))) - now <= 0)
+		{
+			PlayerActionQueue late = firstIncomplete(frameBytes);
+			if (late == null)
+				break;
+
+			PlayerTimeoutException e = new PlayerTimeoutException(late.getPlayerNumber(), late.getPlayer());
+			e.setTimeoutNumber(++timeoutCounter);
+			game.handleTimeout(e);
+
+			// the late player may have been desynched, which can complete the frame
+			if (!game.isSynched() || isComplete(frameBytes))
+				return tick(now);
+		}
+
+		return deadline;
+	}
+
+	private boolean isRequested(int frame)
+	{
+		for (int i = 0; i < queues.length; i++)
+		{
+			if (requested.get(i) > frame)
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isComplete(int frameBytes)
+	{
+		return (firstIncomplete(frameBytes) == null);
+	}
+
+	private PlayerActionQueue firstIncomplete(int frameBytes)
+	{
+		for (PlayerActionQueue queue : queues)
+		{
+			if (!queue.isReady(frameBytes))
+				return queue;
+		}
+		return null;
+	}
+
+	private void deliver()
+	{
+		for (int i = 0; i < queues.length; i++)
+		{
+			int cursor = cursors.get(i);
+			int wanted = requested.get(i);
+			if (cursor >= wanted || cursor >= published)
+				continue;
+
+			// a desynched player that fell behind the ring just misses the frames it was owed
+			if (cursor < (published - FRAME_RING_SIZE))
+				cursor = (published - FRAME_RING_SIZE);
+
+			KailleraUserImpl user = requesters.get(i);
+			while (cursor < wanted && cursor < published)
+			{
+				FramePool.Frame frame = frames[cursor % FRAME_RING_SIZE];
+				frame.retain();
+				user.addEvent(GameDataEvent.forFrame(game, frame));
+				cursor++;
+			}
+
+			cursors.set(i, cursor);
+		}
+	}
+
+	// like assemble(), but never waits; missing actions from desynched players are left as zeros
+	private FramePool.Frame assembleAvailable(int bytesPerAction)
+	{
+		FramePool.Frame frame = FramePool.acquire(actionsPerMessage * queues.length * bytesPerAction);
+		byte[] data = frame.getData();
+
+		for (int actionCounter = 0; actionCounter < actionsPerMessage; actionCounter++)
+		{
+			for (int playerCounter = 0; playerCounter < queues.length; playerCounter++)
+			{
+				if (!queues[playerCounter].isReady(bytesPerAction))
+					continue;
+
+				try
+				{
+					queues[playerCounter].getAction(data, ((actionCounter * (queues.length * bytesPerAction)) + (playerCounter * bytesPerAction)), bytesPerAction);
+				}
+				catch (PlayerTimeoutException e)
+				{
+				}
+			}
+		}
+
+		return frame;
+	}
+
+	public int getFrameCount()
+	{
+		return published;
+	}
+
+	/**
+	 * Returns the next frame for a player, assembling it first if no other player has yet.  The returned frame is
+	 * shared by every player and must not be modified; the caller owns one reference to it and must release it.
+	 *
+	 * @return	The frame, or null if the game desynched before it was complete
+	 */
+	FramePool.Frame nextFrame(int playerNumber, int bytesPerAction)
+	{
+		int index = (playerNumber - 1);
+		int cursor = cursors.get(index);
+
+		while (true)
+		{
+			if (cursor < published)
+			{
+				if (cursor < (published - FRAME_RING_SIZE))
+					return null;
+
+				FramePool.Frame frame = frames[cursor % FRAME_RING_SIZE];
+				if (!frame.tryRetain())
+					return null;
+
+				// the slot could have been reused while we were reading it, in which case the frame we retained may
+				// already hold a newer frame's data
+				if (cursor < (published - FRAME_RING_SIZE))
+				{
+					frame.release();
+					return null;
+				}
+
+				cursors.set(index, (cursor + 1));
+				return frame;
+			}
+
+			if (!game.isSynched())
+				return null;
+
+			if (assembling.compareAndSet(false, true))
+			{
+				try
+				{
+					while (published <= cursor && game.isSynched())
+					{
+						FramePool.Frame frame = assemble(bytesPerAction);
+						if (frame == null)
+							break;
+
+						publish(frame);
+						wakeWaiters();
+					}
+				}
+				finally
+				{
+					assembling.set(false);
+					wakeWaiters();
+				}
+			}
+			else
+			{
+				awaitFrame(index, cursor);
+			}
+		}
+	}
+
+	private FramePool.Frame assemble(int bytesPerAction)
+	{
+		FramePool.Frame frame = FramePool.acquire(actionsPerMessage * queues.length * bytesPerAction);
+		byte[] data = frame.getData();
+		int timeoutCounter = 0;
+
+		for (int actionCounter = 0; actionCounter < actionsPerMessage; actionCounter++)
+		{
+			for (int playerCounter = 0; playerCounter < queues.length; playerCounter++)
+			{
+				while (game.isSynched())
+				{
+					try
+					{
+						queues[playerCounter].getAction(data, ((actionCounter * (queues.length * bytesPerAction)) + (playerCounter * bytesPerAction)), bytesPerAction);
+						break;
+					}
+					catch (PlayerTimeoutException e)
+					{
+						e.setTimeoutNumber(++timeoutCounter);
+						game.handleTimeout(e);
+					}
+				}
+			}
+		}
+
+		if (!game.isSynched())
+		{
+			frame.release();
+			return null;
+		}
+
+		return frame;
+	}
+
+	// only called by whichever thread is assembling
+	private void publish(FramePool.Frame frame)
+	{
+		// attach the frame's event before any player can see the frame, so players only ever read it
+		GameDataEvent.forFrame(game, frame);
+
+		int slot = (published % FRAME_RING_SIZE);
+		FramePool.Frame old = frames[slot];
+		frames[slot] = frame;
+		published++;
+
+		if (old != null)
+			old.release();
+	}
+
+	private void awaitFrame(int index, int cursor)
+	{
+		waiters.set(index, Thread.currentThread());
+		try
+		{
+			// the assembler may have finished between our check and registering, so check again before parking
+			while (published <= cursor && assembling.get() && game.isSynched())
+			{
+				LockSupport.parkNanos(this, (timeoutMillis * 1000000L));
+				if (Thread.interrupted())
+					break;
+			}
+		}
+		finally
+		{
+			waiters.set(index, null);
+		}
+	}
+
+	private void wakeWaiters()
+	{
+		for (int i = 0; i < queues.length; i++)
+		{
+			Thread waiter = waiters.get(i);
+			if (waiter != null)
+				LockSupport.unpark(waiter);
+		}
+	}
+}
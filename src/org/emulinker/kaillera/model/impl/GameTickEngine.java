@@ -0,0 +1,226 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.*;
+
+/**
+ * Runs gameplay on a small pool of tick workers instead of on the players' network threads.  Without this, each
+ * player's thread blocks inside KailleraGameImpl.addData until every other player's data for the frame arrives, which
+ * stalls every other user sharing that thread when the server is multiplexing users onto a few receive threads.<br>
+ * <br>
+ * When the engine is enabled, addData only queues the player's actions and schedules the game on its worker.  The
+ * worker assembles every frame that is complete, sends it to the players who asked for it, and generates the timeouts
+ * for players who are late, so a slow player only ever delays the game it is in.  Each game is pinned to one worker,
+ * so all of a game's ticks run on the same thread and the FrameAssembler needs no locking of its own.<br>
+ * <br>
+ * The time from the first player asking for a frame to the frame being sent is recorded for every frame.
+ */
+public class GameTickEngine
+{
+	private static Log				log				= LogFactory.getLog(GameTickEngine.class);
+
+	// how long an idle worker sleeps before looking for timeouts again
+	private static final long		IDLE_NANOS		= 1000000000L;
+
+	private ThreadPoolExecutor		threadPool;
+	private Worker[]				workers;
+	private AtomicInteger			nextWorker		= new AtomicInteger();
+	private volatile boolean		stopFlag		= false;
+
+	private AtomicLong				frameCount		= new AtomicLong();
+	private AtomicLong				totalLatency	= new AtomicLong();
+	private volatile long			maxLatency		= 0;
+
+	public GameTickEngine(ThreadPoolExecutor threadPool, int numWorkers)
+	{
+		this.threadPool = threadPool;
+
+		workers = new Worker[numWorkers];
+		for (int i = 0; i < workers.length; i++)
+			workers[i] = new Worker(i);
+	}
+
+	public int getNumWorkers()
+	{
+		return workers.length;
+	}
+
+	public long getFrameCount()
+	{
+		return frameCount.get();
+	}
+
+	/**
+	 * @return	The average milliseconds between a frame first being requested and it being sent
+	 */
+	public double getAverageLatency()
+	{
+		long frames = frameCount.get();
+		if (frames == 0)
+			return 0;
+		return ((double) totalLatency.get() / frames / 1000000);
+	}
+
+	/**
+	 * @return	The longest milliseconds any frame took between being requested and being sent
+	 */
+	public double getMaxLatency()
+	{
+		return ((double) maxLatency / 1000000);
+	}
+
+	public String getStats()
+	{
+		return "workers=" + workers.length + " frames=" + getFrameCount() + " avgLatency=" + (Math.round(getAverageLatency() * 100) / 100.0) + "ms maxLatency=" + (Math.round(getMaxLatency() * 100) / 100.0) + "ms";
+	}
+
+	public String toString()
+	{
+		return "GameTickEngine[" + getStats() + "]";
+	}
+
+	public synchronized void start()
+	{
+		stopFlag = false;
+		for (Worker worker : workers)
+			threadPool.execute(worker);
+		log.info("Game tick engine started with " + workers.length + " workers");
+	}
+
+	public synchronized void stop()
+	{
+		stopFlag = true;
+		for (Worker worker : workers)
+			worker.wake();
+	}
+
+	void register(FrameAssembler assembler)
+	{
+		Worker worker = workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+		assembler.setWorker(worker);
+		worker.games.add(assembler);
+		worker.schedule(assembler);
+	}
+
+	void unregister(FrameAssembler assembler)
+	{
+		Worker worker = assembler.getWorker();
+		if (worker != null)
+			worker.games.remove(assembler);
+	}
+
+	void frameSent(long latency)
+	{
+		frameCount.incrementAndGet();
+		totalLatency.addAndGet(latency);
+		if (latency > maxLatency)
+			maxLatency = latency;
+	}
+
+	class Worker implements Runnable
+	{
+		private int									index;
+		private volatile Thread						thread;
+		// only used synchronized; an array ring rather than a linked queue, so scheduling a game doesn't allocate
+		private ArrayDeque<FrameAssembler>			ready		= new ArrayDeque<FrameAssembler>();
+		private List<FrameAssembler>				games		= new CopyOnWriteArrayList<FrameAssembler>();
+		private long								nextScan	= Long.MAX_VALUE;
+
+		private Worker(int index)
+		{
+			this.index = index;
+		}
+
+		void schedule(FrameAssembler assembler)
+		{
+			if (assembler.markScheduled())
+			{
+				synchronized (ready)
+				{
+					ready.offer(assembler);
+				}
+				wake();
+			}
+		}
+
+		private void wake()
+		{
+			Thread t = thread;
+			if (t != null)
+				LockSupport.unpark(t);
+		}
+
+		public void run()
+		{
+			thread = Thread.currentThread();
+			log.debug("GameTickEngine worker " + index + " thread running...");
+
+			try
+			{
+				while (!stopFlag)
+				{
+					FrameAssembler assembler;
+					while ((assembler = poll()) != null)
+					{
+						assembler.clearScheduled();
+						nextScan = Math.min(nextScan, tick(assembler, System.nanoTime()));
+					}
+
+					// only walk every game when one of them is due for a timeout
+					long now = System.nanoTime();
+					if (now >= nextScan)
+					{
+						nextScan = Long.MAX_VALUE;
+						for (FrameAssembler game : games)
+							nextScan = Math.min(nextScan, tick(game, now));
+					}
+
+					if (isIdle())
+					{
+						long wait = (nextScan == Long.MAX_VALUE ? IDLE_NANOS : (nextScan - System.nanoTime()));
+						if (wait > 0)
+							LockSupport.parkNanos(this, wait);
+					}
+				}
+			}
+			finally
+			{
+				thread = null;
+				log.debug("GameTickEngine worker " + index + " thread exiting...");
+			}
+		}
+
+		private FrameAssembler poll()
+		{
+			synchronized (ready)
+			{
+				return ready.poll();
+			}
+		}
+
+		private boolean isIdle()
+		{
+			synchronized (ready)
+			{
+				return ready.isEmpty();
+			}
+		}
+
+		private long tick(FrameAssembler assembler, long now)
+		{
+			try
+			{
+				return assembler.tick(now);
+			}
+			catch (Exception e)
+			{
+				log.error("GameTickEngine worker " + index + " failed to tick " + assembler + ": " + e.getMessage(), e);
+				return Long.MAX_VALUE;
+			}
+		}
+	}
+}
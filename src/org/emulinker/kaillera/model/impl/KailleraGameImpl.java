@@ -55,9 +55,10 @@ public final class KailleraGameImpl implements KailleraGame
 	private List<String>			mutedUsers			= new ArrayList<String>();
 
 	private int						status				= KailleraGame.STATUS_WAITING;
-	private boolean					synched				= false;
+	private volatile boolean		synched				= false;
 	private int						actionsPerMessage;
 	private PlayerActionQueue[]		playerActionQueues;
+	private FrameAssembler			frameAssembler;
 	private AutoFireDetector		autoFireDetector;
 	
 	public KailleraGameImpl(int gameID, String romName, KailleraUserImpl owner, KailleraServerImpl server, int bufferSize, int timeoutMillis, int desynchTimeouts)
@@ -68,7 +69,7 @@ public final class KailleraGameImpl implements KailleraGame
 		this.server = server;
 		this.actionsPerMessage = owner.getConnectionType();
 		this.bufferSize = bufferSize;
-		this.timeoutMillis = 100;//timeoutMillis;
+		this.timeoutMillis = timeoutMillis;
 		this.desynchTimeouts = 120;//desynchTimeouts;
 		
 		toString = "Game" + id + "(" + (romName.length() > 15 ? (romName.substring(0, 15) + "...") : romName) + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
@@ -231,6 +232,7 @@ public final class KailleraGameImpl implements KailleraGame
 	void setStatus(int status)
 	{
 		this.status = status;
+		server.getLobbyIndex().gameStatusChanged(this);
 		server.addEvent(new GameStatusChangedEvent(server, this));
 	}
 
@@ -449,11 +451,16 @@ public final class KailleraGameImpl implements KailleraGame
 		log.info(user + " joined: " + this); //$NON-NLS-1$
 		addEvent(new UserJoinedGameEvent(this, user));
 		
-		//SF MOD - /startn
+		//SF MOD - /startn; the second's wait is on the send scheduler, so the joining user's thread isn't held up
 		if(getStartN() != -1){
 			if(players.size() >= getStartN()){
-				try { Thread.sleep(1000); } catch(Exception e) {}
-				try { start(getOwner()); } catch(Exception e) {}
+				server.getSendScheduler().newSequence(owner).then(1000, new Runnable()
+				{
+					public void run()
+					{
+						try { start(getOwner()); } catch(Exception e) {}
+					}
+				}).start();
 			}
 		}
 
@@ -565,7 +572,7 @@ public final class KailleraGameImpl implements KailleraGame
 			player.setTimeouts(0);
 			player.setFrameCount(0);
 									
-			playerActionQueues[i] = new PlayerActionQueue(playerNumber, player, getNumPlayers(), bufferSize, timeoutMillis, true);
+			playerActionQueues[i] = new PlayerActionQueue(playerNumber, player, bufferSize, timeoutMillis, true);
 			//playerActionQueues[i] = new PlayerActionQueue(playerNumber, player, getNumPlayers(), GAME_BUFFER_SIZE, (player.getPing()*3));
 			//SF MOD - player.setPlayerNumber(playerNumber);
 			//SF MOD - Delay Value = [(60/connectionType) * (ping/1000)] + 1
@@ -596,6 +603,10 @@ public final class KailleraGameImpl implements KailleraGame
 				autoFireDetector.addPlayer(player, playerNumber);
 		}
 
+		if (frameAssembler != null)
+			frameAssembler.close();
+		frameAssembler = new FrameAssembler(this, playerActionQueues, actionsPerMessage, timeoutMillis, server.getTickEngine());
+
 		if (statsCollector != null)
 			statsCollector.gameStarted(server, this);
 		
@@ -676,6 +687,9 @@ public final class KailleraGameImpl implements KailleraGame
 		if((playerNumber - 1) < playerActionQueues.length)
 			playerActionQueues[(playerNumber - 1)].setSynched(false);
 
+		// the frame the dropped player was holding up can be sent without it now
+		frameAssembler.wake();
+
 		if (getSynchedCount() < 2 && synched)
 		{
 			synched = false;
@@ -764,6 +778,9 @@ public final class KailleraGameImpl implements KailleraGame
 		
 		if(autoFireDetector != null)
 			autoFireDetector.stop();
+
+		if (frameAssembler != null)
+			frameAssembler.close();
 		
 		players.clear();
 	}
@@ -783,6 +800,7 @@ public final class KailleraGameImpl implements KailleraGame
 			playerActionQueues[(playerNumber - 1)].setSynched(false);
 			log.info(this + ": " + user + ": player desynched: dropped a packet!"); //$NON-NLS-1$ //$NON-NLS-2$
 			addEvent(new PlayerDesynchEvent(this, user, EmuLang.getString("KailleraGameImpl.DesynchDetectedDroppedPacket", user.getName()))); //$NON-NLS-1$
+			frameAssembler.wake();
 
 			if (getSynchedCount() < 2 && synched)
 			{
@@ -802,7 +820,6 @@ public final class KailleraGameImpl implements KailleraGame
 			return;
 		
 		//int bytesPerAction = (data.length / actionsPerMessage);
-		int timeoutCounter = 0;
 		//int arraySize = (playerActionQueues.length * actionsPerMessage * user.getBytesPerAction());
 		
 		if (!synched)
@@ -817,35 +834,24 @@ public final class KailleraGameImpl implements KailleraGame
 		if(autoFireDetector != null)
 			autoFireDetector.addData(playerNumber, data, user.getBytesPerAction());	
 
-		byte[] response = new byte[user.getArraySize()];
-		for(int actionCounter = 0; actionCounter < actionsPerMessage; actionCounter++)
+		// with a tick engine the frame is sent by the engine's worker once every player's actions are here
+		if (server.getTickEngine() != null)
 		{
-			for(int playerCounter = 0; playerCounter < playerActionQueues.length; playerCounter++)
-			{
-				while (synched)
-				{
-					try
-					{
-						playerActionQueues[playerCounter].getAction(playerNumber, response, ((actionCounter * (playerActionQueues.length * user.getBytesPerAction())) + (playerCounter * user.getBytesPerAction())), user.getBytesPerAction());
-						break;
-					}
-					catch (PlayerTimeoutException e)
-					{
-						e.setTimeoutNumber(++timeoutCounter);
-						handleTimeout(e);
-					}
-				}
-			}
+			frameAssembler.request(playerNumber, (KailleraUserImpl) user, user.getBytesPerAction());
+			return;
 		}
 
-		if (!synched)
+		// the combined frame is built once and the same array is shared by every player
+		FramePool.Frame response = frameAssembler.nextFrame(playerNumber, user.getBytesPerAction());
+
+		if (response == null)
 			throw new GameDataException(EmuLang.getString("KailleraGameImpl.DesynchedWarning"), data, user.getBytesPerAction(), playerNumber, playerActionQueues.length); //$NON-NLS-1$
 				
-		((KailleraUserImpl) user).addEvent(new GameDataEvent(this, response));
+		((KailleraUserImpl) user).addEvent(GameDataEvent.forFrame(this, response));
 	}
 
 	// it's very important this method is synchronized
-	private synchronized void handleTimeout(PlayerTimeoutException e)
+	synchronized void handleTimeout(PlayerTimeoutException e)
 	{
 		if (!synched)
 			return;
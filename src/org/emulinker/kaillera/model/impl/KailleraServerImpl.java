@@ -55,10 +55,27 @@ public class KailleraServerImpl implements KailleraServer, Executable
 	protected StatsCollector					statsCollector;
 	protected ReleaseInfo						releaseInfo;
 	protected AutoFireDetectorFactory 			autoFireDetectorFactory;
+	protected GameTickEngine					tickEngine;
+	protected UserMailboxExecutor				mailboxExecutor;
+	protected EventBus							eventBus			= new EventBus();
+	protected SendScheduler						sendScheduler;
+	protected LobbySnapshot						lobbySnapshot		= new LobbySnapshot();
+	protected LobbyIndex						lobbyIndex			= new LobbyIndex();
+	protected AdminUserFeed						adminUserFeed;
+	protected int								lobbyMailboxCapacity;
+	protected int								lobbyOverflowPolicy;
 
 	protected Map<Integer, KailleraUserImpl>	users;
 	protected Map<Integer, KailleraGameImpl>	games;
 
+	// Users and games are in concurrent maps, so reading them needs no lock.  Adding and removing users is done
+	// holding registryLock, and games holding gamesLock, so only lobby operations that touch the same thing wait for
+	// each other.  Events are published without either lock; the events that have to arrive in order, like a game
+	// being created and then closed, are already ordered by the user or game lock their caller holds.  Locks are
+	// always taken in the order: user, registryLock, gamesLock, game.
+	protected final Object						registryLock		= new Object();
+	protected final Object						gamesLock			= new Object();
+
 	private Trivia trivia = null;
 	private Thread triviaThread;
 	private boolean switchTrivia = false;
@@ -69,6 +86,7 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		this.accessManager = accessManager;
 		this.releaseInfo = releaseInfo;
 		this.autoFireDetectorFactory = autoFireDetectorFactory;
+		sendScheduler = new SendScheduler(threadPool);
 
 		maxPing = config.getInt("server.maxPing");
 		maxUsers = config.getInt("server.maxUsers");
@@ -108,6 +126,39 @@ public class KailleraServerImpl implements KailleraServer, Executable
 			throw new ConfigurationException("game.timeoutMillis can not be <= 0");
 
 		gameDesynchTimeouts = config.getInt("game.desynchTimeouts");
+
+		if (config.getBoolean("game.tickEngine.enabled", false))
+		{
+			int tickWorkers = config.getInt("game.tickEngine.workers", 2);
+			if (tickWorkers <= 0)
+				throw new ConfigurationException("game.tickEngine.workers can not be <= 0");
+
+			tickEngine = new GameTickEngine(threadPool, tickWorkers);
+		}
+		
+		if (config.getBoolean("server.mailbox.enabled", false))
+		{
+			int mailboxDispatchers = config.getInt("server.mailbox.dispatchers", 0);
+			if (mailboxDispatchers < 0)
+				throw new ConfigurationException("server.mailbox.dispatchers can not be < 0");
+			if (mailboxDispatchers == 0)
+				mailboxDispatchers = Runtime.getRuntime().availableProcessors();
+
+			mailboxExecutor = new UserMailboxExecutor(threadPool, mailboxDispatchers);
+		}
+
+		int adminFeedInterval = config.getInt("server.adminFeedInterval", 1000);
+		if (adminFeedInterval <= 0)
+			throw new ConfigurationException("server.adminFeedInterval can not be <= 0");
+		adminUserFeed = new AdminUserFeed(threadPool, adminFeedInterval, config.getBoolean("server.adminFeedDeltas", false));
+
+		lobbyMailboxCapacity = config.getInt("server.mailbox.lobbyCapacity", 512);
+		if (lobbyMailboxCapacity <= 0)
+			throw new ConfigurationException("server.mailbox.lobbyCapacity can not be <= 0");
+
+		lobbyOverflowPolicy = UserMailbox.parseOverflowPolicy(config.getString("server.mailbox.lobbyOverflow", "coalesce"));
+		if (lobbyOverflowPolicy < 0)
+			throw new ConfigurationException("server.mailbox.lobbyOverflow must be drop, coalesce or disconnect");
 		
 		gameAutoFireSensitivity = config.getInt("game.defaultAutoFireSensitivity");
 		if(gameAutoFireSensitivity < 0 || gameAutoFireSensitivity > 5)
@@ -203,13 +254,7 @@ public class KailleraServerImpl implements KailleraServer, Executable
 
 	public int getNumGamesPlaying()
 	{
-		int count = 0;
-		for (KailleraGameImpl game : getGames())
-		{
-			if (game.getStatus() != KailleraGame.STATUS_WAITING)
-				count++;
-		}
-		return count;
+		return (lobbyIndex.getNumGames(KailleraGame.STATUS_SYNCHRONIZING) + lobbyIndex.getNumGames(KailleraGame.STATUS_PLAYING));
 	}
 
 	public int getMaxPing()
@@ -283,6 +328,77 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		return threadPool;
 	}
 
+	/**
+	 * @return	The engine running gameplay for every game, or null if each player's thread runs its own gameplay
+	 */
+	public GameTickEngine getTickEngine()
+	{
+		return tickEngine;
+	}
+
+	public SendScheduler getSendScheduler()
+	{
+		return sendScheduler;
+	}
+
+	public EventBus getEventBus()
+	{
+		return eventBus;
+	}
+
+	public LobbySnapshot getLobbySnapshot()
+	{
+		return lobbySnapshot;
+	}
+
+	public LobbyIndex getLobbyIndex()
+	{
+		return lobbyIndex;
+	}
+
+	public AdminUserFeed getAdminUserFeed()
+	{
+		return adminUserFeed;
+	}
+
+	public UserMailboxExecutor getMailboxExecutor()
+	{
+		return mailboxExecutor;
+	}
+
+	public int getLobbyMailboxCapacity()
+	{
+		return lobbyMailboxCapacity;
+	}
+
+	public int getLobbyOverflowPolicy()
+	{
+		return lobbyOverflowPolicy;
+	}
+
+	/**
+	 * @return	The total and deepest lane depths of every user's mailbox, and how many lobby events have been dropped or
+	 *			coalesced since the server started
+	 */
+	public String getMailboxStats()
+	{
+		int game = 0;
+		int lobby = 0;
+		int maxGame = 0;
+		int maxLobby = 0;
+		for (KailleraUserImpl user : users.values())
+		{
+			UserMailbox mailbox = user.getMailbox();
+			int gameDepth = mailbox.getGameDepth();
+			int lobbyDepth = mailbox.getLobbyDepth();
+			game += gameDepth;
+			lobby += lobbyDepth;
+			maxGame = Math.max(maxGame, gameDepth);
+			maxLobby = Math.max(maxLobby, lobbyDepth);
+		}
+		return "game=" + game + " maxGame=" + maxGame + " lobby=" + lobby + " maxLobby=" + maxLobby + " dropped=" + UserMailbox.getTotalDropped() + " coalesced=" + UserMailbox.getTotalCoalesced();
+	}
+
 	public String toString()
 	{
 		return "KailleraServerImpl[numUsers=" + getNumUsers() + " numGames=" + getNumGames() + " isRunning=" + isRunning() + "]";   //$NON-NLS-4$
@@ -294,6 +410,12 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		log.debug("KailleraServer thread starting (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");  
 		stopFlag = false;
 		threadPool.execute(this);
+		if (tickEngine != null)
+			tickEngine.start();
+		if (mailboxExecutor != null)
+			mailboxExecutor.start();
+		sendScheduler.start();
+		adminUserFeed.start();
 		Thread.yield();
 	}
 
@@ -309,14 +431,26 @@ public class KailleraServerImpl implements KailleraServer, Executable
 
 		stopFlag = true;
 
+		if (tickEngine != null)
+			tickEngine.stop();
+
+		sendScheduler.stop();
+		adminUserFeed.stop();
+
 		for (KailleraUserImpl user : users.values())
 			user.stop();
 
+		if (mailboxExecutor != null)
+			mailboxExecutor.stop();
+
 		users.clear();
 		games.clear();
+		eventBus.clear();
+		lobbySnapshot.clear();
+		lobbyIndex.clear();
 	}
 
-	// not synchronized because I know the caller will be thread safe
+	// only called holding registryLock
 	protected int getNextUserID()
 	{
 		if (connectionCounter > 0xFFFF)
@@ -325,7 +459,7 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		return connectionCounter++;
 	}
 
-	// not synchronized because I know the caller will be thread safe
+	// only called holding gamesLock
 	protected int getNextGameID()
 	{
 		if (gameCounter > 0xFFFF)
@@ -349,7 +483,7 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		return releaseInfo;
 	}
 	
-	public synchronized KailleraUser newConnection(InetSocketAddress clientSocketAddress, String protocol, KailleraEventListener listener) throws ServerFullException, NewConnectionException
+	public KailleraUser newConnection(InetSocketAddress clientSocketAddress, String protocol, KailleraEventListener listener) throws ServerFullException, NewConnectionException
 	{
 		// we'll assume at this point that ConnectController has already asked AccessManager if this IP is banned, so no need to do it again here
 
@@ -357,29 +491,40 @@ public class KailleraServerImpl implements KailleraServer, Executable
 
 		int access = accessManager.getAccess(clientSocketAddress.getAddress());
 
-		// admins will be allowed in even if the server is full
-		if (getMaxUsers() > 0 && users.size() >= getMaxUsers() && !(access > AccessManager.ACCESS_NORMAL))
+		KailleraUserImpl user;
+		synchronized (registryLock)
 		{
-			log.warn("Connection from " + EmuUtil.formatSocketAddress(clientSocketAddress) + " denied: Server is full!"); 
-			throw new ServerFullException(EmuLang.getString("KailleraServerImpl.LoginDeniedServerFull"));
-		}
+			// admins will be allowed in even if the server is full
+			if (getMaxUsers() > 0 && users.size() >= getMaxUsers() && !(access > AccessManager.ACCESS_NORMAL))
+			{
+				log.warn("Connection from " + EmuUtil.formatSocketAddress(clientSocketAddress) + " denied: Server is full!"); 
+				throw new ServerFullException(EmuLang.getString("KailleraServerImpl.LoginDeniedServerFull"));
+			}
 		
-		int userID = getNextUserID();
-		KailleraUserImpl user = new KailleraUserImpl(userID, protocol, clientSocketAddress, listener, this);
-		user.setStatus(KailleraUser.STATUS_CONNECTING);
+			int userID = getNextUserID();
+			user = new KailleraUserImpl(userID, protocol, clientSocketAddress, listener, this);
+			user.setStatus(KailleraUser.STATUS_CONNECTING);
 
-		log.info(user + " attempting new connection using protocol " + protocol + " from " + EmuUtil.formatSocketAddress(clientSocketAddress)); 
+			log.info(user + " attempting new connection using protocol " + protocol + " from " + EmuUtil.formatSocketAddress(clientSocketAddress)); 
 
-		log.debug(user + " Thread starting (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");  
-		threadPool.execute(user);
-		Thread.yield();
-		log.debug(user + " Thread started (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");  
-		users.put(userID, user);
+			if (mailboxExecutor != null)
+			{
+				mailboxExecutor.register(user);
+			}
+			else
+			{
+				log.debug(user + " Thread starting (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");  
+				threadPool.execute(user);
+				Thread.yield();
+				log.debug(user + " Thread started (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");  
+			}
+			users.put(userID, user);
+		}
 
 		return user;
 	}
 
-	public synchronized void login(KailleraUser user) throws PingTimeException, ClientAddressException, ConnectionTypeException, UserNameException, LoginException
+	public void login(KailleraUser user) throws PingTimeException, ClientAddressException, ConnectionTypeException, UserNameException, LoginException
 	{
 		KailleraUserImpl userImpl = (KailleraUserImpl) user;
 		
@@ -501,137 +646,167 @@ public class KailleraServerImpl implements KailleraServer, Executable
 			throw new LoginException(EmuLang.getString("KailleraServerImpl.LoginDeniedEmulatorRestricted", user.getClientType()));
 		}
 
-		for (KailleraUserImpl u2 : getUsers())
+		// the checks above only look at this user; everything from here on looks at the other users, so nobody else may
+		// log in or quit until this user is in
+		KailleraUserImpl reconnected = null;
+		synchronized (registryLock)
 		{
-			if (u2.isLoggedIn())
+			// we may have timed out while being checked
+			if (users.get(userListKey) != u)
 			{
-				if (!u2.equals(u) && u.getConnectSocketAddress().getAddress().equals(u2.getConnectSocketAddress().getAddress()) && u.getName().equals(u2.getName()))
+				log.warn(user + " login denied: Connection timed out!");
+				throw new LoginException(EmuLang.getString("KailleraServerImpl.LoginDeniedConnectionTimedOut"));
+			}
+
+			// names are unique ignoring case, so there's at most one user to check
+			KailleraUserImpl u2 = lobbyIndex.getUser(u.getName());
+			if (u2 != null && !u2.equals(u) && u2.isLoggedIn())
+			{
+				if (u.getConnectSocketAddress().getAddress().equals(u2.getConnectSocketAddress().getAddress()) && u.getName().equals(u2.getName()))
 				{
 					// user is attempting to login more than once with the same name and address
-					// logoff the old user and login the new one
-
-					try
-					{
-						quit(u2, EmuLang.getString("KailleraServerImpl.ForcedQuitReconnected"));
-					}
-					catch (Exception e)
-					{
-						log.error("Error forcing " + u2 + " quit for reconnect!", e); 
-					}
+					// logoff the old user and login the new one; the rest of the quit waits until we let go of the lock
+					users.remove(u2.getID());
+					lobbyIndex.userQuit(u2);
+					u2.unsubscribe();
+					reconnected = u2;
 				}
-				else if(!u2.equals(u) && u2.getName().toLowerCase().trim().equals(u.getName().toLowerCase().trim())){
+				else
+				{
 					users.remove(userListKey);
 					log.warn(user + " login denied: Duplicating Names is not allowed! " + u2.getName());
 					throw new ClientAddressException("Duplicating names is not allowed: " + u2.getName());
 				}
-				
-				if (access == AccessManager.ACCESS_NORMAL && !u2.equals(u) && u.getConnectSocketAddress().getAddress().equals(u2.getConnectSocketAddress().getAddress()) && !u.getName().equals(u2.getName()) && !allowMultipleConnections)
+			}
+
+			if (access == AccessManager.ACCESS_NORMAL && !allowMultipleConnections)
+			{
+				for (KailleraUserImpl u3 : lobbyIndex.getUsers(u.getConnectSocketAddress().getAddress()))
 				{
-					users.remove(userListKey);
-					log.warn(user + " login denied: Address already logged in as " + u2.getName());
-					throw new ClientAddressException(EmuLang.getString("KailleraServerImpl.LoginDeniedAlreadyLoggedInAs", u2.getName()));
+					if (!u3.equals(u) && u3.isLoggedIn() && !u.getName().equals(u3.getName()))
+					{
+						users.remove(userListKey);
+						log.warn(user + " login denied: Address already logged in as " + u3.getName());
+						throw new ClientAddressException(EmuLang.getString("KailleraServerImpl.LoginDeniedAlreadyLoggedInAs", u3.getName()));
+					}
 				}
-				
-
 			}
-		}
 
-		// passed all checks
+			// passed all checks
 		
-		userImpl.setAccess(access);
-		userImpl.setStatus(KailleraUser.STATUS_IDLE);
-		userImpl.setLoggedIn();
-		users.put(userListKey, userImpl);
-		userImpl.addEvent(new ConnectedEvent(this, user));
-		try { Thread.sleep(20); } catch(Exception e) {}
-
-		for (String loginMessage : loginMessages){
-			userImpl.addEvent(new InfoMessageEvent(user, loginMessage));
-			try { Thread.sleep(20); } catch(Exception e) {}
+			userImpl.setAccess(access);
+			userImpl.setStatus(KailleraUser.STATUS_IDLE);
+			userImpl.setLoggedIn();
+			users.put(userListKey, userImpl);
+			lobbyIndex.userLoggedIn(userImpl);
+			userImpl.subscribe();
+			userImpl.addEvent(new ConnectedEvent(this, user));
 		}
-		
+
+		if (reconnected != null)
+		{
+			try
+			{
+				quitRemoved(reconnected, EmuLang.getString("KailleraServerImpl.ForcedQuitReconnected"));
+			}
+			catch (Exception e)
+			{
+				log.error("Error forcing " + reconnected + " quit for reconnect!", e); 
+			}
+		}
+
 		if (access > AccessManager.ACCESS_NORMAL)
 			log.info(user + " logged in successfully with " + AccessManager.ACCESS_NAMES[access] + " access!"); 
 		else
 			log.info(user + " logged in successfully");
 
+		// the welcome messages are paced by the send scheduler so we don't sleep holding a lock; the user can create
+		// and join games straight away, but isn't announced, and so isn't in anyone's user list, until they have all gone out
+		SendScheduler.Sequence welcome = sendScheduler.newSequence(userImpl);
+		for (String loginMessage : loginMessages)
+			welcome.add(20, new InfoMessageEvent(user, loginMessage));
+
+		long userTableVersion = -1;
+
 		// this is fairly ugly
 		if(user.isEmuLinkerClient())
 		{
-			userImpl.addEvent(new InfoMessageEvent(user, ":ACCESS="+userImpl.getAccessStr()));
+			welcome.add(20, new InfoMessageEvent(user, ":ACCESS="+userImpl.getAccessStr()));
 			
+			// superadmins get the user table here, and then each user that joins, or if they take deltas, only what
+			// changes once it has all been sent
 			if(access >= AccessManager.ACCESS_SUPERADMIN)
-			{
-				StringBuilder sb = new StringBuilder();
-				sb.append(":USERINFO=");
-				int sbCount = 0;
-				for (KailleraUserImpl u3 : getUsers())
-				{
-					if (!u3.isLoggedIn())
-						continue;
-					
-					sb.append(u3.getID());
-					sb.append((char)0x02);
-					sb.append(u3.getConnectSocketAddress().getAddress().getHostAddress());
-					sb.append((char)0x02);
-					sb.append(u3.getAccessStr());
-					sb.append((char)0x02);
-					//str = u3.getName().replace(',','.');
-					//str = str.replace(';','.');
-					sb.append(u3.getName());
-					sb.append((char)0x02);
-					sb.append(u3.getPing());
-					sb.append((char)0x02);
-					sb.append(u3.getStatus());
-					sb.append((char)0x02);
-					sb.append(u3.getConnectionType());
-					sb.append((char)0x03);
-					sbCount++;
-					
-					if(sb.length() > 300)
-					{
-						((KailleraUserImpl) user).addEvent(new InfoMessageEvent(user, sb.toString()));
-						sb = new StringBuilder();
-						sb.append(":USERINFO=");
-						sbCount = 0;
-						try { Thread.sleep(100); } catch(Exception e) {}
-					}
-				}
-				if(sbCount > 0)
-					((KailleraUserImpl) user).addEvent(new InfoMessageEvent(user, sb.toString()));
-				try { Thread.sleep(100); } catch(Exception e) {}
-			}
+				userTableVersion = adminUserFeed.addTable(welcome, user);
 		}
 		
-		try { Thread.sleep(20); } catch(Exception e) {}
 		if (access >= AccessManager.ACCESS_ADMIN)
-			userImpl.addEvent(new InfoMessageEvent(user, EmuLang.getString("KailleraServerImpl.AdminWelcomeMessage")));
-		
-		try { Thread.sleep(20); } catch(Exception e) {}
-		userImpl.addEvent(new InfoMessageEvent(user, getReleaseInfo().getProductName() + " v" + getReleaseInfo().getVersionString() + ": " + getReleaseInfo().getReleaseDate() + " - Visit: https://god-weapon.github.io"));		
+			welcome.add(20, new InfoMessageEvent(user, EmuLang.getString("KailleraServerImpl.AdminWelcomeMessage")));
 		
-		try { Thread.sleep(20); } catch(Exception e) {}
-		addEvent(new UserJoinedEvent(this, user));
+		welcome.add(20, new InfoMessageEvent(user, getReleaseInfo().getProductName() + " v" + getReleaseInfo().getVersionString() + ": " + getReleaseInfo().getReleaseDate() + " - Visit: https://god-weapon.github.io"));		
 		
-		try { Thread.sleep(20); } catch(Exception e) {}
+		final long adminTableVersion = userTableVersion;
+		welcome.then(20, new Runnable()
+		{
+			public void run()
+			{
+				completeLogin(userImpl);
+				if (adminTableVersion >= 0)
+					adminUserFeed.subscribe(userImpl, adminTableVersion);
+			}
+		});
+		welcome.start();
+	}
+
+	/**
+	 * Announces a user once its welcome messages have been sent.
+	 */
+	protected void completeLogin(KailleraUserImpl user)
+	{
+		synchronized (registryLock)
+		{
+			// the user may have quit or been kicked in the meantime
+			if (!user.isLoggedIn() || users.get(user.getID()) != user)
+				return;
+
+			addEvent(new UserJoinedEvent(this, user));
+		}
+
 		String announcement = accessManager.getAnnouncement(user.getSocketAddress().getAddress());
 		if (announcement != null)
 			announce(announcement, false, null);		
 	}
 
-	public synchronized void quit(KailleraUser user, String message) throws QuitException, DropGameException, QuitGameException, CloseGameException
+	public void quit(KailleraUser user, String message) throws QuitException, DropGameException, QuitGameException, CloseGameException
 	{
-		if (!user.isLoggedIn())
+		synchronized (registryLock)
 		{
-			users.remove(user.getID());
-			log.error(user + " quit failed: Not logged in");
-			throw new QuitException(EmuLang.getString("KailleraServerImpl.NotLoggedIn"));
+			if (!user.isLoggedIn())
+			{
+				users.remove(user.getID());
+				log.error(user + " quit failed: Not logged in");
+				throw new QuitException(EmuLang.getString("KailleraServerImpl.NotLoggedIn"));
+			}
+
+			if (users.remove(user.getID()) == null)
+			{
+				// already taken out, and so already quit, by a reconnect or a forced quit
+				log.debug(user + " quit ignored: not in user list");
+				return;
+			}
+
+			lobbyIndex.userQuit((KailleraUserImpl) user);
+			((KailleraUserImpl) user).unsubscribe();
 		}
 
-		if (users.remove(user.getID()) == null)
-			log.error(user + " quit failed: not in user list");
-			
+		quitRemoved(user, message);
+	}
 
+	/**
+	 * Finishes quitting a user that has already been taken out of the user list.  Called without holding registryLock,
+	 * since leaving the user's game takes the user's and the game's locks.
+	 */
+	private void quitRemoved(KailleraUser user, String message) throws DropGameException, QuitGameException, CloseGameException
+	{
 		KailleraGameImpl userGame = ((KailleraUserImpl) user).getGame();
 		if (userGame != null)
 			user.quitGame();
@@ -653,7 +828,7 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		((KailleraUserImpl) user).addEvent(quitEvent);
 	}
 
-	public synchronized void chat(KailleraUser user, String message) throws ChatException, FloodException
+	public void chat(KailleraUser user, String message) throws ChatException, FloodException
 	{
 		if (!user.isLoggedIn())
 		{
@@ -708,13 +883,17 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		addEvent(new ChatEvent(this, user, message));
 
 		if(switchTrivia){
-			if(!trivia.isAnswered() && trivia.isCorrect(message)){
-				trivia.addScore(user.getName(), user.getSocketAddress().getAddress().getHostAddress(), message);
+			// trivia doesn't do its own locking, and chat no longer holds the whole server
+			synchronized (trivia)
+			{
+				if(!trivia.isAnswered() && trivia.isCorrect(message)){
+					trivia.addScore(user.getName(), user.getSocketAddress().getAddress().getHostAddress(), message);
+				}
 			}
 		}
 	}
 
-	public synchronized KailleraGame createGame(KailleraUser user, String romName) throws CreateGameException, FloodException
+	public KailleraGame createGame(KailleraUser user, String romName) throws CreateGameException, FloodException
 	{
 		if (!user.isLoggedIn())
 		{
@@ -749,12 +928,6 @@ public class KailleraServerImpl implements KailleraServer, Executable
 				throw new FloodException(EmuLang.getString("KailleraServerImpl.CreateGameDeniedFloodControl"));
 			}
 
-			if (maxGames > 0 && getNumGames() >= maxGames)
-			{
-				log.warn(user + " create game denied: Over maximum of " + maxGames + " current games!"); 
-				throw new CreateGameException(EmuLang.getString("KailleraServerImpl.CreateGameDeniedMaxGames", maxGames));
-			}
-
 			char[] chars = romName.toCharArray();
 			for (int i = 0; i < chars.length; i++)
 			{
@@ -781,10 +954,22 @@ public class KailleraServerImpl implements KailleraServer, Executable
 
 		KailleraGameImpl game = null;
 
-		int gameID = getNextGameID();
-		game = new KailleraGameImpl(gameID, romName, (KailleraUserImpl) user, this, gameBufferSize, gameTimeoutMillis, gameDesynchTimeouts);
-		games.put(gameID, game);
+		synchronized (gamesLock)
+		{
+			if (access == AccessManager.ACCESS_NORMAL && maxGames > 0 && getNumGames() >= maxGames)
+			{
+				log.warn(user + " create game denied: Over maximum of " + maxGames + " current games!"); 
+				throw new CreateGameException(EmuLang.getString("KailleraServerImpl.CreateGameDeniedMaxGames", maxGames));
+			}
+
+			int gameID = getNextGameID();
+			game = new KailleraGameImpl(gameID, romName, (KailleraUserImpl) user, this, gameBufferSize, gameTimeoutMillis, gameDesynchTimeouts);
+			games.put(gameID, game);
+			lobbyIndex.gameCreated(game);
+		}
 
+		// published after letting go of gamesLock so other creates and closes don't wait behind everyone being told;
+		// the owner's lock, held by the caller, keeps this ahead of the game's GameClosedEvent
 		addEvent(new GameCreatedEvent(this, game));
 
 		log.info(user + " created: " + game + ": " + game.getRomName()); 
@@ -804,22 +989,26 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		return game;
 	}
 
-	synchronized void closeGame(KailleraGame game, KailleraUser user) throws CloseGameException
+	void closeGame(KailleraGame game, KailleraUser user) throws CloseGameException
 	{
-		if (!user.isLoggedIn())
+		synchronized (gamesLock)
 		{
-			log.error(user + " close " + game + " failed: Not logged in"); 
-			throw new CloseGameException(EmuLang.getString("KailleraServerImpl.NotLoggedIn"));
-		}
+			if (!user.isLoggedIn())
+			{
+				log.error(user + " close " + game + " failed: Not logged in"); 
+				throw new CloseGameException(EmuLang.getString("KailleraServerImpl.NotLoggedIn"));
+			}
 
-		if (!games.containsKey(game.getID()))
-		{
-			log.error(user + " close " + game + " failed: not in list: " + game); 
-			return;
-		}
+			if (!games.containsKey(game.getID()))
+			{
+				log.error(user + " close " + game + " failed: not in list: " + game); 
+				return;
+			}
 
-		((KailleraGameImpl) game).close(user);
-		games.remove(game.getID());
+			((KailleraGameImpl) game).close(user);
+			games.remove(game.getID());
+			lobbyIndex.gameClosed((KailleraGameImpl) game);
+		}
 
 		log.info(user + " closed: " + game);
 		addEvent(new GameClosedEvent(this, game));
@@ -880,7 +1069,7 @@ public class KailleraServerImpl implements KailleraServer, Executable
 	{
 		if(user != null){
 			if(gamesAlso){//   /msg and /me commands
-				for (KailleraUserImpl kailleraUser : getUsers())
+				for (KailleraUserImpl kailleraUser : lobbyIndex.getUsers())
 				{
 					if (kailleraUser.isLoggedIn()){
 						int access = accessManager.getAccess(user.getConnectSocketAddress().getAddress());
@@ -910,7 +1099,8 @@ public class KailleraServerImpl implements KailleraServer, Executable
 		}
 		
 
-		for (KailleraUserImpl kailleraUser : getUsers())
+		// only logged in users are indexed, so this skips everyone still connecting
+		for (KailleraUserImpl kailleraUser : lobbyIndex.getUsers())
 		{
 			if (kailleraUser.isLoggedIn()){
 				kailleraUser.addEvent(new InfoMessageEvent(kailleraUser, announcement));
@@ -928,40 +1118,9 @@ public class KailleraServerImpl implements KailleraServer, Executable
 
 	protected void addEvent(ServerEvent event)
 	{
-		for (KailleraUserImpl user : users.values())
-		{
-			if(user.isLoggedIn()){
-				if(user.getStatus() != KailleraUser.STATUS_IDLE){
-					if(user.getP2P()){
-						if(event.toString().equals("GameDataEvent"))
-							user.addEvent(event);
-						else if(event.toString().equals("ChatEvent"))
-							continue;
-						else if(event.toString().equals("UserJoinedEvent"))
-							continue;
-						else if(event.toString().equals("UserQuitEvent"))
-							continue;
-						else if(event.toString().equals("GameStatusChangedEvent"))
-							continue;
-						else if(event.toString().equals("GameClosedEvent"))
-							continue;
-						else if(event.toString().equals("GameCreatedEvent"))
-							continue;
-						else
-							user.addEvent(event);
-					}
-					else{
-						user.addEvent(event);
-					}
-				}
-				else{
-					user.addEvent(event);
-				}
-			}
-			else{
-				log.debug(user + ": not adding event, not logged in: " + event);
-			}
-		}
+		lobbySnapshot.apply(event);
+		adminUserFeed.apply(event);
+		eventBus.publish(event);
 	}
 
 	public void run()
@@ -990,12 +1149,20 @@ public class KailleraServerImpl implements KailleraServer, Executable
 				if (users.isEmpty())
 					continue;
 
+				// a user's access only needs looking up again if the rules have changed since it was last looked up
+				long accessGeneration = accessManager.getGeneration();
+
 				for (KailleraUserImpl user : getUsers())
 				{
 					synchronized (user)
 					{
-						int access = accessManager.getAccess(user.getConnectSocketAddress().getAddress());
-						((KailleraUserImpl) user).setAccess(access);
+						int access = user.getAccess();
+						if (user.getAccessGeneration() != accessGeneration)
+						{
+							access = accessManager.getAccess(user.getConnectSocketAddress().getAddress());
+							user.setAccess(access);
+							user.setAccessGeneration(accessGeneration);
+						}
 						
 						//LagStat
 						if(user.isLoggedIn()){
@@ -1024,6 +1191,18 @@ public class KailleraServerImpl implements KailleraServer, Executable
 								log.error("Error forcing " + user + " quit for keepalive timeout!", e); 
 							}
 						}
+						else if (user.isLoggedIn() && user.getMailbox().isOverflowed())
+						{
+							log.info(user + " event overflow: " + user.getMailbox().getLobbyDepth() + " lobby events queued!");
+							try
+							{
+								quit(user, EmuLang.getString("KailleraServerImpl.ForcedQuitEventOverflow"));
+							}
+							catch (Exception e)
+							{
+								log.error("Error forcing " + user + " quit for event overflow!", e); 
+							}
+						}
 						else if (idleTimeout > 0 && access == AccessManager.ACCESS_NORMAL && user.isLoggedIn() && (System.currentTimeMillis() - user.getLastActivity()) > (idleTimeout * 1000))
 						{
 							log.info(user + " inactivity timeout!");
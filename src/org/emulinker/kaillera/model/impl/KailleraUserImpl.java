@@ -4,7 +4,7 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.*;
 
@@ -37,6 +37,8 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 	private boolean							loggedIn;
 	private String							toString;
 	private int								access;
+	// the access manager generation access was last looked up under
+	private long							accessGeneration	= -1;
 	private boolean							emulinkerClient;
 
 	private long							connectTime;
@@ -63,7 +65,12 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 	private int                             lastMsgID = -1;
 	private boolean                         mute = false;
 
-	private List<byte[]>			        lostInput		= new ArrayList<byte[]>();
+	// input held back during the initial delay, replayed oldest first once it is over
+	private byte[][]						lostInput		= new byte[16][];
+	private int								lostInputHead	= 0;
+	private int								lostInputCount	= 0;
+	// sent for every frame of the initial delay; never modified, so it can be shared by every event
+	private byte[]							delayResponse;
 	private boolean							hasData = false;
 	private List<String>			        ignoredUsers		= new ArrayList<String>();
 
@@ -73,7 +80,14 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 	private boolean							stopFlag			= false;
 
 	private KailleraEventListener			listener;
-	private BlockingQueue<KailleraEvent>	eventQueue			= new LinkedBlockingQueue<KailleraEvent>();
+	private UserMailbox						mailbox;
+	// the EventBus topics this user is subscribed to
+	private Object							subscriptionLock	= new Object();
+	private boolean							subscribed			= false;
+	private int								topics				= 0;
+	// only used when events are delivered by a UserMailboxExecutor instead of run()
+	private UserMailboxExecutor				mailboxExecutor;
+	private AtomicBoolean					scheduled			= new AtomicBoolean(false);
 
 	public KailleraUserImpl(int userID, String protocol, InetSocketAddress connectSocketAddress, KailleraEventListener listener, KailleraServerImpl server)
 	{
@@ -83,6 +97,8 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 		this.server = server;
 		this.listener = listener;
 
+		mailbox = new UserMailbox(server.getLobbyMailboxCapacity(), server.getLobbyOverflowPolicy());
+
 		toString = "User" + userID + "(" + connectSocketAddress.getAddress().getHostAddress() + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
 		lastChatTime = lastCreateGameTime = lastTimeout = 0;
@@ -180,12 +196,35 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 	}
 	
 	public byte[] getLostInput(){
-		return lostInput.get(0);
+		if(lostInputCount == 0)
+			return null;
+		return lostInput[lostInputHead];
+	}
+	
+	private void addLostInput(byte[] data){
+		if(lostInputCount == lostInput.length){
+			byte[][] grown = new byte[lostInput.length * 2][];
+			for(int i = 0; i < lostInputCount; i++)
+				grown[i] = lostInput[(lostInputHead + i) % lostInput.length];
+			lostInput = grown;
+			lostInputHead = 0;
+		}
+		
+		// data can be a client cache's scratch array, which is reused by the next CachedGameData
+		lostInput[(lostInputHead + lostInputCount) % lostInput.length] = data.clone();
+		lostInputCount++;
+	}
+	
+	private void removeLostInput(){
+		lostInput[lostInputHead] = null;
+		lostInputHead = ((lostInputHead + 1) % lostInput.length);
+		lostInputCount--;
 	}
 	
 	
 	public void setP2P(boolean p2P){
 		this.p2P = p2P;
+		updateSubscriptions();
 	}
 	
 	public void setMsg(boolean msg){
@@ -369,6 +408,9 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 	protected void setStatus(int status)
 	{
 		this.status = status;
+		updateSubscriptions();
+		server.getLobbySnapshot().userChanged(this);
+		server.getAdminUserFeed().userChanged(this);
 	}
 
 	protected long getLastChatTime()
@@ -403,7 +445,21 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 
 	protected void setAccess(int access)
 	{
+		if (this.access == access)
+			return;
+
 		this.access = access;
+		server.getAdminUserFeed().userChanged(this);
+	}
+
+	protected long getAccessGeneration()
+	{
+		return accessGeneration;
+	}
+
+	protected void setAccessGeneration(long accessGeneration)
+	{
+		this.accessGeneration = accessGeneration;
 	}
 
 	public int getPlayerNumber()
@@ -475,12 +531,17 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 	
 			stopFlag = true;
 	
-			try
-			{
-				Thread.sleep(500);
-			}
-			catch (Exception e)
+			// the mailbox delivers everything queued ahead of the StopFlagEvent anyway, and sleeping here would hold
+			// up a shared dispatcher
+			if (mailboxExecutor == null)
 			{
+				try
+				{
+					Thread.sleep(500);
+				}
+				catch (Exception e)
+				{
+				}
 			}
 	
 			addEvent(new StopFlagEvent());
@@ -732,22 +793,19 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 			if(frameCount < totalDelay){
 				bytesPerAction = (data.length / connectionType);
 				arraySize = (game.getPlayerActionQueue().length * connectionType * bytesPerAction);
-				byte[] response = new byte[arraySize];
-				
-				for(int i = 0; i < response.length; i++){
-					response[i] = 0;
-				}
+				if(delayResponse == null || delayResponse.length != arraySize)
+					delayResponse = new byte[arraySize];
 						
-				lostInput.add(data);
-				addEvent(new GameDataEvent(game, response));
+				addLostInput(data);
+				addEvent(new GameDataEvent(game, delayResponse));
 
 				frameCount++;
 			}
 			else{			
 				//lostInput.add(data);
-				if(lostInput.size() > 0){
-					game.addData(this, playerNumber, lostInput.get(0));
-					lostInput.remove(0);
+				if(lostInputCount > 0){
+					game.addData(this, playerNumber, lostInput[lostInputHead]);
+					removeLostInput();
 				}
 				else{
 					game.addData(this, playerNumber, data);
@@ -799,12 +857,139 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 
 		if(status != STATUS_IDLE){
 			if(p2P){
-				if(event.toString() == "InfoMessageEvent")
+				if(event instanceof InfoMessageEvent)
 					return;
 			}
 		}
 
-		eventQueue.offer(event);
+		if (!mailbox.offer(event))
+			return;
+
+		if (mailboxExecutor != null)
+			mailboxExecutor.schedule(this);
+	}
+
+	private void handleEvent(KailleraEvent event)
+	{
+		listener.actionPerformed(event);
+
+		if (event instanceof GameStartedEvent)
+		{
+			setStatus(KailleraUser.STATUS_PLAYING);
+		}
+		else if (event instanceof UserQuitEvent && ((UserQuitEvent) event).getUser().equals(this))
+		{
+			stop();
+		}
+	}
+
+	/**
+	 * Has this user's events delivered by a UserMailboxExecutor instead of by run().
+	 */
+	void startMailbox(UserMailboxExecutor mailboxExecutor)
+	{
+		this.mailboxExecutor = mailboxExecutor;
+		isRunning = true;
+		log.debug(this + " mailbox running..."); //$NON-NLS-1$
+	}
+
+	UserMailbox getMailbox()
+	{
+		return mailbox;
+	}
+
+	/**
+	 * Starts receiving server events, once the user has logged in.
+	 */
+	void subscribe()
+	{
+		synchronized (subscriptionLock)
+		{
+			subscribed = true;
+			updateSubscriptions();
+		}
+	}
+
+	void unsubscribe()
+	{
+		synchronized (subscriptionLock)
+		{
+			subscribed = false;
+			server.getEventBus().changeTopics(this, topics, 0);
+			topics = 0;
+		}
+	}
+
+	private void updateSubscriptions()
+	{
+		synchronized (subscriptionLock)
+		{
+			if (!subscribed)
+				return;
+
+			// P2P players are left alone while they're in a game
+			int wanted = ((status != STATUS_IDLE && p2P) ? EventBus.P2P_TOPICS : EventBus.ALL_TOPICS);
+			server.getEventBus().changeTopics(this, topics, wanted);
+			topics = wanted;
+		}
+	}
+
+	boolean markScheduled()
+	{
+		return (isRunning && scheduled.compareAndSet(false, true));
+	}
+
+	void clearScheduled()
+	{
+		scheduled.set(false);
+	}
+
+	boolean hasMail()
+	{
+		return (isRunning && !mailbox.isEmpty());
+	}
+
+	/**
+	 * Delivers up to max queued events.  Only called by the UserMailboxExecutor dispatcher that has this user
+	 * scheduled, so events are never delivered by two threads at once.
+	 *
+	 * @return	The number of events delivered
+	 */
+	int drainMailbox(int max)
+	{
+		int delivered = 0;
+		try
+		{
+			while (delivered < max && isRunning)
+			{
+				KailleraEvent event = mailbox.poll();
+				if (event == null)
+					break;
+
+				if (event instanceof StopFlagEvent)
+				{
+					closeMailbox();
+					break;
+				}
+
+				handleEvent(event);
+				delivered++;
+			}
+		}
+		catch (Throwable e)
+		{
+			log.fatal(this + " mailbox caught unexpected exception!", e); //$NON-NLS-1$
+			closeMailbox();
+		}
+		return delivered;
+	}
+
+	private void closeMailbox()
+	{
+		isRunning = false;
+		mailbox.clear();
+		mailboxExecutor.unregister(this);
+		log.debug(this + " mailbox closed..."); //$NON-NLS-1$
 	}
 
 	public void run()
@@ -816,23 +1001,14 @@ public final class KailleraUserImpl implements KailleraUser, Executable
 		{
 			while (!stopFlag)
 			{
-				KailleraEvent event = eventQueue.poll(200, TimeUnit.SECONDS);
+				KailleraEvent event = mailbox.take(200000);
 
 				if (event == null)
 					continue;
 				else if (event instanceof StopFlagEvent)
 					break;
 
-				listener.actionPerformed(event);
-
-				if (event instanceof GameStartedEvent)
-				{
-					setStatus(KailleraUser.STATUS_PLAYING);
-				}
-				else if (event instanceof UserQuitEvent && ((UserQuitEvent) event).getUser().equals(this))
-				{
-					stop();
-				}
+				handleEvent(event);
 			}
 		}
 		catch (InterruptedException e)
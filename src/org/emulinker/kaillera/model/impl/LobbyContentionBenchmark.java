@@ -0,0 +1,348 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.emulinker.kaillera.access.AccessManager;
+import org.emulinker.kaillera.model.*;
+import org.emulinker.kaillera.model.event.*;
+import org.emulinker.kaillera.release.KailleraServerReleaseInfo;
+
+/**
+ * Measures how long lobby operations wait for each other on a busy server.  A number of users each chat, create games
+ * and join each other's games as fast as they can, while a few more threads keep logging new users in and out, and
+ * the time every call into the server takes is recorded by operation.  No network is involved, so the times are
+ * almost all time spent running or waiting for locks.  Run with the conf directory on the classpath for the language
+ * strings:<br>
+ * <br>
+ * java -cp build/emulinker.jar:lib/*:conf org.emulinker.kaillera.model.impl.LobbyContentionBenchmark [users] [seconds] [thinkMillis]<br>
+ * <br>
+ * thinkMillis is how long each user waits between operations; too short and the users keep every core busy, and the
+ * times measure waiting to run instead of waiting for locks.
+ */
+public class LobbyContentionBenchmark
+{
+	private static final String[]	OPS		= { "chat", "create", "join", "login", "quit" };
+
+	private KailleraServerImpl		server;
+	private int						thinkMillis;
+	private AtomicBoolean			running	= new AtomicBoolean(true);
+	private List<List<long[]>>		times;
+
+	private LobbyContentionBenchmark(KailleraServerImpl server, int thinkMillis)
+	{
+		this.server = server;
+		this.thinkMillis = thinkMillis;
+		times = new ArrayList<List<long[]>>(OPS.length);
+		for (int i = 0; i < OPS.length; i++)
+			times.add(Collections.synchronizedList(new ArrayList<long[]>()));
+	}
+
+	public static void main(String args[]) throws Exception
+	{
+		int numUsers = (args.length > 0 ? Integer.parseInt(args[0]) : 200);
+		int seconds = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+		int thinkMillis = (args.length > 2 ? Integer.parseInt(args[2]) : 10);
+		int numChurners = 4;
+
+		// normally set by the startup script
+		if (System.getProperty("emulinker.charset") == null)
+			System.setProperty("emulinker.charset", "ISO-8859-1");
+
+		BaseConfiguration config = new BaseConfiguration();
+		config.addProperty("server.maxPing", "1000");
+		config.addProperty("server.maxUsers", "0");
+		config.addProperty("server.maxGames", "0");
+		config.addProperty("server.keepAliveTimeout", "190");
+		config.addProperty("server.idleTimeout", "0");
+		config.addProperty("server.chatFloodTime", "0");
+		config.addProperty("server.createGameFloodTime", "0");
+		config.addProperty("server.allowSinglePlayer", "true");
+		config.addProperty("server.allowMultipleConnections", "true");
+		config.addProperty("server.maxUserNameLength", "31");
+		config.addProperty("server.maxChatLength", "150");
+		config.addProperty("server.maxGameNameLength", "127");
+		config.addProperty("server.maxQuitMessageLength", "100");
+		config.addProperty("server.maxClientNameLength", "127");
+		config.addProperty("server.allowedConnectionTypes", "1,2,3,4,5,6");
+		config.addProperty("game.bufferSize", "4096");
+		config.addProperty("game.timeoutMillis", "1000");
+		config.addProperty("game.desynchTimeouts", "120");
+		config.addProperty("game.defaultAutoFireSensitivity", "0");
+
+		ThreadPoolExecutor threadPool = new ThreadPoolExecutor(20, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		KailleraServerImpl server = new KailleraServerImpl(threadPool, new OpenAccessManager(), config, null, new KailleraServerReleaseInfo(), new AutoFireDetectorFactoryImpl());
+		server.start();
+
+		LobbyContentionBenchmark benchmark = new LobbyContentionBenchmark(server, thinkMillis);
+
+		List<KailleraUserImpl> users = new ArrayList<KailleraUserImpl>();
+		for (int i = 0; i < numUsers; i++)
+			users.add(benchmark.login("user" + i, i));
+		// wait for every user to be announced, so the welcome messages are out of the way
+		while (server.getLobbySnapshot().getView().getUsers().size() < numUsers)
+			Thread.sleep(10);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < numUsers; i++)
+			threads.add(new Thread(benchmark.new LobbyUser(users.get(i), i)));
+		for (int i = 0; i < numChurners; i++)
+			threads.add(new Thread(benchmark.new Churner(i)));
+
+		for (Thread thread : threads)
+			thread.start();
+		Thread.sleep(seconds * 1000L);
+		benchmark.running.set(false);
+		for (Thread thread : threads)
+			thread.join();
+
+		System.out.println("LobbyContentionBenchmark: users=" + numUsers + " churners=" + numChurners + " seconds=" + seconds + " thinkMillis=" + thinkMillis);
+		for (int i = 0; i < OPS.length; i++)
+			System.out.println(benchmark.summarize(i, seconds));
+
+		// stopping the server properly waits for every user's thread
+		System.exit(0);
+	}
+
+	private KailleraUserImpl login(String name, int port) throws Exception
+	{
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), (1024 + (port % 60000)));
+		KailleraUserImpl user = (KailleraUserImpl) server.newConnection(address, "v086", new NullListener());
+		user.setName(name);
+		user.setClientType("Benchmark");
+		user.setConnectionType(KailleraUser.CONNECTION_TYPE_LAN);
+		user.setSocketAddress(address);
+		user.setPing(10);
+		user.login();
+		return user;
+	}
+
+	private String summarize(int op, int seconds)
+	{
+		List<Long> all = new ArrayList<Long>();
+		synchronized (times.get(op))
+		{
+			for (long[] chunk : times.get(op))
+			{
+				for (int i = 1; i <= chunk[0]; i++)
+					all.add(chunk[i]);
+			}
+		}
+
+		if (all.isEmpty())
+			return OPS[op] + ": none";
+
+		Collections.sort(all);
+		return OPS[op] + ": count=" + all.size() + " perSecond=" + (all.size() / seconds) + " p50=" + micros(all.get(all.size() / 2)) + " p99=" + micros(all.get((int) (all.size() * 0.99))) + " max=" + micros(all.get(all.size() - 1));
+	}
+
+	private static String micros(long nanos)
+	{
+		return (nanos / 1000) + "us";
+	}
+
+	/**
+	 * Records call times for one thread in chunks, so threads don't contend on the list for every call.
+	 */
+	private class Recorder
+	{
+		private long[][]	chunks	= new long[OPS.length][];
+
+		private void record(int op, long nanos)
+		{
+			long[] chunk = chunks[op];
+			if (chunk == null || chunk[0] == (chunk.length - 1))
+			{
+				chunk = new long[1025];
+				chunks[op] = chunk;
+				times.get(op).add(chunk);
+			}
+			chunk[(int) ++chunk[0]] = nanos;
+		}
+	}
+
+	private class LobbyUser implements Runnable
+	{
+		private KailleraUserImpl	user;
+		private Random				random;
+		private Recorder			recorder	= new Recorder();
+
+		private LobbyUser(KailleraUserImpl user, int seed)
+		{
+			this.user = user;
+			this.random = new Random(seed);
+		}
+
+		public void run()
+		{
+			int count = 0;
+			while (running.get())
+			{
+				int choice = random.nextInt(20);
+				try
+				{
+					long st = System.nanoTime();
+					if (choice < 14)
+					{
+						user.chat("message " + count++);
+						recorder.record(0, (System.nanoTime() - st));
+					}
+					else if (choice < 17)
+					{
+						user.createGame("Benchmark ROM " + user.getID());
+						recorder.record(1, (System.nanoTime() - st));
+						Thread.sleep(random.nextInt(20));
+						user.quitGame();
+					}
+					else
+					{
+						KailleraGame game = pickGame();
+						if (game == null)
+							continue;
+
+						st = System.nanoTime();
+						user.joinGame(game.getID());
+						recorder.record(2, (System.nanoTime() - st));
+						Thread.sleep(random.nextInt(20));
+						user.quitGame();
+					}
+					Thread.sleep(thinkMillis);
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				catch (Exception e)
+				{
+					// a game that closed or filled up before we got in
+				}
+			}
+		}
+
+		private KailleraGame pickGame()
+		{
+			List<KailleraGameImpl> games = new ArrayList<KailleraGameImpl>(server.getGames());
+			if (games.isEmpty())
+				return null;
+			KailleraGame game = games.get(random.nextInt(games.size()));
+			return (game.getStatus() == KailleraGame.STATUS_WAITING && game.getNumPlayers() < game.getMaxUsers() ? game : null);
+		}
+	}
+
+	private class Churner implements Runnable
+	{
+		private int			index;
+		private Recorder	recorder	= new Recorder();
+
+		private Churner(int index)
+		{
+			this.index = index;
+		}
+
+		public void run()
+		{
+			int count = 0;
+			while (running.get())
+			{
+				try
+				{
+					long st = System.nanoTime();
+					KailleraUserImpl user = login("churn" + index + "-" + count, (50000 + (index * 1000) + (count % 1000)));
+					recorder.record(3, (System.nanoTime() - st));
+					count++;
+
+					Thread.sleep(5);
+
+					st = System.nanoTime();
+					user.quit("bye");
+					recorder.record(4, (System.nanoTime() - st));
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				catch (Exception e)
+				{
+					System.out.println("Churner " + index + " failed: " + e);
+				}
+			}
+		}
+	}
+
+	private static class NullListener implements KailleraEventListener
+	{
+		public void actionPerformed(KailleraEvent event)
+		{
+		}
+
+		public void stop()
+		{
+		}
+	}
+
+	private static class OpenAccessManager implements AccessManager
+	{
+		public boolean isAddressAllowed(InetAddress address)
+		{
+			return true;
+		}
+
+		public boolean isSilenced(InetAddress address)
+		{
+			return false;
+		}
+
+		public boolean isEmulatorAllowed(String emulator)
+		{
+			return true;
+		}
+
+		public boolean isGameAllowed(String game)
+		{
+			return true;
+		}
+
+		public int getAccess(InetAddress address)
+		{
+			return ACCESS_NORMAL;
+		}
+
+		public String getAnnouncement(InetAddress address)
+		{
+			return null;
+		}
+
+		public long getGeneration()
+		{
+			return 0;
+		}
+
+		public void addTempBan(String pattern, int minutes)
+		{
+		}
+
+		public void addTempAdmin(String pattern, int minutes)
+		{
+		}
+
+		public void addTempModerator(String pattern, int minutes)
+		{
+		}
+
+		public void addTempElevated(String pattern, int minutes)
+		{
+		}
+
+		public void addSilenced(String pattern, int minutes)
+		{
+		}
+
+		public boolean clearTemp(InetAddress address, boolean clearAll)
+		{
+			return false;
+		}
+	}
+}
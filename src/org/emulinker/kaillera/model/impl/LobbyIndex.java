@@ -0,0 +1,265 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.emulinker.kaillera.model.KailleraGame;
+
+/**
+ * Looks up logged in users and open games by something other than their ID, without walking the server's user and
+ * game maps.  Those maps are still where users and games live; this keeps indexes beside them:<br>
+ * <br>
+ * users by name, lower case and trimmed the way login compares them for duplicates<br>
+ * users by address<br>
+ * games by each word in their ROM name, lower case<br>
+ * games by status<br>
+ * <br>
+ * Lookups read concurrent maps and sets and take no lock.  Changes are synchronized on the index so an entry is never
+ * half moved, and they're rare next to lookups.  The server adds a user once it has passed the login checks and
+ * removes it when it quits, and adds and removes games as they're created and closed; a game changing status moves
+ * itself.
+ */
+public class LobbyIndex
+{
+	private ConcurrentHashMap<String, KailleraUserImpl>				usersByName		= new ConcurrentHashMap<String, KailleraUserImpl>();
+	private ConcurrentHashMap<InetAddress, Set<KailleraUserImpl>>	usersByAddress	= new ConcurrentHashMap<InetAddress, Set<KailleraUserImpl>>();
+	private ConcurrentHashMap<String, Set<KailleraGameImpl>>		gamesByWord		= new ConcurrentHashMap<String, Set<KailleraGameImpl>>();
+	private ConcurrentHashMap<Integer, Set<KailleraGameImpl>>		gamesByStatus	= new ConcurrentHashMap<Integer, Set<KailleraGameImpl>>();
+	// the status each game is indexed under, which also says whether it's indexed at all
+	private ConcurrentHashMap<KailleraGameImpl, Integer>			gameStatus		= new ConcurrentHashMap<KailleraGameImpl, Integer>();
+
+	public String getStats()
+	{
+		return "names=" + usersByName.size() + " addresses=" + usersByAddress.size() + " games=" + gameStatus.size() + " words=" + gamesByWord.size() + " waiting=" + getNumGames(KailleraGame.STATUS_WAITING);
+	}
+
+	public String toString()
+	{
+		return "LobbyIndex[" + getStats() + "]";
+	}
+
+	/**
+	 * @return	The user logged in with this name, ignoring case and surrounding spaces, or null
+	 */
+	public KailleraUserImpl getUser(String name)
+	{
+		return usersByName.get(normalizeName(name));
+	}
+
+	/**
+	 * @return	Every logged in user
+	 */
+	public Collection<KailleraUserImpl> getUsers()
+	{
+		return Collections.unmodifiableCollection(usersByName.values());
+	}
+
+	/**
+	 * @return	Every logged in user, keyed by lower case name
+	 */
+	public Map<String, KailleraUserImpl> getUsersByName()
+	{
+		return Collections.unmodifiableMap(usersByName);
+	}
+
+	/**
+	 * @return	The users logged in from address
+	 */
+	public Collection<KailleraUserImpl> getUsers(InetAddress address)
+	{
+		Set<KailleraUserImpl> set = usersByAddress.get(address);
+		return (set == null ? Collections.<KailleraUserImpl> emptySet() : Collections.unmodifiableSet(set));
+	}
+
+	/**
+	 * @return	The games with word in their ROM name, ignoring case
+	 */
+	public Collection<KailleraGameImpl> getGames(String word)
+	{
+		Set<KailleraGameImpl> set = gamesByWord.get(word.toLowerCase());
+		return (set == null ? Collections.<KailleraGameImpl> emptySet() : Collections.unmodifiableSet(set));
+	}
+
+	/**
+	 * @return	The games with this status
+	 */
+	public Collection<KailleraGameImpl> getGames(int status)
+	{
+		Set<KailleraGameImpl> set = gamesByStatus.get(status);
+		return (set == null ? Collections.<KailleraGameImpl> emptySet() : Collections.unmodifiableSet(set));
+	}
+
+	public int getNumGames(int status)
+	{
+		Set<KailleraGameImpl> set = gamesByStatus.get(status);
+		return (set == null ? 0 : set.size());
+	}
+
+	/**
+	 * Narrows down a /findgame style wildcard pattern to the games that could match it, using the words the pattern
+	 * spells out in full.  A word next to a * could be part of a longer word, so only words with a space, punctuation
+	 * or the end of the pattern on both sides count.  The games returned still have to be matched against the pattern.
+	 *
+	 * @return	The games with the longest such word in their ROM name, or null if the pattern has no whole words and
+	 * every game has to be checked
+	 */
+	public Collection<KailleraGameImpl> getCandidateGames(String pattern)
+	{
+		String longest = null;
+		int start = -1;
+		for (int i = 0; i <= pattern.length(); i++)
+		{
+			char c = (i < pattern.length() ? pattern.charAt(i) : ' ');
+			if (Character.isLetterOrDigit(c))
+			{
+				if (start < 0)
+					start = i;
+				continue;
+			}
+
+			if (start >= 0)
+			{
+				boolean wholeLeft = (start == 0 || pattern.charAt(start - 1) != '*');
+				boolean wholeRight = (c != '*');
+				if (wholeLeft && wholeRight && (longest == null || (i - start) > longest.length()))
+					longest = pattern.substring(start, i);
+				start = -1;
+			}
+		}
+
+		return (longest == null ? null : getGames(longest));
+	}
+
+	synchronized void userLoggedIn(KailleraUserImpl user)
+	{
+		usersByName.put(normalizeName(user.getName()), user);
+
+		InetAddress address = user.getConnectSocketAddress().getAddress();
+		Set<KailleraUserImpl> set = usersByAddress.get(address);
+		if (set == null)
+		{
+			set = Collections.newSetFromMap(new ConcurrentHashMap<KailleraUserImpl, Boolean>());
+			usersByAddress.put(address, set);
+		}
+		set.add(user);
+	}
+
+	synchronized void userQuit(KailleraUserImpl user)
+	{
+		// a user that reconnected has already been replaced under its name
+		usersByName.remove(normalizeName(user.getName()), user);
+
+		InetAddress address = user.getConnectSocketAddress().getAddress();
+		Set<KailleraUserImpl> set = usersByAddress.get(address);
+		if (set != null)
+		{
+			set.remove(user);
+			if (set.isEmpty())
+				usersByAddress.remove(address);
+		}
+	}
+
+	synchronized void gameCreated(KailleraGameImpl game)
+	{
+		for (String word : getWords(game.getRomName()))
+		{
+			Set<KailleraGameImpl> set = gamesByWord.get(word);
+			if (set == null)
+			{
+				set = Collections.newSetFromMap(new ConcurrentHashMap<KailleraGameImpl, Boolean>());
+				gamesByWord.put(word, set);
+			}
+			set.add(game);
+		}
+
+		gameStatus.put(game, game.getStatus());
+		getStatusSet(game.getStatus()).add(game);
+	}
+
+	/**
+	 * Moves game to the set for its current status, if it's indexed; a late status change for a closed game doesn't
+	 * bring it back.
+	 */
+	synchronized void gameStatusChanged(KailleraGameImpl game)
+	{
+		Integer old = gameStatus.get(game);
+		if (old == null || old == game.getStatus())
+			return;
+
+		getStatusSet(old).remove(game);
+		gameStatus.put(game, game.getStatus());
+		getStatusSet(game.getStatus()).add(game);
+	}
+
+	synchronized void gameClosed(KailleraGameImpl game)
+	{
+		Integer status = gameStatus.remove(game);
+		if (status == null)
+			return;
+
+		getStatusSet(status).remove(game);
+		for (String word : getWords(game.getRomName()))
+		{
+			Set<KailleraGameImpl> set = gamesByWord.get(word);
+			if (set != null)
+			{
+				set.remove(game);
+				if (set.isEmpty())
+					gamesByWord.remove(word);
+			}
+		}
+	}
+
+	synchronized void clear()
+	{
+		usersByName.clear();
+		usersByAddress.clear();
+		gamesByWord.clear();
+		gamesByStatus.clear();
+		gameStatus.clear();
+	}
+
+	// only called synchronized
+	private Set<KailleraGameImpl> getStatusSet(int status)
+	{
+		Set<KailleraGameImpl> set = gamesByStatus.get(status);
+		if (set == null)
+		{
+			set = Collections.newSetFromMap(new ConcurrentHashMap<KailleraGameImpl, Boolean>());
+			gamesByStatus.put(status, set);
+		}
+		return set;
+	}
+
+	/**
+	 * The form names are compared in, so "Bob" and " bob" can't both log in.
+	 */
+	public static String normalizeName(String name)
+	{
+		return name.toLowerCase().trim();
+	}
+
+	/**
+	 * Splits a ROM name into lower case words of letters and digits.
+	 */
+	static Set<String> getWords(String romName)
+	{
+		Set<String> words = new HashSet<String>();
+		int start = -1;
+		for (int i = 0; i <= romName.length(); i++)
+		{
+			if (i < romName.length() && Character.isLetterOrDigit(romName.charAt(i)))
+			{
+				if (start < 0)
+					start = i;
+			}
+			else if (start >= 0)
+			{
+				words.add(romName.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return words;
+	}
+}
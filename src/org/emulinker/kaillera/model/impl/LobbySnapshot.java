@@ -0,0 +1,302 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.util.*;
+
+import org.emulinker.kaillera.model.*;
+import org.emulinker.kaillera.model.event.*;
+
+/**
+ * The users and games a client is told about when it logs in, kept up to date as the lobby changes instead of being
+ * rebuilt from the server's user and game lists for every login.  The server applies each lobby event to the snapshot
+ * as it publishes it, and users update their entry when their status changes, so the snapshot only ever has the users
+ * that other clients have been told have joined.<br>
+ * <br>
+ * Entries are immutable and replaced whenever anything in them changes, and every change bumps the version.  A View is
+ * a copy of the entries at one version, shared by everyone who asks for it until the next change, so the protocol layer
+ * can encode a view once and reuse the encoding for every login until the version moves on.
+ */
+public class LobbySnapshot
+{
+	private LinkedHashMap<Integer, UserEntry>	users	= new LinkedHashMap<Integer, UserEntry>();
+	private LinkedHashMap<Integer, GameEntry>	games	= new LinkedHashMap<Integer, GameEntry>();
+	private long								version	= 0;
+	private View								view;
+
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	public synchronized String getStats()
+	{
+		return "version=" + version + " users=" + users.size() + " games=" + games.size();
+	}
+
+	public String toString()
+	{
+		return "LobbySnapshot[" + getStats() + "]";
+	}
+
+	/**
+	 * @return	The users and games at the current version
+	 */
+	public synchronized View getView()
+	{
+		if (view == null)
+			view = new View(version, new ArrayList<UserEntry>(users.values()), new ArrayList<GameEntry>(games.values()));
+		return view;
+	}
+
+	void apply(ServerEvent event)
+	{
+		if (event instanceof UserJoinedEvent)
+			userJoined(((UserJoinedEvent) event).getUser());
+		else if (event instanceof UserQuitEvent)
+			userQuit(((UserQuitEvent) event).getUser());
+		else if (event instanceof GameCreatedEvent)
+			gameCreated(((GameCreatedEvent) event).getGame());
+		else if (event instanceof GameStatusChangedEvent)
+			gameChanged(((GameStatusChangedEvent) event).getGame());
+		else if (event instanceof GameClosedEvent)
+			gameClosed(((GameClosedEvent) event).getGame());
+	}
+
+	synchronized void userJoined(KailleraUser user)
+	{
+		users.put(user.getID(), new UserEntry(user));
+		changed();
+	}
+
+	/**
+	 * Updates the entry for user, if it has one.
+	 */
+	synchronized void userChanged(KailleraUser user)
+	{
+		UserEntry old = users.get(user.getID());
+		if (old == null)
+			return;
+
+		UserEntry entry = new UserEntry(user);
+		if (entry.equals(old))
+			return;
+
+		users.put(user.getID(), entry);
+		changed();
+	}
+
+	synchronized void userQuit(KailleraUser user)
+	{
+		if (users.remove(user.getID()) != null)
+			changed();
+	}
+
+	synchronized void gameCreated(KailleraGame game)
+	{
+		games.put(game.getID(), new GameEntry(game));
+		changed();
+	}
+
+	/**
+	 * Updates the entry for game, if it has one; a late status change for a closed game doesn't bring it back.
+	 */
+	synchronized void gameChanged(KailleraGame game)
+	{
+		GameEntry old = games.get(game.getID());
+		if (old == null)
+			return;
+
+		GameEntry entry = new GameEntry(game);
+		if (entry.equals(old))
+			return;
+
+		games.put(game.getID(), entry);
+		changed();
+	}
+
+	synchronized void gameClosed(KailleraGame game)
+	{
+		if (games.remove(game.getID()) != null)
+			changed();
+	}
+
+	synchronized void clear()
+	{
+		users.clear();
+		games.clear();
+		changed();
+	}
+
+	private void changed()
+	{
+		version++;
+		view = null;
+	}
+
+	private static boolean same(String a, String b)
+	{
+		return (a == null ? b == null : a.equals(b));
+	}
+
+	public static final class View
+	{
+		private long			version;
+		private List<UserEntry>	users;
+		private List<GameEntry>	games;
+
+		private View(long version, List<UserEntry> users, List<GameEntry> games)
+		{
+			this.version = version;
+			this.users = Collections.unmodifiableList(users);
+			this.games = Collections.unmodifiableList(games);
+		}
+
+		public long getVersion()
+		{
+			return version;
+		}
+
+		public List<UserEntry> getUsers()
+		{
+			return users;
+		}
+
+		public List<GameEntry> getGames()
+		{
+			return games;
+		}
+	}
+
+	public static final class UserEntry
+	{
+		private int		id;
+		private String	name;
+		private long	ping;
+		private int		status;
+		private byte	connectionType;
+
+		private UserEntry(KailleraUser user)
+		{
+			id = user.getID();
+			name = user.getName();
+			ping = user.getPing();
+			status = user.getStatus();
+			connectionType = user.getConnectionType();
+		}
+
+		public int getID()
+		{
+			return id;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getPing()
+		{
+			return ping;
+		}
+
+		public int getStatus()
+		{
+			return status;
+		}
+
+		public byte getConnectionType()
+		{
+			return connectionType;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof UserEntry))
+				return false;
+
+			UserEntry other = (UserEntry) o;
+			return (id == other.id && ping == other.ping && status == other.status && connectionType == other.connectionType && same(name, other.name));
+		}
+
+		public int hashCode()
+		{
+			return id;
+		}
+	}
+
+	public static final class GameEntry
+	{
+		private int		id;
+		private String	romName;
+		private String	clientType;
+		private String	ownerName;
+		private int		numPlayers;
+		private int		maxUsers;
+		private int		status;
+
+		private GameEntry(KailleraGame game)
+		{
+			id = game.getID();
+			romName = game.getRomName();
+			clientType = game.getClientType();
+			ownerName = game.getOwner().getName();
+			maxUsers = game.getMaxUsers();
+			status = game.getStatus();
+
+			// stealthed admins don't count
+			for (KailleraUser player : game.getPlayers())
+			{
+				if (!player.getStealth())
+					numPlayers++;
+			}
+		}
+
+		public int getID()
+		{
+			return id;
+		}
+
+		public String getRomName()
+		{
+			return romName;
+		}
+
+		public String getClientType()
+		{
+			return clientType;
+		}
+
+		public String getOwnerName()
+		{
+			return ownerName;
+		}
+
+		public int getNumPlayers()
+		{
+			return numPlayers;
+		}
+
+		public int getMaxUsers()
+		{
+			return maxUsers;
+		}
+
+		public int getStatus()
+		{
+			return status;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof GameEntry))
+				return false;
+
+			GameEntry other = (GameEntry) o;
+			return (id == other.id && numPlayers == other.numPlayers && maxUsers == other.maxUsers && status == other.status && same(romName, other.romName) && same(clientType, other.clientType) && same(ownerName, other.ownerName));
+		}
+
+		public int hashCode()
+		{
+			return id;
+		}
+	}
+}
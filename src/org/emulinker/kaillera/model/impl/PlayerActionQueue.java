@@ -1,6 +1,7 @@
 package org.emulinker.kaillera.model.impl;
 
 import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 import java.io.*;
 
 import org.apache.commons.logging.Log;
@@ -8,6 +9,14 @@ import org.apache.commons.logging.LogFactory;
 
 import org.emulinker.util.*;
 
+/**
+ * Ring buffer of one player's actions.  There is exactly one writer, the owning player, and one reader, the game's
+ * FrameAssembler, so no locking is needed: the writer fills in the bytes and then publishes them with a volatile write
+ * to tail, and a reader that sees the new tail is guaranteed to see the bytes behind it.<br>
+ * <br>
+ * A reader that needs more data than is available registers itself and parks until the writer publishes more or the
+ * game timeout elapses; the writer only unparks the reader when it is actually registered.
+ */
 public class PlayerActionQueue
 {
 	private int						gameBufferSize;
@@ -16,17 +25,18 @@ public class PlayerActionQueue
 
 	private int						thisPlayerNumber;
 	private KailleraUserImpl		thisPlayer;
-	private boolean					synched	= false;
-	private PlayerTimeoutException	lastTimeout;
+	private volatile boolean		synched	= false;
+	private volatile PlayerTimeoutException	lastTimeout;
 
 	private byte[]					array;
-	private int[]					heads;
-	private int						tail	= 0;
+	private volatile int			head	= 0;
+	private volatile int			tail	= 0;
+	private volatile Thread			waiter;
 	
 //	private OutputStream			os;
 //	private InputStream				is;
 
-	public PlayerActionQueue(int playerNumber, KailleraUserImpl player, int numPlayers, int gameBufferSize, int gameTimeoutMillis, boolean capture)
+	public PlayerActionQueue(int playerNumber, KailleraUserImpl player, int gameBufferSize, int gameTimeoutMillis, boolean capture)
 	{
 		this.thisPlayerNumber = playerNumber;
 		this.thisPlayer = player;
@@ -35,7 +45,6 @@ public class PlayerActionQueue
 		this.capture = capture;
 
 		array = new byte[gameBufferSize];
-		heads = new int[numPlayers];
 /*		
 		if(capture)
 		{
@@ -67,10 +76,7 @@ public class PlayerActionQueue
 
 		if (!synched)
 		{
-			synchronized (this)
-			{
-				notifyAll();
-			}
+			wakeWaiter();
 /*
 			try
 			{
@@ -105,56 +111,48 @@ public class PlayerActionQueue
 		if (!synched)
 			return;
 
+		int newTail = tail;
 		for (int i = 0; i < actions.length; i++)
 		{
-			array[tail] = actions[i];
-			//tail = ((tail + 1) % gameBufferSize);
-			tail++;
-			if(tail == gameBufferSize)
-				tail = 0;
+			array[newTail] = actions[i];
+			newTail++;
+			if(newTail == gameBufferSize)
+				newTail = 0;
 		}
 
-		synchronized (this)
-		{
-			notifyAll();
-		}
+		// publishes the bytes written above to every reader
+		tail = newTail;
+		wakeWaiter();
 
 		lastTimeout = null;
 	}
 
-	public void getAction(int playerNumber, byte[] actions, int location, int actionLength) throws PlayerTimeoutException
+	private void wakeWaiter()
+	{
+		Thread thread = waiter;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	public void getAction(byte[] actions, int location, int actionLength) throws PlayerTimeoutException
 	{
+		if (getSize() < actionLength && synched)
+			awaitActions(actionLength);
 
-		
-		synchronized (this)
+		if (getSize() >= actionLength)
 		{
-			if (getSize(playerNumber) < actionLength && synched)
+			int newHead = head;
+			for (int i = 0; i < actionLength; i++)
 			{
-				try
-				{
-					wait(gameTimeoutMillis);
-				}
-				catch (InterruptedException e)
-				{
-				}
+				actions[(location + i)] = array[newHead];
+				newHead++;
+				if(newHead == gameBufferSize)
+					newHead = 0;
 			}
+			head = newHead;
+			return;
 		}
 
-		
-			if (getSize(playerNumber) >= actionLength)
-			{
-				for (int i = 0; i < actionLength; i++)
-				{
-					actions[(location + i)] = array[heads[(playerNumber - 1)]];
-					//heads[(playerNumber - 1)] = ((heads[(playerNumber - 1)] + 1) % gameBufferSize);
-					heads[(playerNumber - 1)]++;
-					if(heads[(playerNumber - 1)] == gameBufferSize)
-						heads[(playerNumber - 1)] = 0;
-				}
-				return;
-			}
-		
-
 		if (!synched)
 			return;
 /*		
@@ -174,8 +172,43 @@ public class PlayerActionQueue
 		throw new PlayerTimeoutException(thisPlayerNumber, thisPlayer);
 	}
 
-	private int getSize(int playerNumber)
+	/**
+	 * @return	true if getAction() would return immediately, either because the actions are here or because this player
+	 *			is no longer synched
+	 */
+	public boolean isReady(int actionLength)
+	{
+		return (!synched || getSize() >= actionLength);
+	}
+
+	private void awaitActions(int actionLength)
+	{
+		long deadline = (System.nanoTime() + (gameTimeoutMillis * 1000000L));
+		waiter = Thread.currentThread();
+		try
+		{
+			// tail has to be rechecked after registering, or an add between the check and the park would be missed
+			while (getSize() < actionLength && synched)
+			{
+				long remaining = (deadline - System.nanoTime());
+				if (remaining <= 0)
+					break;
+
+				LockSupport.parkNanos(this, remaining);
+
+				// an interrupt ends the wait early, same as it did when this was Object.wait()
+				if (Thread.interrupted())
+					break;
+			}
+		}
+		finally
+		{
+			waiter = null;
+		}
+	}
+
+	private int getSize()
 	{
-		return (tail + gameBufferSize - heads[playerNumber - 1]) % gameBufferSize;
+		return (tail + gameBufferSize - head) % gameBufferSize;
 	}
 }
@@ -0,0 +1,193 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.*;
+import org.emulinker.kaillera.model.event.KailleraEvent;
+
+/**
+ * Spaces out a run of messages to one client without holding up the thread that queued them.  Kaillera clients get
+ * the last few messages repeated in every packet, so a burst of messages longer than that can lose some of them to a
+ * single dropped packet; the server used to space these bursts out by sleeping, which during login meant sleeping with
+ * the whole server locked.<br>
+ * <br>
+ * A Sequence is a list of events for one user, each with the delay to wait after the previous one.  Once started, the
+ * scheduler's thread adds each event to the user's queue when its delay is up, so a user's sequence is delivered in
+ * order and at the same pace as before, while any number of sequences for different users run side by side.  A
+ * sequence can also end with a Runnable, run on the scheduler's thread once every event has been sent.  A sequence
+ * stops early if its user logs out.
+ */
+public class SendScheduler implements Runnable
+{
+	private static Log				log			= LogFactory.getLog(SendScheduler.class);
+
+	private ThreadPoolExecutor		threadPool;
+	private DelayQueue<Sequence>	due			= new DelayQueue<Sequence>();
+	private volatile boolean		stopFlag	= false;
+	private volatile boolean		isRunning	= false;
+
+	private AtomicLong				sentCount	= new AtomicLong();
+
+	public SendScheduler(ThreadPoolExecutor threadPool)
+	{
+		this.threadPool = threadPool;
+	}
+
+	public boolean isRunning()
+	{
+		return isRunning;
+	}
+
+	public String getStats()
+	{
+		return "pending=" + due.size() + " sent=" + sentCount.get();
+	}
+
+	public String toString()
+	{
+		return "SendScheduler[" + getStats() + "]";
+	}
+
+	public synchronized void start()
+	{
+		stopFlag = false;
+		threadPool.execute(this);
+	}
+
+	public synchronized void stop()
+	{
+		stopFlag = true;
+		due.clear();
+	}
+
+	public Sequence newSequence(KailleraUserImpl user)
+	{
+		return new Sequence(user);
+	}
+
+	public void run()
+	{
+		isRunning = true;
+		log.debug("SendScheduler thread running...");
+
+		try
+		{
+			while (!stopFlag)
+			{
+				Sequence sequence = due.poll(1, TimeUnit.SECONDS);
+				if (sequence == null)
+					continue;
+
+				try
+				{
+					sequence.sendDue();
+				}
+				catch (Exception e)
+				{
+					log.error("SendScheduler failed to send " + sequence + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			log.error("SendScheduler thread interrupted!");
+		}
+		finally
+		{
+			isRunning = false;
+			log.debug("SendScheduler thread exiting...");
+		}
+	}
+
+	public class Sequence implements Delayed
+	{
+		private KailleraUserImpl		user;
+		private List<KailleraEvent>		events		= new ArrayList<KailleraEvent>();
+		private List<Long>				delays		= new ArrayList<Long>();
+		private Runnable				onComplete;
+		private int						next		= 0;
+		private long					dueTime;
+
+		private Sequence(KailleraUserImpl user)
+		{
+			this.user = user;
+		}
+
+		public String toString()
+		{
+			return "Sequence[" + user + " sent=" + next + "/" + events.size() + "]";
+		}
+
+		/**
+		 * Adds an event to send delayMillis after the one before it, or after the sequence starts if it's the first.
+		 */
+		public Sequence add(long delayMillis, KailleraEvent event)
+		{
+			events.add(event);
+			delays.add(delayMillis);
+			return this;
+		}
+
+		/**
+		 * Sets something to run delayMillis after the last event has been sent.
+		 */
+		public Sequence then(long delayMillis, Runnable onComplete)
+		{
+			this.onComplete = onComplete;
+			events.add(null);
+			delays.add(delayMillis);
+			return this;
+		}
+
+		public void start()
+		{
+			if (events.isEmpty())
+				return;
+
+			dueTime = (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delays.get(0)));
+			due.offer(this);
+		}
+
+		// only called from the scheduler's thread
+		private void sendDue()
+		{
+			if (!user.isLoggedIn())
+				return;
+
+			// send everything that's due now, so steps with no delay go out together
+			long now = System.nanoTime();
+			while (next < events.size() && (dueTime - now) <= 0)
+			{
+				KailleraEvent event = events.get(next++);
+				if (event == null)
+				{
+					onComplete.run();
+				}
+				else
+				{
+					user.addEvent(event);
+					sentCount.incrementAndGet();
+				}
+
+				if (next < events.size())
+					dueTime += TimeUnit.MILLISECONDS.toNanos(delays.get(next));
+			}
+
+			if (next < events.size())
+				due.offer(this);
+		}
+
+		public long getDelay(TimeUnit unit)
+		{
+			return unit.convert((dueTime - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo(Delayed o)
+		{
+			long diff = (dueTime - ((Sequence) o).dueTime);
+			return (diff < 0 ? -1 : (diff > 0 ? 1 : 0));
+		}
+	}
+}
@@ -375,7 +375,6 @@ public class Trivia implements Runnable {
 				if(ip_streak.equals(ip)){
 					score_streak++;
 					if(score_streak > 1){
-						try{Thread.sleep(20);}catch(Exception e){}
 						server.announce("<Trivia> ***" + nick + " has won " + score_streak + " in a row!***", false, null);
 					}
 				}
@@ -384,7 +383,6 @@ public class Trivia implements Runnable {
 					ip_streak = ip;
 				}
 				
-				try{Thread.sleep(20);}catch(Exception e){}
 				if(s == 25){
 					server.announce("<Trivia> " + nick + ", you're doing great. Keep it up tiger!", false, null);
 				}
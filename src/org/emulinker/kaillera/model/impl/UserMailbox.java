@@ -0,0 +1,242 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+import org.emulinker.kaillera.model.KailleraGame;
+import org.emulinker.kaillera.model.event.*;
+
+/**
+ * A user's pending events, split into two lanes so lobby traffic never queues in front of game frames.  Game frames
+ * and the events that keep a running game in sync go in the game lane, which is always delivered first; everything
+ * else goes in the lobby lane.  Events within a lane are delivered in the order they were added.  The game lane is
+ * unbounded, since it only ever holds what the player's game is waiting for.  It is an array ring under its own lock
+ * rather than a linked queue, so queuing a frame doesn't allocate a node once the ring has grown to fit.<br>
+ * <br>
+ * The lobby lane is bounded by its capacity, which only applies to what a client can live without: lobby chat, and
+ * game status updates that a newer update for the same game has made stale.  Everything else, like users and games
+ * coming and going, the latest status of each game and info messages, is always queued, since dropping it would leave
+ * the client's lists wrong until it reconnects or cut out part of a message, so the lane can go over its capacity.
+ * Once the lane is full, new chat is dropped and a new status update replaces any update for the same game that is
+ * still queued.  On top of that, the overflow policy decides:<br>
+ * <br>
+ * OVERFLOW_DROP: nothing more.<br>
+ * OVERFLOW_COALESCE: a game status update replaces any queued update for the same game whether the lane is full or
+ * not, since only the latest status is worth sending.<br>
+ * OVERFLOW_DISCONNECT: the mailbox is marked as overflowed when the lane is full, so the server disconnects the user
+ * on its next maintenance pass.<br>
+ * <br>
+ * Any number of threads can add events, but only one thread at a time may take them out.
+ */
+public final class UserMailbox
+{
+	public static final int										OVERFLOW_DROP		= 0;
+	public static final int										OVERFLOW_COALESCE	= 1;
+	public static final int										OVERFLOW_DISCONNECT	= 2;
+
+	private static AtomicLong									totalDropped		= new AtomicLong();
+	private static AtomicLong									totalCoalesced		= new AtomicLong();
+
+	// only used synchronized
+	private ArrayDeque<KailleraEvent>							gameLane			= new ArrayDeque<KailleraEvent>();
+	private ConcurrentLinkedQueue<KailleraEvent>				lobbyLane			= new ConcurrentLinkedQueue<KailleraEvent>();
+	private AtomicInteger										gameDepth			= new AtomicInteger();
+	private AtomicInteger										lobbyDepth			= new AtomicInteger();
+
+	private int													lobbyCapacity;
+	private int													overflowPolicy;
+	// the latest queued status update for each game
+	private ConcurrentHashMap<KailleraGame, GameStatusChangedEvent>	pendingStatus	= new ConcurrentHashMap<KailleraGame, GameStatusChangedEvent>();
+
+	private volatile Thread										waiter;
+	private volatile boolean									overflowed			= false;
+	private AtomicLong											dropped				= new AtomicLong();
+
+	public UserMailbox(int lobbyCapacity, int overflowPolicy)
+	{
+		this.lobbyCapacity = lobbyCapacity;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public static long getTotalDropped()
+	{
+		return totalDropped.get();
+	}
+
+	public static long getTotalCoalesced()
+	{
+		return totalCoalesced.get();
+	}
+
+	/**
+	 * @return	The overflow policy named by the config value drop, coalesce or disconnect, or -1 if it's none of them
+	 */
+	public static int parseOverflowPolicy(String name)
+	{
+		if (name.equalsIgnoreCase("drop"))
+			return OVERFLOW_DROP;
+		else if (name.equalsIgnoreCase("coalesce"))
+			return OVERFLOW_COALESCE;
+		else if (name.equalsIgnoreCase("disconnect"))
+			return OVERFLOW_DISCONNECT;
+		return -1;
+	}
+
+	public int getGameDepth()
+	{
+		return gameDepth.get();
+	}
+
+	public int getLobbyDepth()
+	{
+		return lobbyDepth.get();
+	}
+
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	public boolean isOverflowed()
+	{
+		return overflowed;
+	}
+
+	public boolean isEmpty()
+	{
+		return (gameDepth.get() == 0 && lobbyDepth.get() == 0);
+	}
+
+	/**
+	 * @return	false if the event was dropped because the lobby lane is full
+	 */
+	public boolean offer(KailleraEvent event)
+	{
+		if (isGameplay(event))
+		{
+			synchronized (gameLane)
+			{
+				gameLane.offer(event);
+			}
+			gameDepth.incrementAndGet();
+			wake();
+			return true;
+		}
+
+		boolean full = (lobbyDepth.get() >= lobbyCapacity);
+		if (full && overflowPolicy == OVERFLOW_DISCONNECT)
+			overflowed = true;
+
+		if (event instanceof GameStatusChangedEvent)
+		{
+			// the new status is always queued, it's the old one that is stale
+			GameStatusChangedEvent old = pendingStatus.put(((GameStatusChangedEvent) event).getGame(), (GameStatusChangedEvent) event);
+			// the reader may have just taken the old one, in which case there's nothing to replace
+			if (old != null && (full || overflowPolicy == OVERFLOW_COALESCE) && lobbyLane.remove(old))
+			{
+				lobbyDepth.decrementAndGet();
+				totalCoalesced.incrementAndGet();
+			}
+		}
+		else if (full && isLossy(event))
+		{
+			dropped.incrementAndGet();
+			totalDropped.incrementAndGet();
+			return false;
+		}
+
+		lobbyLane.offer(event);
+		lobbyDepth.incrementAndGet();
+		wake();
+		return true;
+	}
+
+	/**
+	 * @return	The next event, from the game lane if it has any, or null if there are none
+	 */
+	public KailleraEvent poll()
+	{
+		KailleraEvent event = null;
+		// the depth is only raised after the event is queued, and the producer wakes us after that
+		if (gameDepth.get() > 0)
+		{
+			synchronized (gameLane)
+			{
+				event = gameLane.poll();
+			}
+			if (event != null)
+			{
+				gameDepth.decrementAndGet();
+				return event;
+			}
+		}
+
+		event = lobbyLane.poll();
+		if (event != null)
+		{
+			lobbyDepth.decrementAndGet();
+			if (event instanceof GameStatusChangedEvent)
+				pendingStatus.remove(((GameStatusChangedEvent) event).getGame(), event);
+		}
+		return event;
+	}
+
+	/**
+	 * Waits up to timeoutMillis for an event.
+	 *
+	 * @return	The next event, or null if none arrived in time
+	 */
+	public KailleraEvent take(long timeoutMillis) throws InterruptedException
+	{
+		long deadline = (System.nanoTime() + (timeoutMillis * 1000000L));
+		// register before checking so an event added after the check wakes us
+		waiter = Thread.currentThread();
+		try
+		{
+			while (true)
+			{
+				KailleraEvent event = poll();
+				if (event != null)
+					return event;
+
+				long remaining = (deadline - System.nanoTime());
+				if (remaining <= 0)
+					return null;
+
+				LockSupport.parkNanos(this, remaining);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+			}
+		}
+		finally
+		{
+			waiter = null;
+		}
+	}
+
+	public void clear()
+	{
+		while (poll() != null)
+			;
+		pendingStatus.clear();
+	}
+
+	private void wake()
+	{
+		Thread t = waiter;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+
+	private static boolean isGameplay(KailleraEvent event)
+	{
+		return (event instanceof GameDataEvent || event instanceof AllReadyEvent || event instanceof GameTimeoutEvent || event instanceof PlayerDesynchEvent || event instanceof GameDesynchEvent);
+	}
+
+	private static boolean isLossy(KailleraEvent event)
+	{
+		return (event instanceof ChatEvent);
+	}
+}
@@ -0,0 +1,142 @@
+package org.emulinker.kaillera.model.impl;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.apache.commons.logging.*;
+
+/**
+ * Delivers user events on a fixed pool of dispatcher threads instead of a thread per user.  Without this, every
+ * KailleraUserImpl runs its own loop on a pool thread blocking on its event queue, so a server holds two threads per
+ * user (one more for its V086ClientHandler) and every frame of every game wakes each player's thread in turn.<br>
+ * <br>
+ * When the executor is enabled, a user's event queue becomes its mailbox.  Adding an event to an idle mailbox puts the
+ * user on the shared ready queue, and whichever dispatcher picks it up delivers up to BATCH_SIZE events before putting
+ * the user back at the end of the queue if there are more, so one busy user can't starve the rest.  A user is only ever
+ * on the ready queue once, so only one dispatcher delivers its events at a time and they are delivered in the order
+ * they were added, just as the user's own thread would have.
+ */
+public class UserMailboxExecutor
+{
+	private static Log								log				= LogFactory.getLog(UserMailboxExecutor.class);
+
+	// events delivered from one mailbox before moving on to the next
+	public static final int							BATCH_SIZE		= 32;
+
+	private ThreadPoolExecutor						threadPool;
+	private Dispatcher[]							dispatchers;
+	private LinkedBlockingQueue<KailleraUserImpl>	ready			= new LinkedBlockingQueue<KailleraUserImpl>();
+	private volatile boolean						stopFlag		= false;
+
+	private AtomicInteger							numMailboxes	= new AtomicInteger();
+	private AtomicLong								eventCount		= new AtomicLong();
+	private AtomicLong								batchCount		= new AtomicLong();
+
+	public UserMailboxExecutor(ThreadPoolExecutor threadPool, int numDispatchers)
+	{
+		this.threadPool = threadPool;
+
+		dispatchers = new Dispatcher[numDispatchers];
+		for (int i = 0; i < dispatchers.length; i++)
+			dispatchers[i] = new Dispatcher(i);
+	}
+
+	public int getNumDispatchers()
+	{
+		return dispatchers.length;
+	}
+
+	public int getNumMailboxes()
+	{
+		return numMailboxes.get();
+	}
+
+	public long getEventCount()
+	{
+		return eventCount.get();
+	}
+
+	public String getStats()
+	{
+		long batches = batchCount.get();
+		long events = eventCount.get();
+		return "dispatchers=" + dispatchers.length + " mailboxes=" + getNumMailboxes() + " ready=" + ready.size() + " events=" + events + " eventsPerBatch=" + (batches == 0 ? 0 : (Math.round((double) events / batches * 100) / 100.0));
+	}
+
+	public String toString()
+	{
+		return "UserMailboxExecutor[" + getStats() + "]";
+	}
+
+	public synchronized void start()
+	{
+		stopFlag = false;
+		for (Dispatcher dispatcher : dispatchers)
+			threadPool.execute(dispatcher);
+		log.info("User mailbox executor started with " + dispatchers.length + " dispatchers");
+	}
+
+	public synchronized void stop()
+	{
+		stopFlag = true;
+	}
+
+	void register(KailleraUserImpl user)
+	{
+		numMailboxes.incrementAndGet();
+		user.startMailbox(this);
+	}
+
+	void unregister(KailleraUserImpl user)
+	{
+		numMailboxes.decrementAndGet();
+	}
+
+	void schedule(KailleraUserImpl user)
+	{
+		if (user.markScheduled())
+			ready.offer(user);
+	}
+
+	private class Dispatcher implements Runnable
+	{
+		private int	index;
+
+		private Dispatcher(int index)
+		{
+			this.index = index;
+		}
+
+		public void run()
+		{
+			log.debug("UserMailboxExecutor dispatcher " + index + " thread running...");
+
+			try
+			{
+				while (!stopFlag)
+				{
+					KailleraUserImpl user = ready.poll(1, TimeUnit.SECONDS);
+					if (user == null)
+						continue;
+
+					int delivered = user.drainMailbox(BATCH_SIZE);
+					eventCount.addAndGet(delivered);
+					batchCount.incrementAndGet();
+
+					// an event added while we were delivering found the user still scheduled and left it to us
+					user.clearScheduled();
+					if (user.hasMail())
+						schedule(user);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				log.error("UserMailboxExecutor dispatcher " + index + " thread interrupted!");
+			}
+			finally
+			{
+				log.debug("UserMailboxExecutor dispatcher " + index + " thread exiting...");
+			}
+		}
+	}
+}
@@ -14,6 +14,9 @@ public abstract class PrivateUDPServer extends UDPServer
 	private InetAddress			remoteAddress;
 	private InetSocketAddress	remoteSocketAddress;
 
+	private UDPMultiplexer			multiplexer;
+	private UDPMultiplexer.Endpoint	endpoint;
+
 	public PrivateUDPServer(boolean shutdownOnExit, InetAddress remoteAddress)
 	{
 		super(shutdownOnExit);
@@ -30,6 +33,45 @@ public abstract class PrivateUDPServer extends UDPServer
 		return remoteSocketAddress;
 	}
 
+	public boolean isMultiplexed()
+	{
+		return (endpoint != null);
+	}
+
+	public int getBindPort()
+	{
+		if (endpoint != null)
+			return endpoint.getPort();
+		return super.getBindPort();
+	}
+
+	public synchronized boolean isBound()
+	{
+		if (endpoint != null)
+			return endpoint.isOpen();
+		return super.isBound();
+	}
+
+	/**
+	 * Attaches this server to a shared socket instead of binding a private one.  The remote address is still learned
+	 * from the first datagram, as the multiplexer routes it; connectSocketAddress is only a hint for routing.  No
+	 * receive thread should be started for this server afterwards.
+	 */
+	protected synchronized void bind(UDPMultiplexer multiplexer, InetSocketAddress connectSocketAddress) throws BindException
+	{
+		this.endpoint = multiplexer.attach(this, connectSocketAddress);
+		this.multiplexer = multiplexer;
+		this.start();
+	}
+
+	public synchronized void stop()
+	{
+		super.stop();
+
+		if (endpoint != null)
+			multiplexer.detach(this);
+	}
+
 	protected void handleReceived(ByteBuffer buffer, InetSocketAddress inboundSocketAddress)
 	{
 		if (remoteSocketAddress == null)
@@ -47,6 +89,13 @@ public abstract class PrivateUDPServer extends UDPServer
 
 	protected void send(ByteBuffer buffer)
 	{
+		if (endpoint != null)
+		{
+			if (!getStopFlag() && remoteSocketAddress != null)
+				endpoint.send(buffer, remoteSocketAddress);
+			return;
+		}
+
 		super.send(buffer, remoteSocketAddress);
 	}
 }
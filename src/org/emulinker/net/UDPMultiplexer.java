@@ -0,0 +1,496 @@
+package org.emulinker.net;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.*;
+import org.emulinker.util.*;
+
+/**
+ * Alternate transport for private client sessions.  Instead of binding a socket and blocking a thread per client, a
+ * small fixed number of receive loops each own one or more non-blocking sockets and a Selector.  Inbound datagrams are
+ * demultiplexed to the attached PrivateUDPServer by their source address, so the number of threads and ports no
+ * longer grows with the number of connected users.<br>
+ * <br>
+ * Sessions are handed out to the least loaded socket on attach.  A client normally sends its private traffic from the
+ * same address it used on the connect port, but a NAT may pick a different source port for it, so a new session is
+ * only pending under its client's IP address and the port it was given.  The first datagram to that port from that IP
+ * pins the session to the full address it came from, preferring a session whose connect address it matches.  The
+ * socket for each new session is picked so that two pending sessions from the same IP don't share a port if it can
+ * be helped; if they must, the oldest is pinned first, and since neither has logged in yet it makes no difference
+ * which client gets which.<br>
+ * <br>
+ * handleReceived() is called directly on the receive loop thread, so a session that blocks will delay every other
+ * session on the same loop.  Game data must not wait for other players here, which is why the v086 controller only
+ * multiplexes when the game tick engine is enabled.<br>
+ * <br>
+ * With reusePort set, every loop binds the same set of ports using SO_REUSEPORT and the kernel spreads clients across
+ * the loops by source address.  The session map is shared, so it doesn't matter which loop a datagram arrives on.
+ */
+public class UDPMultiplexer
+{
+	private static Log									log			= LogFactory.getLog(UDPMultiplexer.class);
+
+	private ThreadPoolExecutor							threadPool;
+	private int											startPort;
+	private int											bufferSize;
+	private boolean										reusePort;
+	private ReceiveLoop[]								loops;
+	private List<Endpoint>								endpoints	= new ArrayList<Endpoint>();
+	// pinned sessions by the address their datagrams come from
+	private Map<InetSocketAddress, PrivateUDPServer>	sessions	= new ConcurrentHashMap<InetSocketAddress, PrivateUDPServer>();
+	// every attached session, and the sessions still waiting for their first datagram, by client IP and shared port;
+	// both only used synchronized
+	private Map<PrivateUDPServer, Session>				attached	= new HashMap<PrivateUDPServer, Session>();
+	private Map<InetSocketAddress, List<Session>>		pending		= new HashMap<InetSocketAddress, List<Session>>();
+
+	private boolean										isRunning	= false;
+	private volatile boolean							stopFlag	= false;
+
+	public UDPMultiplexer(ThreadPoolExecutor threadPool, int startPort, int numLoops, int socketsPerLoop, int bufferSize)
+	{
+		this(threadPool, startPort, numLoops, socketsPerLoop, bufferSize, false);
+	}
+
+	public UDPMultiplexer(ThreadPoolExecutor threadPool, int startPort, int numLoops, int socketsPerLoop, int bufferSize, boolean reusePort)
+	{
+		this.threadPool = threadPool;
+		this.startPort = startPort;
+		this.bufferSize = bufferSize;
+		this.reusePort = reusePort;
+
+		loops = new ReceiveLoop[numLoops];
+		for (int i = 0; i < numLoops; i++)
+			loops[i] = new ReceiveLoop(i, socketsPerLoop);
+	}
+
+	public int getStartPort()
+	{
+		return startPort;
+	}
+
+	public int getEndPort()
+	{
+		if (reusePort)
+			return startPort + loops[0].numSockets - 1;
+		return startPort + (loops.length * loops[0].numSockets) - 1;
+	}
+
+	public boolean isReusePort()
+	{
+		return reusePort;
+	}
+
+	public int getNumLoops()
+	{
+		return loops.length;
+	}
+
+	public synchronized int getNumSessions()
+	{
+		return attached.size();
+	}
+
+	public boolean isRunning()
+	{
+		return isRunning;
+	}
+
+	public String toString()
+	{
+		return "UDPMultiplexer[ports=" + getStartPort() + "-" + getEndPort() + " loops=" + loops.length + " reusePort=" + reusePort + " sessions=" + getNumSessions() + "]";
+	}
+
+	public synchronized void start() throws BindException
+	{
+		if (isRunning)
+			return;
+
+		stopFlag = false;
+
+		int port = startPort;
+		for (ReceiveLoop loop : loops)
+		{
+			if (reusePort)
+				port = startPort;
+
+			for (int i = 0; i < loop.numSockets; i++)
+			{
+				Endpoint endpoint = new Endpoint(port++);
+				loop.register(endpoint);
+				endpoints.add(endpoint);
+			}
+		}
+
+		isRunning = true;
+
+		for (ReceiveLoop loop : loops)
+		{
+			log.debug(loop + " thread starting (ThreadPool:" + threadPool.getActiveCount() + "/" + threadPool.getPoolSize() + ")");
+			threadPool.execute(loop);
+		}
+	}
+
+	public synchronized void stop()
+	{
+		stopFlag = true;
+
+		for (ReceiveLoop loop : loops)
+			loop.stop();
+
+		for (Endpoint endpoint : endpoints)
+			endpoint.close();
+
+		endpoints.clear();
+		sessions.clear();
+		attached.clear();
+		pending.clear();
+		isRunning = false;
+	}
+
+	/**
+	 * Attaches a session to the least loaded socket.  The first datagram from the client's IP address to that socket
+	 * pins the session, and datagrams from the address it came from will be delivered to server.handleReceived() from
+	 * then on.
+	 *
+	 * @param connectSocketAddress	The address the client connected from, which its first datagram most likely
+	 * 								comes from too
+	 * @return	The endpoint the session was attached to
+	 */
+	synchronized Endpoint attach(PrivateUDPServer server, InetSocketAddress connectSocketAddress) throws BindException
+	{
+		if (!isRunning || endpoints.isEmpty())
+			throw new BindException("UDPMultiplexer is not running", startPort, null);
+
+		// a port this IP is already waiting on only if there's no other choice
+		Endpoint best = null;
+		boolean bestShared = false;
+		for (Endpoint endpoint : endpoints)
+		{
+			boolean shared = pending.containsKey(new InetSocketAddress(connectSocketAddress.getAddress(), endpoint.port));
+			if (best == null || (bestShared && !shared) || (shared == bestShared && endpoint.sessionCount.get() < best.sessionCount.get()))
+			{
+				best = endpoint;
+				bestShared = shared;
+			}
+		}
+
+		Session session = new Session(server, best, connectSocketAddress);
+		if (attached.put(server, session) != null)
+			log.warn(this + " attached the same session twice: " + EmuUtil.formatSocketAddress(connectSocketAddress));
+
+		List<Session> list = pending.get(session.pendingKey);
+		if (list == null)
+		{
+			list = new ArrayList<Session>(1);
+			pending.put(session.pendingKey, list);
+		}
+		list.add(session);
+
+		best.sessionCount.incrementAndGet();
+		return best;
+	}
+
+	synchronized void detach(PrivateUDPServer server)
+	{
+		Session session = attached.remove(server);
+		if (session == null)
+			return;
+
+		if (session.pinnedSocketAddress != null)
+		{
+			sessions.remove(session.pinnedSocketAddress, server);
+		}
+		else
+		{
+			List<Session> list = pending.get(session.pendingKey);
+			list.remove(session);
+			if (list.isEmpty())
+				pending.remove(session.pendingKey);
+		}
+
+		session.endpoint.sessionCount.decrementAndGet();
+	}
+
+	/**
+	 * Pins a pending session waiting on port for datagrams from fromSocketAddress's IP address.
+	 *
+	 * @return	The session, or null if none is waiting
+	 */
+	private synchronized PrivateUDPServer pin(int port, InetSocketAddress fromSocketAddress)
+	{
+		// another loop sharing the port may have just pinned it
+		PrivateUDPServer server = sessions.get(fromSocketAddress);
+		if (server != null)
+			return server;
+
+		InetSocketAddress pendingKey = new InetSocketAddress(fromSocketAddress.getAddress(), port);
+		List<Session> list = pending.get(pendingKey);
+		if (list == null)
+			return null;
+
+		Session session = list.get(0);
+		for (Session s : list)
+		{
+			if (s.connectSocketAddress.equals(fromSocketAddress))
+			{
+				session = s;
+				break;
+			}
+		}
+
+		list.remove(session);
+		if (list.isEmpty())
+			pending.remove(pendingKey);
+
+		if (!session.connectSocketAddress.equals(fromSocketAddress))
+			log.debug("Session connected from " + EmuUtil.formatSocketAddress(session.connectSocketAddress) + " pinned to " + EmuUtil.formatSocketAddress(fromSocketAddress));
+
+		session.pinnedSocketAddress = fromSocketAddress;
+		PrivateUDPServer old = sessions.put(fromSocketAddress, session.server);
+		if (old != null)
+			log.warn(this + " replaced existing session for " + EmuUtil.formatSocketAddress(fromSocketAddress));
+
+		return session.server;
+	}
+
+	private static class Session
+	{
+		private PrivateUDPServer	server;
+		private Endpoint			endpoint;
+		private InetSocketAddress	connectSocketAddress;
+		private InetSocketAddress	pendingKey;
+		private InetSocketAddress	pinnedSocketAddress;
+
+		private Session(PrivateUDPServer server, Endpoint endpoint, InetSocketAddress connectSocketAddress)
+		{
+			this.server = server;
+			this.endpoint = endpoint;
+			this.connectSocketAddress = connectSocketAddress;
+			pendingKey = new InetSocketAddress(connectSocketAddress.getAddress(), endpoint.port);
+		}
+	}
+
+	public class Endpoint
+	{
+		private int				port;
+		private DatagramChannel	channel;
+		private AtomicInteger	sessionCount	= new AtomicInteger();
+
+		private Endpoint(int port) throws BindException
+		{
+			this.port = port;
+
+			try
+			{
+				channel = DatagramChannel.open();
+				channel.configureBlocking(false);
+				if (reusePort)
+					channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				channel.socket().bind(new InetSocketAddress(port));
+				// every session on this socket shares the kernel buffers
+				channel.socket().setReceiveBufferSize(bufferSize * 64);
+				channel.socket().setSendBufferSize(bufferSize * 64);
+			}
+			catch (IOException e)
+			{
+				close();
+				throw new BindException("Failed to bind to port " + port, port, e);
+			}
+		}
+
+		public int getPort()
+		{
+			return port;
+		}
+
+		public int getSessionCount()
+		{
+			return sessionCount.get();
+		}
+
+		public boolean isOpen()
+		{
+			return (channel != null && channel.isOpen());
+		}
+
+		void send(ByteBuffer buffer, InetSocketAddress toSocketAddress)
+		{
+			try
+			{
+				if (channel.send(buffer, toSocketAddress) == 0)
+					log.debug("Send buffer full on port " + port + ", dropped datagram to " + EmuUtil.formatSocketAddress(toSocketAddress));
+			}
+			catch (Exception e)
+			{
+				log.error("Failed to send on port " + port + ": " + e.getMessage(), e);
+			}
+		}
+
+		private void close()
+		{
+			if (channel == null)
+				return;
+
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to close DatagramChannel: " + e.getMessage());
+			}
+		}
+	}
+
+	private class ReceiveLoop implements Executable
+	{
+		private int			index;
+		private int			numSockets;
+		private Selector	selector;
+		private ByteBuffer	buffer;
+		private boolean		isRunning	= false;
+
+		private ReceiveLoop(int index, int numSockets)
+		{
+			this.index = index;
+			this.numSockets = numSockets;
+
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		public String toString()
+		{
+			return "UDPMultiplexer.ReceiveLoop(" + index + ")";
+		}
+
+		public boolean isRunning()
+		{
+			return isRunning;
+		}
+
+		private void register(Endpoint endpoint) throws BindException
+		{
+			try
+			{
+				if (selector == null)
+					selector = Selector.open();
+
+				endpoint.channel.register(selector, SelectionKey.OP_READ, endpoint);
+			}
+			catch (IOException e)
+			{
+				throw new BindException("Failed to register port " + endpoint.port + " with selector", endpoint.port, e);
+			}
+		}
+
+		public void stop()
+		{
+			if (selector != null)
+				selector.wakeup();
+		}
+
+		public void run()
+		{
+			isRunning = true;
+			log.debug(toString() + ": thread running...");
+
+			try
+			{
+				while (!stopFlag)
+				{
+					try
+					{
+						selector.select();
+					}
+					catch (IOException e)
+					{
+						if (stopFlag)
+							break;
+
+						log.error(toString() + " select failed: " + e.getMessage());
+						continue;
+					}
+
+					Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+					while (iter.hasNext())
+					{
+						SelectionKey key = iter.next();
+						iter.remove();
+
+						if (key.isValid() && key.isReadable())
+							drain((Endpoint) key.attachment());
+					}
+				}
+			}
+			catch (Throwable e)
+			{
+				log.fatal(toString() + " caught unexpected exception!", e);
+			}
+			finally
+			{
+				try
+				{
+					selector.close();
+				}
+				catch (IOException e)
+				{
+				}
+
+				selector = null;
+
+				isRunning = false;
+				log.debug(toString() + ": thread exiting...");
+			}
+		}
+
+		private void drain(Endpoint endpoint)
+		{
+			while (!stopFlag)
+			{
+				InetSocketAddress fromSocketAddress;
+				buffer.clear();
+
+				try
+				{
+					fromSocketAddress = (InetSocketAddress) endpoint.channel.receive(buffer);
+				}
+				catch (IOException e)
+				{
+					if (!stopFlag)
+						log.error("Failed to receive on port " + endpoint.port + ": " + e.getMessage());
+					return;
+				}
+
+				if (fromSocketAddress == null)
+					return;
+
+				PrivateUDPServer session = sessions.get(fromSocketAddress);
+				if (session == null)
+					session = pin(endpoint.port, fromSocketAddress);
+				if (session == null)
+				{
+					log.debug("Dropping datagram on port " + endpoint.port + " from unknown address: " + EmuUtil.formatSocketAddress(fromSocketAddress));
+					continue;
+				}
+
+				buffer.flip();
+
+				try
+				{
+					session.handleReceived(buffer, fromSocketAddress);
+				}
+				catch (Exception e)
+				{
+					log.error(session + " failed to handle datagram: " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+}
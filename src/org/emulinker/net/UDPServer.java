@@ -114,11 +114,50 @@ public abstract class UDPServer implements Executable, Startable
 	}
 
 	protected synchronized void bind(int port) throws BindException
+	{
+		bind(port, false);
+	}
+
+	/**
+	 * Returns true if sockets can be bound with SO_REUSEPORT on this platform, allowing several UDPServers to share one
+	 * port with the kernel spreading inbound datagrams between them by source address.
+	 */
+	public static boolean isReusePortSupported()
+	{
+		DatagramChannel tempChannel = null;
+		try
+		{
+			tempChannel = DatagramChannel.open();
+			return tempChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+		finally
+		{
+			if (tempChannel != null)
+			{
+				try
+				{
+					tempChannel.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+	}
+
+	protected synchronized void bind(int port, boolean reusePort) throws BindException
 	{
 		try
 		{
 			channel = DatagramChannel.open();
 
+			if (reusePort)
+				channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+
 			if (port > 0)
 				channel.socket().bind(new InetSocketAddress(port));
 			else
@@ -180,9 +219,10 @@ public abstract class UDPServer implements Executable, Startable
 		{
 			while (!stopFlag)
 			{
+				ByteBuffer buffer = getBuffer();
+
 				try
 				{
-					ByteBuffer buffer = getBuffer();
 					InetSocketAddress fromSocketAddress = (InetSocketAddress) channel.receive(buffer);
 
 					if (stopFlag)
@@ -209,7 +249,6 @@ public abstract class UDPServer implements Executable, Startable
 					buffer.flip();
 //					log.debug("receive("+EmuUtil.dumpBuffer(buffer, false)+")");					
 					handleReceived(buffer, fromSocketAddress);
-					releaseBuffer(buffer);
 				}
 				catch (SocketException e)
 				{
@@ -225,6 +264,10 @@ public abstract class UDPServer implements Executable, Startable
 
 					log.error("Failed to receive on port " + getBindPort() + ": " + e.getMessage());
 				}
+				finally
+				{
+					releaseBuffer(buffer);
+				}
 			}
 		}
 		catch (Throwable e)
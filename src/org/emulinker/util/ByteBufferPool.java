@@ -0,0 +1,206 @@
+package org.emulinker.util;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.apache.commons.logging.*;
+
+/**
+ * Thread-safe pool of direct ByteBuffers.  Allocating direct buffers is slow and they are only freed when the garbage
+ * collector gets around to running their Cleaner, so allocating one for every datagram causes a lot of native memory
+ * churn under a ping flood.<br>
+ * <br>
+ * Requests are rounded up to a power of two size class between MIN_SIZE and MAX_SIZE, and each class keeps up to
+ * MAX_FREE_PER_CLASS released buffers for reuse.  Larger requests are allocated directly and never pooled.  Buffers
+ * are handed out cleared, big endian, with their limit set to the requested size, exactly like a freshly allocated
+ * buffer.  A buffer must not be touched after it has been released.<br>
+ * <br>
+ * When the emulinker.bufferPool.debug system property is true, every outstanding buffer is tracked along with the
+ * stack trace of the code that acquired it.  Double releases are reported immediately, and buffers held longer than
+ * LEAK_AGE_MILLIS are logged as probable leaks.
+ */
+public final class ByteBufferPool
+{
+	private static Log									log					= LogFactory.getLog(ByteBufferPool.class);
+
+	public static final int								MIN_SIZE			= 64;
+	public static final int								MAX_SIZE			= 65536;
+	public static final int								MAX_FREE_PER_CLASS	= 128;
+	public static final long							LEAK_AGE_MILLIS		= 30000;
+
+	private static final int							MIN_SHIFT			= Integer.numberOfTrailingZeros(MIN_SIZE);
+	private static final int							NUM_CLASSES			= Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+	private static SizeClass[]							classes				= new SizeClass[NUM_CLASSES];
+
+	private static AtomicLong							hitCount			= new AtomicLong();
+	private static AtomicLong							missCount			= new AtomicLong();
+	private static AtomicLong							unpooledCount		= new AtomicLong();
+	private static AtomicInteger						outstanding			= new AtomicInteger();
+
+	private static boolean								debug				= Boolean.getBoolean("emulinker.bufferPool.debug");
+	private static Map<ByteBuffer, Allocation>			allocations			= Collections.synchronizedMap(new IdentityHashMap<ByteBuffer, Allocation>());
+	private static volatile long						lastLeakCheck		= System.currentTimeMillis();
+
+	static
+	{
+		for (int i = 0; i < NUM_CLASSES; i++)
+			classes[i] = new SizeClass(MIN_SIZE << i);
+
+		if (debug)
+			log.warn("ByteBufferPool leak detection is enabled, this will slow down the server!");
+	}
+
+	private ByteBufferPool()
+	{
+	}
+
+	public static ByteBuffer acquire(int size)
+	{
+		if (size > MAX_SIZE)
+		{
+			unpooledCount.incrementAndGet();
+			return ByteBuffer.allocateDirect(size);
+		}
+
+		SizeClass sizeClass = classes[classIndex(size)];
+		ByteBuffer buffer = sizeClass.free.poll();
+		if (buffer != null)
+		{
+			sizeClass.freeCount.decrementAndGet();
+			hitCount.incrementAndGet();
+			buffer.clear();
+			buffer.order(ByteOrder.BIG_ENDIAN);
+		}
+		else
+		{
+			missCount.incrementAndGet();
+			buffer = ByteBuffer.allocateDirect(sizeClass.size);
+		}
+
+		buffer.limit(size);
+		outstanding.incrementAndGet();
+
+		if (debug)
+		{
+			allocations.put(buffer, new Allocation());
+			checkLeaks();
+		}
+
+		return buffer;
+	}
+
+	public static void release(ByteBuffer buffer)
+	{
+		if (buffer == null || !buffer.isDirect())
+			return;
+
+		int capacity = buffer.capacity();
+		if (capacity < MIN_SIZE || capacity > MAX_SIZE || Integer.bitCount(capacity) != 1)
+			return;
+
+		if (debug && allocations.remove(buffer) == null)
+		{
+			log.error("ByteBufferPool: buffer released twice or was never acquired from the pool", new Throwable());
+			return;
+		}
+
+		outstanding.decrementAndGet();
+
+		SizeClass sizeClass = classes[classIndex(capacity)];
+		if (sizeClass.freeCount.incrementAndGet() > MAX_FREE_PER_CLASS)
+		{
+			// the pool is full, let the garbage collector have this one
+			sizeClass.freeCount.decrementAndGet();
+			return;
+		}
+
+		sizeClass.free.offer(buffer);
+	}
+
+	public static long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	public static long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	public static long getUnpooledCount()
+	{
+		return unpooledCount.get();
+	}
+
+	public static int getOutstandingCount()
+	{
+		return outstanding.get();
+	}
+
+	public static boolean isDebug()
+	{
+		return debug;
+	}
+
+	public static String getStats()
+	{
+		return "hits=" + getHitCount() + " misses=" + getMissCount() + " unpooled=" + getUnpooledCount() + " outstanding=" + getOutstandingCount();
+	}
+
+	private static int classIndex(int size)
+	{
+		if (size <= MIN_SIZE)
+			return 0;
+		return (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_SHIFT;
+	}
+
+	private static void checkLeaks()
+	{
+		long now = System.currentTimeMillis();
+		if ((now - lastLeakCheck) < LEAK_AGE_MILLIS)
+			return;
+
+		lastLeakCheck = now;
+
+		List<Allocation> leaked = new ArrayList<Allocation>();
+		synchronized (allocations)
+		{
+			Iterator<Allocation> iter = allocations.values().iterator();
+			while (iter.hasNext())
+			{
+				Allocation allocation = iter.next();
+				if (!allocation.reported && (now - allocation.time) > LEAK_AGE_MILLIS)
+				{
+					// only report each leak once
+					allocation.reported = true;
+					leaked.add(allocation);
+				}
+			}
+		}
+
+		for (Allocation allocation : leaked)
+			log.warn("ByteBufferPool: buffer held for " + (now - allocation.time) + "ms, probable leak acquired at:", allocation.trace);
+	}
+
+	private static class SizeClass
+	{
+		private int								size;
+		private ConcurrentLinkedQueue<ByteBuffer>	free		= new ConcurrentLinkedQueue<ByteBuffer>();
+		private AtomicInteger					freeCount	= new AtomicInteger();
+
+		private SizeClass(int size)
+		{
+			this.size = size;
+		}
+	}
+
+	private static class Allocation
+	{
+		private long		time		= System.currentTimeMillis();
+		private Throwable	trace		= new Throwable();
+		private boolean		reported	= false;
+	}
+}
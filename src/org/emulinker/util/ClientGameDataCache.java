@@ -10,6 +10,10 @@ public class ClientGameDataCache implements GameDataCache
 	// array holds the elements
 	protected byte[][]	array;
 
+	// the pooled frame each element came from, if any, held until the
+	// element leaves the cache
+	protected FramePool.Frame[]	frames;
+
 	// head points to the first logical element in the array, and
 	// tail points to the element following the last. This means
 	// that the list is empty when head == tail. It also means
@@ -25,6 +29,7 @@ public class ClientGameDataCache implements GameDataCache
 	public ClientGameDataCache(int size)
 	{
 		array = new byte[size][];
+		frames = new FramePool.Frame[size];
 	}
 
 	public String toString()
@@ -69,12 +74,15 @@ public class ClientGameDataCache implements GameDataCache
 		int convertedIndex = convert(index);
 		byte[] oldValue = array[convertedIndex];
 		array[convertedIndex] = data;
+		releaseFrame(convertedIndex);
 		return oldValue;
 	}
 
 	// This method is the main reason we re-wrote the class.
 	// It is optimized for removing first and last elements
 	// but also allows you to remove in the middle of the list.
+	// If the element came from a pooled frame, the frame is given back, so
+	// the returned array may already be in use again.
 	public byte[] remove(int index)
 	{
 		rangeCheck(index);
@@ -88,6 +96,7 @@ public class ClientGameDataCache implements GameDataCache
 		finally
 		{
 			array[pos] = null; // Let gc do its work
+			releaseFrame(pos);
 
 			// optimized for FIFO access, i.e. adding to back and
 			// removing from front
@@ -105,6 +114,8 @@ public class ClientGameDataCache implements GameDataCache
 				if (pos > head && pos > tail)
 				{ // tail/head/pos
 					System.arraycopy(array, head, array, head + 1, pos - head);
+					System.arraycopy(frames, head, frames, head + 1, pos - head);
+					frames[head] = null;
 					//head = (head + 1) % array.length;
 					head++;
 					if(head == array.length)
@@ -113,6 +124,8 @@ public class ClientGameDataCache implements GameDataCache
 				else
 				{
 					System.arraycopy(array, pos + 1, array, pos, tail - pos - 1);
+					System.arraycopy(frames, pos + 1, frames, pos, tail - pos - 1);
+					frames[tail - 1] = null;
 					tail = (tail - 1 + array.length) % array.length;
 				}
 			}
@@ -123,7 +136,10 @@ public class ClientGameDataCache implements GameDataCache
 	public void clear()
 	{
 		for (int i = 0; i < size; i++)
+		{
 			array[convert(i)] = null;
+			releaseFrame(convert(i));
+		}
 
 		head = tail = size = 0;
 	}
@@ -146,6 +162,23 @@ public class ClientGameDataCache implements GameDataCache
 		return unconvert(pos);
 	}
 
+	public int add(FramePool.Frame frame)
+	{
+		frame.retain();
+		int index = add(frame.getData());
+		frames[convert(index)] = frame;
+		return index;
+	}
+
+	protected void releaseFrame(int pos)
+	{
+		if (frames[pos] != null)
+		{
+			frames[pos].release();
+			frames[pos] = null;
+		}
+	}
+
 	// The convert() method takes a logical index (as if head was always 0) and
 	// calculates the index within array
 	protected int convert(int index)
@@ -18,5 +18,6 @@ public class EmuLinkerExecutor extends ThreadPoolExecutor
 		// super.prestartAllCoreThreads();
 		super(5, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
 		System.setProperty("emulinker.charset", config.getString("emulinker.charset"));
+		System.setProperty("emulinker.bufferPool.debug", Boolean.toString(config.getBoolean("emulinker.bufferPool.debug", false)));
 	}
 }
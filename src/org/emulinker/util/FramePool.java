@@ -0,0 +1,190 @@
+package org.emulinker.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Thread-safe pool of reference counted game frames.  Every game allocates a combined frame for every frame of play,
+ * and with the same frame going out to every player the array has to stay intact until the last player's controller
+ * has sent or cached it, so frames are handed out with a reference count instead of being freed by whoever is done
+ * with them first.<br>
+ * <br>
+ * Frames are pooled by exact length since a game's frames are all the same length and the caches compare lengths.
+ * Each length keeps up to MAX_FREE_PER_LENGTH released frames on a plain array stack, so acquiring and releasing a
+ * frame doesn't allocate anything once the pool is warm.  A frame is handed out zero filled with a reference count of
+ * one, and goes back to the pool when the count drops to zero; its data must not be touched after that.  The game data
+ * caches hold a reference to every frame they keep, so a frame stays outstanding for as long as it is cached.  A frame
+ * that is never released, like one still cached when its client disconnects, is simply left to the garbage collector.
+ * Frames longer than MAX_LENGTH are not pooled.
+ */
+public final class FramePool
+{
+	public static final int						MAX_FREE_PER_LENGTH	= 256;
+	public static final int						MAX_LENGTH			= 4096;
+
+	// indexed by length so looking up a free list doesn't box the length
+	private static AtomicReferenceArray<FreeList>	freeLists		= new AtomicReferenceArray<FreeList>(MAX_LENGTH + 1);
+
+	private static AtomicLong					hitCount			= new AtomicLong();
+	private static AtomicLong					missCount			= new AtomicLong();
+	private static AtomicInteger				outstanding			= new AtomicInteger();
+
+	private FramePool()
+	{
+	}
+
+	public static Frame acquire(int length)
+	{
+		FreeList freeList = getFreeList(length);
+		Frame frame = freeList.pop();
+		if (frame != null)
+		{
+			hitCount.incrementAndGet();
+			Arrays.fill(frame.data, (byte) 0);
+		}
+		else
+		{
+			missCount.incrementAndGet();
+			frame = new Frame(freeList, new byte[length]);
+		}
+
+		frame.refs.set(1);
+		outstanding.incrementAndGet();
+		return frame;
+	}
+
+	public static long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	public static long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	public static int getOutstandingCount()
+	{
+		return outstanding.get();
+	}
+
+	public static String getStats()
+	{
+		return "hits=" + getHitCount() + " misses=" + getMissCount() + " outstanding=" + getOutstandingCount();
+	}
+
+	private static FreeList getFreeList(int length)
+	{
+		if (length > MAX_LENGTH)
+			return new FreeList(0);
+
+		FreeList freeList = freeLists.get(length);
+		if (freeList == null)
+		{
+			freeLists.compareAndSet(length, null, new FreeList(MAX_FREE_PER_LENGTH));
+			freeList = freeLists.get(length);
+		}
+		return freeList;
+	}
+
+	public static final class Frame
+	{
+		private FreeList		freeList;
+		private byte[]			data;
+		private AtomicInteger	refs	= new AtomicInteger();
+		// kept across trips through the pool, so whoever wraps the frame can reuse the wrapper
+		private volatile Object	attachment;
+
+		private Frame(FreeList freeList, byte[] data)
+		{
+			this.freeList = freeList;
+			this.data = data;
+		}
+
+		public byte[] getData()
+		{
+			return data;
+		}
+
+		public Object getAttachment()
+		{
+			return attachment;
+		}
+
+		/**
+		 * Attaches an object to the frame, which stays attached when the frame goes back to the pool and is handed out
+		 * again.  Only whoever holds the frame before it has been shared should set it.
+		 */
+		public void setAttachment(Object attachment)
+		{
+			this.attachment = attachment;
+		}
+
+		/**
+		 * Adds a reference to a frame that is still referenced by the caller.
+		 */
+		public void retain()
+		{
+			refs.incrementAndGet();
+		}
+
+		/**
+		 * Adds a reference unless the frame has already gone back to the pool, for callers that found the frame
+		 * somewhere shared rather than holding a reference themselves.
+		 *
+		 * @return	false if the frame was already released and must not be used
+		 */
+		public boolean tryRetain()
+		{
+			while (true)
+			{
+				int count = refs.get();
+				if (count <= 0)
+					return false;
+				if (refs.compareAndSet(count, (count + 1)))
+					return true;
+			}
+		}
+
+		public void release()
+		{
+			int count = refs.decrementAndGet();
+			if (count > 0)
+				return;
+
+			if (count < 0)
+				throw new IllegalStateException("FramePool: frame released too many times");
+
+			outstanding.decrementAndGet();
+			freeList.push(this);
+		}
+	}
+
+	private static final class FreeList
+	{
+		private Frame[]	frames;
+		private int		count	= 0;
+
+		private FreeList(int size)
+		{
+			frames = new Frame[size];
+		}
+
+		private synchronized Frame pop()
+		{
+			if (count == 0)
+				return null;
+
+			Frame frame = frames[--count];
+			frames[count] = null;
+			return frame;
+		}
+
+		private synchronized void push(Frame frame)
+		{
+			// the pool is full, let the garbage collector have this one
+			if (count < frames.length)
+				frames[count++] = frame;
+		}
+	}
+}
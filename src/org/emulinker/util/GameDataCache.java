@@ -6,6 +6,12 @@ public interface GameDataCache
 
 	public int add(byte[] data);
 
+	/**
+	 * Adds the data of a pooled frame that the caller holds a reference to.  A cache that keeps the arrays it is given
+	 * takes a reference of its own and gives it back when the entry is evicted, replaced or cleared.
+	 */
+	public int add(FramePool.Frame frame);
+
 	public int indexOf(byte[] data);
 
 	public int size();
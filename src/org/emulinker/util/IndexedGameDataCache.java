@@ -0,0 +1,232 @@
+package org.emulinker.util;
+
+import java.util.*;
+
+/**
+ * A ClientGameDataCache with a hash index for indexOf().  ClientGameDataCache scans every entry with Arrays.equals,
+ * which is up to 256 array compares for every frame sent to every player.  ServerGameDataCache avoided that with a
+ * HashMap keyed on Arrays.hashCode alone, so two different frames with the same hash code were treated as equal and
+ * the client replayed the wrong inputs (button ghosting).<br>
+ * <br>
+ * This keeps the entries in exactly the same FIFO ring as ClientGameDataCache, so add(), get() and eviction return the
+ * same indexes the Kaillera client expects, and maintains an open addressing table of physical slots alongside it.
+ * Lookups only compare entries whose full hash matches, and always confirm with Arrays.equals.  When the same data is
+ * cached more than once, indexOf() returns the oldest copy, just like the linear scan.  The table is kept at most a
+ * quarter full and uses backward shift deletion, so it never needs tombstones or rehashing.<br>
+ * <br>
+ * Removing from the middle of the ring moves entries to different slots, so it rebuilds the whole index.  Gameplay
+ * never does that; the cache only ever evicts its oldest entry.
+ */
+public class IndexedGameDataCache extends ClientGameDataCache
+{
+	// physical slot + 1 of each indexed entry, 0 for an empty bucket
+	private int[]	table;
+	private int		mask;
+	// hash of the entry in each physical slot
+	private int[]	slotHashes;
+
+	public IndexedGameDataCache(int size)
+	{
+		super(size);
+
+		int buckets = 4;
+		while (buckets < (size * 4))
+			buckets <<= 1;
+
+		table = new int[buckets];
+		mask = (buckets - 1);
+		slotHashes = new int[size];
+	}
+
+	public String toString()
+	{
+		return "IndexedGameDataCache[size=" + size + " head=" + head + " tail=" + tail + "]";
+	}
+
+	public int indexOf(byte[] data)
+	{
+		int hash = hash(data);
+		int found = -1;
+		for (int i = (hash & mask); table[i] != 0; i = ((i + 1) & mask))
+		{
+			int pos = (table[i] - 1);
+			if (slotHashes[pos] == hash && Arrays.equals(data, array[pos]))
+			{
+				int index = unconvert(pos);
+				if (found < 0 || index < found)
+					found = index;
+			}
+		}
+		return found;
+	}
+
+	public byte[] set(int index, byte[] data)
+	{
+		rangeCheck(index);
+		int pos = convert(index);
+		unindex(pos);
+		byte[] oldValue = super.set(index, data);
+		slotHashes[pos] = hash(data);
+		index(pos);
+		return oldValue;
+	}
+
+	public byte[] remove(int index)
+	{
+		rangeCheck(index);
+		int pos = convert(index);
+		unindex(pos);
+
+		// anything but the head shifts other entries to new slots
+		boolean shifts = (pos != head);
+		byte[] removed = super.remove(index);
+		if (shifts)
+			rebuildIndex();
+
+		return removed;
+	}
+
+	public void clear()
+	{
+		super.clear();
+		Arrays.fill(table, 0);
+	}
+
+	public int add(byte[] data)
+	{
+		if (size == array.length)
+			remove(0);
+
+		int pos = tail;
+		int index = super.add(data);
+		slotHashes[pos] = hash(data);
+		index(pos);
+		return index;
+	}
+
+	private void index(int pos)
+	{
+		int i = (slotHashes[pos] & mask);
+		while (table[i] != 0)
+			i = ((i + 1) & mask);
+		table[i] = (pos + 1);
+	}
+
+	private void unindex(int pos)
+	{
+		int i = (slotHashes[pos] & mask);
+		while (table[i] != (pos + 1))
+			i = ((i + 1) & mask);
+
+		// backward shift deletion: pull later entries of the probe run into the hole unless that would put them
+		// before their home bucket
+		int j = i;
+		while (true)
+		{
+			j = ((j + 1) & mask);
+			if (table[j] == 0)
+				break;
+
+			int home = (slotHashes[table[j] - 1] & mask);
+			if (((j - home) & mask) >= ((j - i) & mask))
+			{
+				table[i] = table[j];
+				i = j;
+			}
+		}
+		table[i] = 0;
+	}
+
+	private void rebuildIndex()
+	{
+		Arrays.fill(table, 0);
+		for (int i = 0; i < size; i++)
+		{
+			int pos = convert(i);
+			slotHashes[pos] = hash(array[pos]);
+			index(pos);
+		}
+	}
+
+	private static int hash(byte[] data)
+	{
+		// spread the bits, Arrays.hashCode of short arrays only varies in the low bits
+		int h = (Arrays.hashCode(data) * 0x9E3779B9);
+		return (h ^ (h >>> 16));
+	}
+
+	public static void main(String args[])
+	{
+		// Arrays.hashCode({1, 0}) == Arrays.hashCode({0, 31})
+		byte[] a = { 1, 0 };
+		byte[] b = { 0, 31 };
+		GameDataCache[] ghostCheck = { new ClientGameDataCache(256), new ServerGameDataCache(256), new IndexedGameDataCache(256) };
+		for (GameDataCache cache : ghostCheck)
+		{
+			cache.add(a);
+			System.out.println(cache.getClass().getSimpleName() + ": indexOf colliding frame=" + cache.indexOf(b) + " (should be -1)");
+		}
+
+		int frames = 2000000;
+		measure(12, 200, frames);
+		measure(12, 1000, frames);
+		measure(48, 1000, frames);
+	}
+
+	/**
+	 * Runs the same stream of frames through each cache the way GameDataAction does, looking up every frame and
+	 * adding the misses, and checks the indexes returned against ClientGameDataCache.
+	 */
+	private static void measure(int frameLength, int distinctFrames, int frames)
+	{
+		Random random = new Random(0);
+		byte[][] palette = new byte[distinctFrames][frameLength];
+		for (byte[] frame : palette)
+			random.nextBytes(frame);
+
+		// frames repeat a lot during play, so favor the first few inputs
+		byte[][] stream = new byte[frames][];
+		for (int i = 0; i < frames; i++)
+		{
+			int choice = (int) (Math.abs(random.nextGaussian()) * (distinctFrames / 4)) % distinctFrames;
+			stream[i] = palette[choice].clone();
+		}
+
+		System.out.println("frameLength=" + frameLength + " distinctFrames=" + distinctFrames + " frames=" + frames);
+		// the first run also warms up ClientGameDataCache for the measured runs
+		int[] expected = run(new ClientGameDataCache(256), stream, frames);
+		run(new ServerGameDataCache(256), stream, (frames / 4));
+		run(new IndexedGameDataCache(256), stream, (frames / 4));
+		for (GameDataCache cache : new GameDataCache[] { new ClientGameDataCache(256), new ServerGameDataCache(256), new IndexedGameDataCache(256) })
+		{
+			long st = System.nanoTime();
+			int[] results = run(cache, stream, frames);
+			long et = (System.nanoTime() - st);
+
+			int hits = 0;
+			int mismatches = 0;
+			for (int i = 0; i < frames; i++)
+			{
+				if (results[i] >= 0)
+					hits++;
+				if (results[i] != expected[i])
+					mismatches++;
+			}
+
+			System.out.println("  " + cache.getClass().getSimpleName() + ": ns/frame=" + (et / frames) + " hits=" + hits + " mismatches=" + mismatches);
+		}
+	}
+
+	private static int[] run(GameDataCache cache, byte[][] stream, int frames)
+	{
+		int[] results = new int[stream.length];
+		for (int i = 0; i < frames; i++)
+		{
+			int key = cache.indexOf(stream[i]);
+			if (key < 0)
+				cache.add(stream[i]);
+			results[i] = key;
+		}
+		return results;
+	}
+}
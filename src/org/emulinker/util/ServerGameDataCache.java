@@ -145,6 +145,12 @@ public class ServerGameDataCache implements GameDataCache
 		return unconvert(pos);
 	}
 
+	public int add(FramePool.Frame frame)
+	{
+		// keeps a copy rather than track frames
+		return add(frame.getData().clone());
+	}
+
 	// The convert() method takes a logical index (as if head was always 0) and
 	// calculates the index within array
 	protected int convert(int index)
@@ -0,0 +1,468 @@
+package org.emulinker.util;
+
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * A GameDataCache that copies its entries into one slab instead of holding on to the arrays it is given.  The heap
+ * caches keep a reference to every cached frame, so each client holds up to 512 small arrays that live long enough to
+ * be promoted out of the young generation before they're evicted.  Here each entry is copied into a fixed size slot of
+ * a single byte[], so a client's cache is a handful of objects no matter how many frames pass through it, and the
+ * arrays handed to add() can die young.<br>
+ * <br>
+ * Entries are kept in the same FIFO ring as ClientGameDataCache and return the same indexes, and indexOf() uses the
+ * same kind of hash index as IndexedGameDataCache, comparing the slab in place.  Slots start at MIN_SLOT_LENGTH bytes
+ * and the slab is reallocated with bigger slots the first time a longer entry is added; a game's frames are all the
+ * same length, so this only happens at the start of a game.<br>
+ * <br>
+ * The hash index is optional.  A client cache holds every input the client sends, often the same input many times
+ * over, which makes for long probe runs, and it is only ever read with get(), so it is better off without one; indexOf()
+ * then falls back to a linear scan like ClientGameDataCache.<br>
+ * <br>
+ * The catch is that entries have to be copied out of the slab.  Only the client cache uses get(), once per
+ * CachedGameData message received, so get() copies into a scratch array the cache keeps and hands that back; it is
+ * only good until the next call to get(), and anyone who needs to keep it has to copy it.  set() and remove() are
+ * never used in play and return new arrays.
+ */
+public class SlabGameDataCache implements GameDataCache
+{
+	public static final int	MIN_SLOT_LENGTH	= 16;
+
+	private byte[]			slab;
+	private int				slotLength;
+	// length of the entry in each physical slot, -1 for a null entry
+	private int[]			lengths;
+	private int[]			slotHashes;
+	private int				capacity;
+	// returned by get(), reallocated only when the entry length changes
+	private byte[]			scratch;
+
+	private int				head			= 0, tail = 0;
+	private int				size			= 0;
+
+	// physical slot + 1 of each indexed entry, 0 for an empty bucket
+	private int[]			table;
+	private int				mask;
+	private boolean			indexed;
+
+	public SlabGameDataCache(int size)
+	{
+		this(size, true);
+	}
+
+	public SlabGameDataCache(int size, boolean indexed)
+	{
+		this.indexed = indexed;
+		capacity = size;
+		slotLength = MIN_SLOT_LENGTH;
+		slab = new byte[(capacity * slotLength)];
+		lengths = new int[capacity];
+		slotHashes = new int[capacity];
+
+		int buckets = 4;
+		while (indexed && buckets < (size * 4))
+			buckets <<= 1;
+
+		table = new int[buckets];
+		mask = (buckets - 1);
+	}
+
+	public String toString()
+	{
+		return "SlabGameDataCache[size=" + size + " head=" + head + " tail=" + tail + " slotLength=" + slotLength + "]";
+	}
+
+	public boolean isEmpty()
+	{
+		return (size == 0);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean contains(byte[] data)
+	{
+		return indexOf(data) >= 0;
+	}
+
+	public int indexOf(byte[] data)
+	{
+		if (!indexed)
+		{
+			for (int i = 0; i < size; i++)
+			{
+				if (slotEquals(convert(i), data))
+					return i;
+			}
+			return -1;
+		}
+
+		int hash = hash(data, 0, (data == null ? -1 : data.length));
+		int found = -1;
+		for (int i = (hash & mask); table[i] != 0; i = ((i + 1) & mask))
+		{
+			int pos = (table[i] - 1);
+			if (slotHashes[pos] == hash && slotEquals(pos, data))
+			{
+				int index = unconvert(pos);
+				if (found < 0 || index < found)
+					found = index;
+			}
+		}
+		return found;
+	}
+
+	public byte[] get(int index)
+	{
+		rangeCheck(index);
+		int pos = convert(index);
+		int length = lengths[pos];
+		if (length < 0)
+			return null;
+
+		if (scratch == null || scratch.length != length)
+			scratch = new byte[length];
+
+		System.arraycopy(slab, (pos * slotLength), scratch, 0, length);
+		return scratch;
+	}
+
+	public byte[] set(int index, byte[] data)
+	{
+		rangeCheck(index);
+		int pos = convert(index);
+		byte[] oldValue = copyOut(pos);
+		unindex(pos);
+		copyIn(pos, data);
+		index(pos);
+		return oldValue;
+	}
+
+	public byte[] remove(int index)
+	{
+		rangeCheck(index);
+		int pos = convert(index);
+		byte[] removed = copyOut(pos);
+		unindex(pos);
+
+		// same moves as ClientGameDataCache, a slot at a time
+		if (pos == head)
+		{
+			head++;
+			if (head == capacity)
+				head = 0;
+		}
+		else if (pos == tail)
+		{
+			tail = (tail - 1 + capacity) % capacity;
+		}
+		else
+		{
+			if (pos > head && pos > tail)
+			{
+				moveSlots(head, (head + 1), (pos - head));
+				head++;
+				if (head == capacity)
+					head = 0;
+			}
+			else
+			{
+				moveSlots((pos + 1), pos, (tail - pos - 1));
+				tail = (tail - 1 + capacity) % capacity;
+			}
+			size--;
+			rebuildIndex();
+			return removed;
+		}
+
+		size--;
+		return removed;
+	}
+
+	public void clear()
+	{
+		head = tail = size = 0;
+		Arrays.fill(table, 0);
+	}
+
+	public int add(byte[] data)
+	{
+		// evict without copying the oldest entry out like remove(0) would
+		if (size == capacity)
+		{
+			unindex(head);
+			head++;
+			if (head == capacity)
+				head = 0;
+			size--;
+		}
+
+		int pos = tail;
+		copyIn(pos, data);
+		index(pos);
+
+		tail++;
+		if (tail == capacity)
+			tail = 0;
+
+		size++;
+
+		return unconvert(pos);
+	}
+
+	public int add(FramePool.Frame frame)
+	{
+		// the data is copied in, so there's no need to hold on to the frame
+		return add(frame.getData());
+	}
+
+	private void copyIn(int pos, byte[] data)
+	{
+		if (data == null)
+		{
+			lengths[pos] = -1;
+			slotHashes[pos] = hash(null, 0, -1);
+			return;
+		}
+
+		if (data.length > slotLength)
+			growSlots(data.length);
+
+		System.arraycopy(data, 0, slab, (pos * slotLength), data.length);
+		lengths[pos] = data.length;
+		if (indexed)
+			slotHashes[pos] = hash(slab, (pos * slotLength), data.length);
+	}
+
+	private byte[] copyOut(int pos)
+	{
+		if (lengths[pos] < 0)
+			return null;
+
+		int offset = (pos * slotLength);
+		return Arrays.copyOfRange(slab, offset, (offset + lengths[pos]));
+	}
+
+	private boolean slotEquals(int pos, byte[] data)
+	{
+		int length = lengths[pos];
+		if (data == null || length < 0)
+			return (data == null && length < 0);
+
+		if (data.length != length)
+			return false;
+
+		int offset = (pos * slotLength);
+		return Arrays.equals(slab, offset, (offset + length), data, 0, length);
+	}
+
+	private void growSlots(int minLength)
+	{
+		int newSlotLength = slotLength;
+		while (newSlotLength < minLength)
+			newSlotLength <<= 1;
+
+		byte[] newSlab = new byte[(capacity * newSlotLength)];
+		for (int pos = 0; pos < capacity; pos++)
+		{
+			if (lengths[pos] > 0)
+				System.arraycopy(slab, (pos * slotLength), newSlab, (pos * newSlotLength), lengths[pos]);
+		}
+
+		slab = newSlab;
+		slotLength = newSlotLength;
+	}
+
+	private void moveSlots(int from, int to, int count)
+	{
+		if (count <= 0)
+			return;
+
+		System.arraycopy(slab, (from * slotLength), slab, (to * slotLength), (count * slotLength));
+		System.arraycopy(lengths, from, lengths, to, count);
+		System.arraycopy(slotHashes, from, slotHashes, to, count);
+	}
+
+	private void index(int pos)
+	{
+		if (!indexed)
+			return;
+
+		int i = (slotHashes[pos] & mask);
+		while (table[i] != 0)
+			i = ((i + 1) & mask);
+		table[i] = (pos + 1);
+	}
+
+	private void unindex(int pos)
+	{
+		if (!indexed)
+			return;
+
+		int i = (slotHashes[pos] & mask);
+		while (table[i] != (pos + 1))
+			i = ((i + 1) & mask);
+
+		int j = i;
+		while (true)
+		{
+			j = ((j + 1) & mask);
+			if (table[j] == 0)
+				break;
+
+			int home = (slotHashes[table[j] - 1] & mask);
+			if (((j - home) & mask) >= ((j - i) & mask))
+			{
+				table[i] = table[j];
+				i = j;
+			}
+		}
+		table[i] = 0;
+	}
+
+	private void rebuildIndex()
+	{
+		Arrays.fill(table, 0);
+		for (int i = 0; i < size; i++)
+			index(convert(i));
+	}
+
+	// the same value as IndexedGameDataCache, computed over part of an array
+	private static int hash(byte[] data, int offset, int length)
+	{
+		int h = 0;
+		if (length >= 0)
+		{
+			h = 1;
+			for (int i = 0; i < length; i++)
+				h = ((31 * h) + data[(offset + i)]);
+		}
+
+		h *= 0x9E3779B9;
+		return (h ^ (h >>> 16));
+	}
+
+	private int convert(int index)
+	{
+		return ((index + head) % capacity);
+	}
+
+	private int unconvert(int index)
+	{
+		if (index >= head)
+			return (index - head);
+		else
+			return ((capacity - head) + index);
+	}
+
+	private void rangeCheck(int index)
+	{
+		if (index >= size || index < 0)
+			throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+	}
+
+	/**
+	 * Simulates 50 four player games, each client with a client and a server cache, and compares the garbage
+	 * collection and heap footprint of the heap caches against the slab caches.  Run each backend in its own JVM with
+	 * a small young generation so promotion shows up, e.g.
+	 * java -Xmx256m -Xmn16m org.emulinker.util.SlabGameDataCache heap
+	 */
+	public static void main(String args[])
+	{
+		boolean slab = (args.length > 0 && args[0].equals("slab"));
+		int games = 50;
+		int playersPerGame = 4;
+		int frameLength = 24;
+		int frames = 1000000;
+
+		int clients = (games * playersPerGame);
+		GameDataCache[] clientCaches = new GameDataCache[clients];
+		GameDataCache[] serverCaches = new GameDataCache[clients];
+		for (int i = 0; i < clients; i++)
+		{
+			clientCaches[i] = (slab ? new SlabGameDataCache(256, false) : new ClientGameDataCache(256));
+			serverCaches[i] = (slab ? new SlabGameDataCache(256) : new IndexedGameDataCache(256));
+		}
+
+		// players hold the same buttons for several frames and mostly use a few combinations
+		Random random = new Random(0);
+		byte[][] inputs = new byte[64][frameLength / playersPerGame];
+		for (byte[] input : inputs)
+			random.nextBytes(input);
+		int[] held = new int[clients];
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadID = Thread.currentThread().getId();
+		long startBytes = threadBean.getThreadAllocatedBytes(threadID);
+		long startOldGen = oldGenUsed();
+		long startCollections = 0;
+		long startCollectionTime = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			startCollections += gc.getCollectionCount();
+			startCollectionTime += gc.getCollectionTime();
+		}
+
+		long st = System.currentTimeMillis();
+		int cached = 0;
+		for (int frame = 0; frame < frames; frame++)
+		{
+			int game = (frame % games);
+			byte[] combined = new byte[frameLength];
+			for (int player = 0; player < playersPerGame; player++)
+			{
+				// every player's input arrives as its own array and goes into its client cache
+				int client = ((game * playersPerGame) + player);
+				if (random.nextInt(8) == 0)
+					held[client] = ((int) (Math.abs(random.nextGaussian()) * 3) % inputs.length);
+				byte[] input = inputs[held[client]];
+				clientCaches[client].add(input.clone());
+				System.arraycopy(input, 0, combined, (player * input.length), input.length);
+			}
+
+			// the same combined frame goes out to every player in the game
+			for (int player = 0; player < playersPerGame; player++)
+			{
+				GameDataCache serverCache = serverCaches[((game * playersPerGame) + player)];
+				if (serverCache.indexOf(combined) < 0)
+					serverCache.add(combined);
+				else
+					cached++;
+			}
+		}
+		long et = (System.currentTimeMillis() - st);
+
+		long allocated = (threadBean.getThreadAllocatedBytes(threadID) - startBytes);
+		long promoted = (oldGenUsed() - startOldGen);
+		long collections = -startCollections;
+		long collectionTime = -startCollectionTime;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			collections += gc.getCollectionCount();
+			collectionTime += gc.getCollectionTime();
+		}
+
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		long retained = (runtime.totalMemory() - runtime.freeMemory());
+
+		System.out.println((slab ? "SlabGameDataCache" : "ClientGameDataCache/IndexedGameDataCache") + ": et=" + et + "ms cached=" + cached + " allocated=" + (allocated / 1024) + "KB collections=" + collections + " collectionTime=" + collectionTime + "ms oldGenGrowth=" + (promoted / 1024) + "KB retainedHeap=" + (retained / 1024) + "KB");
+
+		// keep the caches reachable until the heap has been measured
+		if (clientCaches[0].size() < 0 || serverCaches[0].size() < 0)
+			System.out.println();
+	}
+
+	private static long oldGenUsed()
+	{
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP && (pool.getName().contains("Old") || pool.getName().contains("Tenured")))
+				used += pool.getUsage().getUsed();
+		}
+		return used;
+	}
+}